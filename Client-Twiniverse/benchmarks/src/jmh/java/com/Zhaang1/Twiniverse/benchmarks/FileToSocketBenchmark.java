@@ -0,0 +1,121 @@
+package com.Zhaang1.Twiniverse.benchmarks;
+
+import com.Zhaang1.Twiniverse.protocol.RequestBody;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把一个文件发往本机回环上的 LoopbackSink 的几种方式：
+ * transferTo（RequestBody 的文件段）、64KB 堆缓冲流拷贝、直接缓冲区、整体读入内存。
+ * 页缓存在第一次读取后即已命中，结果反映的是拷贝路径本身的开销。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class FileToSocketBenchmark {
+
+    @Param({"1", "16", "100", "500"})
+    public int sizeMb;
+
+    private File dir;
+    private File file;
+    private LoopbackSink sink;
+    private SocketChannel channel;
+    private final ByteBuffer directBuffer = ByteBuffer.allocateDirect(RequestBody.BUFFER_SIZE);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("twiniverse-copy").toFile();
+        file = Payloads.writeFile(dir, "video.mp4", (long) sizeMb * Payloads.MB);
+        sink = new LoopbackSink();
+        channel = sink.connect();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        channel.close();
+        sink.close();
+        Payloads.deleteRecursively(dir);
+    }
+
+    /**
+     * 当前实现：FileChannel.transferTo，数据不经过 Java 堆
+     */
+    @Benchmark
+    public void transferTo(ByteCounter counter) throws IOException {
+        RequestBody body = RequestBody.ofFile(file);
+        LoopbackSink.writeHeader(channel, body.length());
+        body.writeTo(channel);
+        finish(counter, body.length());
+    }
+
+    @Benchmark
+    public void streamCopy(ByteCounter counter) throws IOException {
+        LoopbackSink.writeHeader(channel, file.length());
+        OutputStream out = Channels.newOutputStream(channel);
+        byte[] buffer = new byte[RequestBody.BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        finish(counter, file.length());
+    }
+
+    @Benchmark
+    public void directBuffer(ByteCounter counter) throws IOException {
+        LoopbackSink.writeHeader(channel, file.length());
+        ByteBuffer buffer = directBuffer;
+        buffer.clear();
+        try (FileChannel in = new FileInputStream(file).getChannel()) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        finish(counter, file.length());
+    }
+
+    /**
+     * 旧实现：Files.readAllBytes 后一次写出
+     */
+    @Benchmark
+    public void readAll(ByteCounter counter) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        LoopbackSink.writeHeader(channel, data.remaining());
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        finish(counter, file.length());
+    }
+
+    private void finish(ByteCounter counter, long length) throws IOException {
+        LoopbackSink.awaitAck(channel);
+        counter.bytes += length;
+    }
+}
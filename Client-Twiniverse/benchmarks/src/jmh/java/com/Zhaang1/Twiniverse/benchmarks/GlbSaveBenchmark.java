@@ -0,0 +1,98 @@
+package com.Zhaang1.Twiniverse.benchmarks;
+
+import com.Zhaang1.Twiniverse.protocol.ContentEncoding;
+import com.Zhaang1.Twiniverse.protocol.Responses;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 收到的模型落盘：CommunicationManager.receiveToFile 的边收边写 + fsync + 原子重命名，
+ * 对比去掉 fsync，以及先整体读入内存再写文件的旧做法。响应来自内存，只比较保存方式。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class GlbSaveBenchmark {
+
+    @Param({"1", "16", "100", "500"})
+    public int sizeMb;
+
+    private byte[] response;
+    private File dir;
+    private File partFile;
+    private File destFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        response = Payloads.namedResponse("model.glb", sizeMb * Payloads.MB, null);
+        dir = Files.createTempDirectory("twiniverse-glb").toFile();
+        partFile = new File(dir, "model.glb.part");
+        destFile = new File(dir, "model.glb");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Payloads.deleteRecursively(dir);
+    }
+
+    /**
+     * 当前实现：流式写入临时文件，fsync 后原子重命名
+     */
+    @Benchmark
+    public void streamingSynced(ByteCounter counter) throws IOException {
+        save(counter, true);
+    }
+
+    /**
+     * 同上但不 fsync，差值即为等待数据落盘的时间
+     */
+    @Benchmark
+    public void streaming(ByteCounter counter) throws IOException {
+        save(counter, false);
+    }
+
+    /**
+     * 旧实现：整个模型读入 byte[] 后一次写出
+     */
+    @Benchmark
+    public void buffered(ByteCounter counter) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(response));
+        Responses.Named header = Responses.readNamed(in);
+        byte[] data = new byte[header.dataLength];
+        in.readFully(data);
+        Files.write(destFile.toPath(), data);
+        counter.bytes += data.length;
+    }
+
+    private void save(ByteCounter counter, boolean sync) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(response));
+        Responses.Named header = Responses.readNamed(in);
+        ContentEncoding.Body data = ContentEncoding.open(in, null);
+        try (FileOutputStream fos = new FileOutputStream(partFile)) {
+            Responses.copyBodyUnlessError(data, header.dataLength, fos, null);
+            if (sync) fos.getFD().sync();
+        } finally {
+            data.close();
+        }
+        Files.move(partFile.toPath(), destFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        counter.bytes += header.dataLength;
+    }
+}
@@ -0,0 +1,101 @@
+package com.Zhaang1.Twiniverse.benchmarks;
+
+import com.Zhaang1.Twiniverse.protocol.RequestBody;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * genByImage 的请求体 [图片数量] + [Size1][Data1]...：先在内存中拼出整个请求体再发送，
+ * 对比 RequestBody 只记录文件段、发送时由内核从磁盘直接送往 Socket。
+ * 负载平均分给 8 张图片，发往本机回环上的 LoopbackSink。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ImagePayloadBenchmark {
+
+    private static final int IMAGE_COUNT = 8;
+
+    @Param({"1", "16", "100", "500"})
+    public int sizeMb;
+
+    private File dir;
+    private List<File> images;
+    private LoopbackSink sink;
+    private SocketChannel channel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("twiniverse-images").toFile();
+        images = new ArrayList<>();
+        long perImage = (long) sizeMb * Payloads.MB / IMAGE_COUNT;
+        for (int i = 0; i < IMAGE_COUNT; i++) {
+            images.add(Payloads.writeFile(dir, "image_" + i + ".jpg", perImage));
+        }
+        sink = new LoopbackSink();
+        channel = sink.connect();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        channel.close();
+        sink.close();
+        Payloads.deleteRecursively(dir);
+    }
+
+    /**
+     * 旧实现：逐张读入内存，在 ByteArrayOutputStream 中拼出完整请求体后一次写出
+     */
+    @Benchmark
+    public void buffered(ByteCounter counter) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(images.size());
+        for (File image : images) {
+            byte[] data = Files.readAllBytes(image.toPath());
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        ByteBuffer payload = ByteBuffer.wrap(bos.toByteArray());
+
+        LoopbackSink.writeHeader(channel, payload.remaining());
+        counter.bytes += payload.remaining();
+        while (payload.hasRemaining()) {
+            channel.write(payload);
+        }
+        LoopbackSink.awaitAck(channel);
+    }
+
+    /**
+     * 当前实现：RequestBody.ofImages 先算出总长度，写出时文件段走 transferTo
+     */
+    @Benchmark
+    public void streaming(ByteCounter counter) throws IOException {
+        RequestBody body = RequestBody.ofImages(images);
+
+        LoopbackSink.writeHeader(channel, body.length());
+        counter.bytes += body.length();
+        body.writeTo(channel);
+        LoopbackSink.awaitAck(channel);
+    }
+}
@@ -0,0 +1,97 @@
+package com.Zhaang1.Twiniverse.benchmarks;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 本机回环上的接收端：每条消息为 [length:8][data]，收完后回复 1 字节确认。
+ * 发送方等到确认才算一次操作完成，测得的是数据真正送达对端的时间，而不只是写进内核缓冲区。
+ * 接收端用直接缓冲区丢弃数据，本身不产生堆分配，不干扰 GC 统计。
+ */
+final class LoopbackSink implements Closeable {
+
+    private final ServerSocketChannel server;
+    private final Thread acceptor;
+
+    LoopbackSink() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        acceptor = new Thread(this::acceptLoop, "loopback-sink");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    SocketChannel connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+        channel.socket().setTcpNoDelay(true);
+        return channel;
+    }
+
+    /**
+     * 发送消息头，之后由调用方写出恰好 length 字节，再调用 awaitAck
+     */
+    static void writeHeader(SocketChannel channel, long length) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8).putLong(length);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    static void awaitAck(SocketChannel channel) throws IOException {
+        ByteBuffer ack = ByteBuffer.allocate(1);
+        while (ack.hasRemaining()) {
+            if (channel.read(ack) == -1) throw new EOFException("Sink closed");
+        }
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel channel = server.accept();
+                Thread reader = new Thread(() -> drain(channel), "loopback-sink-conn");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private static void drain(SocketChannel channel) {
+        ByteBuffer header = ByteBuffer.allocateDirect(8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        ByteBuffer ack = ByteBuffer.allocateDirect(1);
+        try (SocketChannel c = channel) {
+            while (true) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (c.read(header) == -1) return;
+                }
+                long remaining = header.getLong(0);
+                while (remaining > 0) {
+                    buffer.clear();
+                    if (remaining < buffer.capacity()) buffer.limit((int) remaining);
+                    int n = c.read(buffer);
+                    if (n == -1) return;
+                    remaining -= n;
+                }
+                ack.clear();
+                c.write(ack);
+            }
+        } catch (IOException ignored) {
+            // 发送方关闭连接
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -0,0 +1,124 @@
+package com.Zhaang1.Twiniverse.benchmarks;
+
+import com.Zhaang1.Twiniverse.protocol.ContentEncoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * 基准测试用的负载：按块确定性生成的“类 GLB”数据（一半随机字节、一半规律的顶点索引，
+ * deflate 后约为原大小的一半），以及按服务器格式编码好的响应。
+ * 数据按块生成、按块写出，500MB 的用例也不需要先在内存中拼出整个文件。
+ */
+final class Payloads {
+
+    static final int MB = 1024 * 1024;
+    // 与服务器 ENCODE_BLOCK 一致：每次压缩 256KB，非空输出作为一个 chunk 发送
+    static final int BLOCK = 256 * 1024;
+    // 与服务器 DEFLATE_LEVEL 一致
+    private static final int DEFLATE_LEVEL = 6;
+
+    private Payloads() {
+    }
+
+    /**
+     * 第 index 块数据，同一 index 每次生成的内容相同
+     */
+    static byte[] block(int index, int length) {
+        byte[] block = new byte[length];
+        int half = length / 2;
+        byte[] random = new byte[half];
+        new Random(index).nextBytes(random);
+        System.arraycopy(random, 0, block, 0, half);
+        for (int i = half; i < length; i++) {
+            // 类似三角形索引缓冲：小整数缓慢递增
+            block[i] = (byte) ((i - half) / 12 + index);
+        }
+        return block;
+    }
+
+    static void writeData(OutputStream out, long size) throws IOException {
+        long written = 0;
+        for (int index = 0; written < size; index++) {
+            int length = (int) Math.min(BLOCK, size - written);
+            out.write(block(index, length));
+            written += length;
+        }
+    }
+
+    static File writeFile(File dir, String name, long size) throws IOException {
+        File file = new File(dir, name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            writeData(out, size);
+        }
+        return file;
+    }
+
+    /**
+     * 生成类响应 [NameLen][Name][DataLen][Data]；encoding 为 DEFLATE 时数据段为
+     * [chunkLen:4][chunk]...[0:4]，与服务器 _send_encoded 的输出格式相同
+     */
+    static byte[] namedResponse(String name, int size, String encoding) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int expected = encoding == null ? size + nameBytes.length + 8 : size / 2 + nameBytes.length + 8;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(expected);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(nameBytes.length);
+        out.write(nameBytes);
+        out.writeInt(size);
+        if (encoding == null) {
+            writeData(out, size);
+        } else if (ContentEncoding.DEFLATE.equals(encoding)) {
+            writeDeflateChunks(out, size);
+        } else {
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static void writeDeflateChunks(DataOutputStream out, int size) throws IOException {
+        Deflater deflater = new Deflater(DEFLATE_LEVEL);
+        byte[] buffer = new byte[BLOCK];
+        try {
+            int written = 0;
+            for (int index = 0; written < size; index++) {
+                int length = Math.min(BLOCK, size - written);
+                deflater.setInput(block(index, length));
+                written += length;
+                boolean last = written == size;
+                if (last) deflater.finish();
+
+                ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+                while (last ? !deflater.finished() : !deflater.needsInput()) {
+                    int n = deflater.deflate(buffer);
+                    chunk.write(buffer, 0, n);
+                }
+                if (chunk.size() > 0) {
+                    out.writeInt(chunk.size());
+                    chunk.writeTo(out);
+                }
+            }
+            out.writeInt(0);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,63 @@
+package com.Zhaang1.Twiniverse.benchmarks;
+
+import com.Zhaang1.Twiniverse.protocol.ContentEncoding;
+import com.Zhaang1.Twiniverse.protocol.RequestBody;
+import com.Zhaang1.Twiniverse.protocol.Responses;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生成类响应 [NameLen][Name][DataLen][Data] 的解析：头部解析、分块解压和数据拷贝。
+ * 响应预先编码在内存中，输出丢弃，只测客户端解析本身的开销，不含网络和磁盘。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ResponseDecodeBenchmark {
+
+    @Param({"1", "16", "100", "500"})
+    public int sizeMb;
+
+    @Param({"identity", ContentEncoding.DEFLATE})
+    public String encoding;
+
+    private String contentEncoding;
+    private byte[] response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        contentEncoding = "identity".equals(encoding) ? null : encoding;
+        response = Payloads.namedResponse("model.glb", sizeMb * Payloads.MB, contentEncoding);
+    }
+
+    @Benchmark
+    public int decode(ByteCounter counter) throws IOException {
+        // 与 ServerConnection 相同的缓冲方式
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new ByteArrayInputStream(response), RequestBody.BUFFER_SIZE));
+        Responses.Named header = Responses.readNamed(in);
+        ContentEncoding.Body data = ContentEncoding.open(in, contentEncoding);
+        try {
+            Responses.copyBodyUnlessError(data, header.dataLength, OutputStream.nullOutputStream(), null);
+        } finally {
+            data.close();
+        }
+        counter.bytes += header.dataLength;
+        return header.dataLength;
+    }
+}
@@ -0,0 +1,126 @@
+package com.Zhaang1.Twiniverse.imaging;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.Zhaang1.Twiniverse.protocol.MemoryProbe;
+import com.Zhaang1.Twiniverse.protocol.StageTrace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 上传前压缩图片：超过字节预算的图片先降低分辨率、再降低 JPEG 质量，直到不超过预算。
+ * VGGT 预处理时把图片缩放到 518 像素宽，更高的分辨率对重建没有帮助，
+ * 所以优先缩小尺寸，短边降到 MIN_SHORT_EDGE 后才开始牺牲画质，画质也不低于 MIN_QUALITY。
+ * 一次只解码一张图片，配合 genByImage 的流水线使用时内存中最多只有一个 Bitmap。
+ * 作为 CommunicationManager.ImagePreprocessor 传入 process 的方法引用；性能见 :microbenchmark 的 CompressBenchmark。
+ */
+public class ImageCompressor {
+
+    private static final long DEFAULT_MAX_SIZE = 1024 * 1024;
+    private static final int MIN_SHORT_EDGE = 518;
+    private static final int MAX_QUALITY = 90;
+    private static final int MIN_QUALITY = 60;
+    // 按字节数估算缩放比例时留一点余量，尽量一次缩放就落在预算内
+    private static final double SCALE_MARGIN = 0.95;
+
+    private final File outputDir;
+    private final String prefix;
+    private final long maxSize;
+
+    /**
+     * @param outputDir 压缩结果的存放目录
+     * @param prefix    压缩结果的文件名前缀，文件名其余部分与原图相同
+     */
+    public ImageCompressor(File outputDir, String prefix) {
+        this(outputDir, prefix, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize 每张图片的字节预算，通常取自 CommunicationManager.imageUploadBudget
+     */
+    public ImageCompressor(File outputDir, String prefix, long maxSize) {
+        this.outputDir = outputDir;
+        this.prefix = prefix;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 返回压缩后的文件；图片本身不超过预算或压缩失败时返回原文件
+     */
+    public File process(File file) {
+        if (file.length() <= maxSize) return file;
+
+        Bitmap bmp = decode(file);
+        if (bmp == null) return file;
+        MemoryProbe.sampleCurrent(StageTrace.COMPRESS);
+        try {
+            File temp = new File(outputDir, prefix + file.getName());
+            int quality = MAX_QUALITY;
+            while (true) {
+                write(bmp, quality, temp);
+                long size = temp.length();
+                if (size <= maxSize) break;
+
+                int shortEdge = Math.min(bmp.getWidth(), bmp.getHeight());
+                if (shortEdge > MIN_SHORT_EDGE) {
+                    // JPEG 大小大致与像素数成正比，按面积比例缩小边长
+                    double ratio = Math.sqrt((double) maxSize / size) * SCALE_MARGIN;
+                    Bitmap scaled = scale(bmp, Math.max(MIN_SHORT_EDGE, (int) (shortEdge * ratio)));
+                    // 新旧两张 Bitmap 同时存在，是压缩过程中内存占用最高的时刻
+                    MemoryProbe.sampleCurrent(StageTrace.COMPRESS);
+                    bmp.recycle();
+                    bmp = scaled;
+                } else if (quality > MIN_QUALITY) {
+                    quality -= 10;
+                } else {
+                    // 已到分辨率和画质的下限，宁可超出预算也不再降低
+                    break;
+                }
+            }
+            return temp;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return file;
+        } finally {
+            bmp.recycle();
+        }
+    }
+
+    /**
+     * 先只读取尺寸，按文件大小与预算之比估算目标分辨率，用 inSampleSize 在解码时直接缩小，
+     * 避免把一张几千万像素的原图完整解码到内存中
+     */
+    private Bitmap decode(File file) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), bounds);
+        int shortEdge = Math.min(bounds.outWidth, bounds.outHeight);
+        if (shortEdge <= 0) return null;
+
+        double ratio = Math.sqrt((double) maxSize / file.length());
+        int targetEdge = Math.max(MIN_SHORT_EDGE, (int) (shortEdge * ratio));
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (shortEdge / (options.inSampleSize * 2) >= targetEdge) {
+            options.inSampleSize *= 2;
+        }
+        return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    }
+
+    private static Bitmap scale(Bitmap bmp, int shortEdge) {
+        int width = bmp.getWidth();
+        int height = bmp.getHeight();
+        double factor = (double) shortEdge / Math.min(width, height);
+        return Bitmap.createScaledBitmap(bmp, (int) Math.round(width * factor),
+                (int) Math.round(height * factor), true);
+    }
+
+    private static void write(Bitmap bmp, int quality, File target) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(target)) {
+            bmp.compress(Bitmap.CompressFormat.JPEG, quality, fos);
+        }
+    }
+}
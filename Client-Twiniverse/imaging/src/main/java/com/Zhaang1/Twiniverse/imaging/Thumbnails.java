@@ -0,0 +1,83 @@
+package com.Zhaang1.Twiniverse.imaging;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 缩略图和预览图的解码：先只读取尺寸，再按目标尺寸用 inSampleSize 以 2 的幂缩小解码，
+ * 避免把一张 12MP 原图完整解码到内存中。结果至少与目标尺寸一样大，显示时由 ImageView 缩放。
+ */
+public final class Thumbnails {
+
+    private Thumbnails() {
+    }
+
+    /**
+     * 按目标尺寸采样解码，不处理 EXIF 方向（相册网格、预览），失败时返回 null
+     */
+    public static Bitmap decodeSampledBitmap(String path, int reqWidth, int reqHeight) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    /**
+     * 采样解码后按 EXIF 方向旋转（相机刚拍的照片方向只记在 EXIF 中），失败时返回 null
+     */
+    public static Bitmap loadRotatedThumbnail(File file, int reqWidth, int reqHeight) {
+        try {
+            Bitmap bmp = decodeSampledBitmap(file.getAbsolutePath(), reqWidth, reqHeight);
+            if (bmp == null) return null;
+
+            ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+
+            int rotationAngle = 0;
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90: rotationAngle = 90; break;
+                case ExifInterface.ORIENTATION_ROTATE_180: rotationAngle = 180; break;
+                case ExifInterface.ORIENTATION_ROTATE_270: rotationAngle = 270; break;
+            }
+
+            if (rotationAngle != 0) {
+                Matrix matrix = new Matrix();
+                matrix.postRotate(rotationAngle);
+                Bitmap rotatedBmp = Bitmap.createBitmap(bmp, 0, 0, bmp.getWidth(), bmp.getHeight(), matrix, true);
+                if (rotatedBmp != bmp) {
+                    bmp.recycle();
+                }
+                return rotatedBmp;
+            }
+            return bmp;
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 在宽高都不小于目标尺寸的前提下取最大的 2 的幂
+     */
+    public static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        final int height = options.outHeight;
+        final int width = options.outWidth;
+        int inSampleSize = 1;
+        if (height > reqHeight || width > reqWidth) {
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+            while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+        return inSampleSize;
+    }
+}
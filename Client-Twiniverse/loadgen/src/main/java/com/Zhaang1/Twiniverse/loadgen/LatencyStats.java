@@ -0,0 +1,92 @@
+package com.Zhaang1.Twiniverse.loadgen;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按名称（协议命令或整个操作）汇总的耗时与错误。保留每个样本，结束后排序求分位数；
+ * 压测规模下样本数在百万以内，不需要近似直方图。
+ */
+final class LatencyStats {
+
+    // 每个名称最多列出的错误种类
+    private static final int MAX_ERROR_KINDS = 3;
+
+    private final Map<String, Series> series = new TreeMap<>();
+
+    private static class Series {
+        long[] nanos = new long[64];
+        int count;
+        int errors;
+        final Map<String, Integer> errorKinds = new HashMap<>();
+
+        void add(long elapsed) {
+            if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+            nanos[count++] = elapsed;
+        }
+    }
+
+    void record(String name, long elapsedNanos, String error) {
+        synchronized (series) {
+            Series s = series.computeIfAbsent(name, k -> new Series());
+            s.add(elapsedNanos);
+            if (error != null) {
+                s.errors++;
+                s.errorKinds.merge(error, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * 操作（op: 开头）排在前面，其余按命令名排序
+     */
+    void print(PrintStream out, double elapsedSec) {
+        synchronized (series) {
+            out.println(String.format(Locale.ROOT, "%-16s %8s %7s %7s %9s %9s %9s %9s %9s",
+                    "name", "count", "errors", "err%", "p50 ms", "p95 ms", "p99 ms", "max ms", "per sec"));
+            List<String> names = new ArrayList<>(series.keySet());
+            names.sort((a, b) -> {
+                boolean opA = a.startsWith("op:");
+                boolean opB = b.startsWith("op:");
+                return opA != opB ? (opA ? -1 : 1) : a.compareTo(b);
+            });
+            for (String name : names) {
+                Series s = series.get(name);
+                long[] sorted = Arrays.copyOf(s.nanos, s.count);
+                Arrays.sort(sorted);
+                out.println(String.format(Locale.ROOT, "%-16s %8d %7d %6.1f%% %9.1f %9.1f %9.1f %9.1f %9.2f",
+                        name, s.count, s.errors, 100.0 * s.errors / s.count,
+                        millis(percentile(sorted, 50)), millis(percentile(sorted, 95)),
+                        millis(percentile(sorted, 99)), millis(sorted[sorted.length - 1]),
+                        s.count / elapsedSec));
+            }
+            for (String name : names) {
+                Series s = series.get(name);
+                if (s.errorKinds.isEmpty()) continue;
+                List<Map.Entry<String, Integer>> kinds = new ArrayList<>(s.errorKinds.entrySet());
+                kinds.sort((a, b) -> b.getValue() - a.getValue());
+                for (Map.Entry<String, Integer> kind : kinds.subList(0, Math.min(MAX_ERROR_KINDS, kinds.size()))) {
+                    out.println("  " + name + ": " + kind.getValue() + " x " + kind.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * 最近秩法：不小于 p% 样本的最小值
+     */
+    private static long percentile(long[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,113 @@
+package com.Zhaang1.Twiniverse.loadgen;
+
+import com.Zhaang1.Twiniverse.protocol.Commands;
+import com.Zhaang1.Twiniverse.protocol.ConnectionManager;
+import com.Zhaang1.Twiniverse.protocol.Requests;
+import com.Zhaang1.Twiniverse.protocol.Responses;
+import com.Zhaang1.Twiniverse.protocol.SocketTransport;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 多用户压测：N 个模拟用户并发登录、按图片 / 视频生成和下载模型，
+ * 结束后按操作和协议命令输出 p50/p95/p99 延迟、吞吐量和错误率。
+ * 直接复用 :protocol 模块，不依赖 Android，可以离线对本地的 CommunicationManager.py 运行。
+ */
+public final class LoadGenerator {
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options == null) {
+            System.out.println(Options.USAGE);
+            return;
+        }
+
+        List<String> hashes = fetchableHashes(options);
+        if (options.mix.containsKey("fetch") && hashes.isEmpty()) {
+            System.err.println("No models on the server to fetch; fetch operations will fail (see --hashes)");
+        }
+
+        File root = Files.createTempDirectory("twiniverse-loadgen").toFile();
+        LatencyStats stats = new LatencyStats();
+        long start = System.currentTimeMillis();
+        System.out.println(String.format(Locale.ROOT, "%d users for %d s against %s:%d, mix %s, %d fetchable models",
+                options.users, options.durationSec, options.host, options.port, options.mix, hashes.size()));
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < options.users; i++) {
+            SimulatedUser user = new SimulatedUser(i, options, stats, hashes, new File(root, "user" + i));
+            Thread thread = new Thread(user, "user-" + i);
+            threads.add(thread);
+            // 在 ramp-up 期间均匀启动各用户
+            if (options.rampUpSec > 0 && i > 0) Thread.sleep(options.rampUpSec * 1000L / options.users);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        deleteRecursively(root);
+
+        double elapsedSec = (System.currentTimeMillis() - start) / 1000.0;
+        System.out.println(String.format(Locale.ROOT, "finished in %.1f s", elapsedSec));
+        stats.print(System.out, elapsedSec);
+    }
+
+    /**
+     * --hashes 指定的模型加上服务器 LIST_GLB 第一页中的模型
+     */
+    private static List<String> fetchableHashes(Options options) throws IOException {
+        Set<String> hashes = new LinkedHashSet<>(options.hashes);
+        if (!options.mix.containsKey("fetch")) return new ArrayList<>(hashes);
+
+        ConnectionManager connections = new ConnectionManager();
+        SocketTransport transport = new SocketTransport(connections, options.host, options.port);
+        try {
+            transport.exchange(Requests.login(options.username(0), options.password),
+                    (in, encoding) -> Responses.readJsonArray(in, null));
+            if (transport.supports(Commands.FEATURE_GLB_LIST)) {
+                JSONObject page = transport.exchange(Requests.listGlb(0, 200), (in, encoding) -> Responses.readJson(in));
+                JSONArray items = page.getJSONArray("items");
+                for (int i = 0; i < items.length(); i++) {
+                    hashes.add(items.getJSONObject(i).getString("hash"));
+                }
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid LIST_GLB response", e);
+        } finally {
+            transport.reset();
+        }
+        return new ArrayList<>(hashes);
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,111 @@
+package com.Zhaang1.Twiniverse.loadgen;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 命令行参数，格式为 --name value
+ */
+final class Options {
+
+    static final String USAGE = String.join("\n",
+            "Usage: loadgen [options]",
+            "  --host HOST         server address (default 127.0.0.1)",
+            "  --port PORT         server port (default 4567, the local stand-in server)",
+            "  --users N           concurrent simulated users (default 10)",
+            "  --duration SEC      how long each user keeps issuing operations (default 30)",
+            "  --ramp-up SEC       spread user start times over this period (default 0)",
+            "  --think-ms MS       pause between two operations of a user (default 0)",
+            "  --mix SPEC          operation weights (default image=2,video=1,fetch=4,login=1)",
+            "  --images N          images per image generation (default 4)",
+            "  --image-kb KB       size of each image (default 300)",
+            "  --video-kb KB       size of each video (default 4096)",
+            "  --hashes H1,H2      GLB hashes to fetch, in addition to those listed by the server",
+            "  --user NAME         login name, %d is replaced by the user index (default load%d)",
+            "  --password PASS     login password (default load)");
+
+    String host = "127.0.0.1";
+    int port = 4567;
+    int users = 10;
+    int durationSec = 30;
+    int rampUpSec = 0;
+    int thinkMs = 0;
+    Map<String, Integer> mix = parseMix("image=2,video=1,fetch=4,login=1");
+    int images = 4;
+    int imageKb = 300;
+    int videoKb = 4096;
+    List<String> hashes = new ArrayList<>();
+    String user = "load%d";
+    String password = "load";
+
+    static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if ("--help".equals(name) || "-h".equals(name)) return null;
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + name);
+            String value = args[++i];
+            switch (name) {
+                case "--host": options.host = value; break;
+                case "--port": options.port = positive(name, value); break;
+                case "--users": options.users = positive(name, value); break;
+                case "--duration": options.durationSec = positive(name, value); break;
+                case "--ramp-up": options.rampUpSec = nonNegative(name, value); break;
+                case "--think-ms": options.thinkMs = nonNegative(name, value); break;
+                case "--mix": options.mix = parseMix(value); break;
+                case "--images": options.images = positive(name, value); break;
+                case "--image-kb": options.imageKb = positive(name, value); break;
+                case "--video-kb": options.videoKb = positive(name, value); break;
+                case "--hashes":
+                    for (String hash : value.split(",")) {
+                        if (!hash.trim().isEmpty()) options.hashes.add(hash.trim());
+                    }
+                    break;
+                case "--user": options.user = value; break;
+                case "--password": options.password = value; break;
+                default: throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+        return options;
+    }
+
+    String username(int index) {
+        return user.contains("%d") ? user.replace("%d", String.valueOf(index)) : user;
+    }
+
+    /**
+     * image=2,video=1 -> 按权重选择操作，权重为 0 的操作不执行
+     */
+    private static Map<String, Integer> parseMix(String spec) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.split("=");
+            if (parts.length != 2 || !SimulatedUser.OPERATIONS.contains(parts[0].trim())) {
+                throw new IllegalArgumentException("Invalid mix entry: " + entry
+                        + " (operations: " + SimulatedUser.OPERATIONS + ")");
+            }
+            int weight = nonNegative("--mix", parts[1].trim());
+            if (weight > 0) mix.put(parts[0].trim(), weight);
+        }
+        if (mix.isEmpty()) throw new IllegalArgumentException("Mix has no operation with positive weight");
+        return mix;
+    }
+
+    private static int positive(String name, String value) {
+        int n = nonNegative(name, value);
+        if (n == 0) throw new IllegalArgumentException(name + " must be positive");
+        return n;
+    }
+
+    private static int nonNegative(String name, String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n < 0) throw new IllegalArgumentException(name + " must not be negative");
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + name + ": " + value);
+        }
+    }
+}
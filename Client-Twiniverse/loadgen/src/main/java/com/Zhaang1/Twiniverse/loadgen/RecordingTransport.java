@@ -0,0 +1,49 @@
+package com.Zhaang1.Twiniverse.loadgen;
+
+import com.Zhaang1.Twiniverse.protocol.Commands;
+import com.Zhaang1.Twiniverse.protocol.Request;
+import com.Zhaang1.Twiniverse.protocol.ResponseReader;
+import com.Zhaang1.Twiniverse.protocol.ServerErrorException;
+import com.Zhaang1.Twiniverse.protocol.TransferMeter;
+import com.Zhaang1.Twiniverse.protocol.Transport;
+
+import java.io.IOException;
+
+/**
+ * 记录每次交换耗时的 Transport：从发出请求到读完响应，包括连接失效后的透明重试
+ */
+final class RecordingTransport implements Transport {
+
+    private final Transport delegate;
+    private final LatencyStats stats;
+
+    RecordingTransport(Transport delegate, LatencyStats stats) {
+        this.delegate = delegate;
+        this.stats = stats;
+    }
+
+    @Override
+    public <T> T exchange(Request request, TransferMeter uploadMeter, int lane, ResponseReader<T> reader)
+            throws IOException {
+        long start = System.nanoTime();
+        String error = null;
+        try {
+            return delegate.exchange(request, uploadMeter, lane, reader);
+        } catch (IOException e) {
+            error = describe(e);
+            throw e;
+        } finally {
+            stats.record(Commands.name(request.command()), System.nanoTime() - start, error);
+        }
+    }
+
+    @Override
+    public boolean supports(String feature) throws IOException {
+        return delegate.supports(feature);
+    }
+
+    static String describe(Exception e) {
+        if (e instanceof ServerErrorException) return ((ServerErrorException) e).getErrorCode();
+        return e.getClass().getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : "");
+    }
+}
@@ -0,0 +1,249 @@
+package com.Zhaang1.Twiniverse.loadgen;
+
+import com.Zhaang1.Twiniverse.protocol.Commands;
+import com.Zhaang1.Twiniverse.protocol.ConnectionManager;
+import com.Zhaang1.Twiniverse.protocol.ContentEncoding;
+import com.Zhaang1.Twiniverse.protocol.Request;
+import com.Zhaang1.Twiniverse.protocol.RequestBody;
+import com.Zhaang1.Twiniverse.protocol.Requests;
+import com.Zhaang1.Twiniverse.protocol.ResponseReader;
+import com.Zhaang1.Twiniverse.protocol.Responses;
+import com.Zhaang1.Twiniverse.protocol.ServerConnection;
+import com.Zhaang1.Twiniverse.protocol.ServerErrorException;
+import com.Zhaang1.Twiniverse.protocol.SocketTransport;
+import com.Zhaang1.Twiniverse.protocol.Transfers;
+import com.Zhaang1.Twiniverse.protocol.Transport;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 一台模拟手机：独立的 ConnectionManager（不与其他用户共用连接），登录后按权重随机执行操作，
+ * 直到截止时间。各操作的请求顺序与 App 中 CommunicationManager 一致，只是不落盘、不统计进度。
+ * 每个操作整体计入 op:xxx，其中每条协议命令另由 RecordingTransport 单独计时。
+ */
+final class SimulatedUser implements Runnable {
+
+    static final List<String> OPERATIONS = Arrays.asList("login", "image", "video", "fetch");
+
+    private final int index;
+    private final Options options;
+    private final LatencyStats stats;
+    private final List<String> hashes;
+    private final File dir;
+    private final Random random;
+
+    private final ConnectionManager connections = new ConnectionManager();
+    private final SocketTransport socket;
+    private final Transport transport;
+    // 与 App 共用的上传、下载和任务轮询流程；压测记录每一次失败，不重试
+    private final Transfers transfers;
+
+    SimulatedUser(int index, Options options, LatencyStats stats, List<String> hashes, File dir) {
+        this.index = index;
+        this.options = options;
+        this.stats = stats;
+        this.hashes = hashes;
+        this.dir = dir;
+        this.random = new Random(index);
+        socket = new SocketTransport(connections, options.host, options.port);
+        transport = new RecordingTransport(socket, stats);
+        transfers = new Transfers(transport);
+    }
+
+    @Override
+    public void run() {
+        dir.mkdirs();
+        long deadline = System.currentTimeMillis() + options.durationSec * 1000L;
+        try {
+            timed("login");
+            while (System.currentTimeMillis() < deadline) {
+                timed(choose());
+                if (options.thinkMs > 0) Thread.sleep(options.thinkMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            socket.reset();
+            LoadGenerator.deleteRecursively(dir);
+        }
+    }
+
+    private String choose() {
+        int total = 0;
+        for (int weight : options.mix.values()) total += weight;
+        int pick = random.nextInt(total);
+        for (Map.Entry<String, Integer> entry : options.mix.entrySet()) {
+            pick -= entry.getValue();
+            if (pick < 0) return entry.getKey();
+        }
+        throw new IllegalStateException();
+    }
+
+    private void timed(String operation) {
+        long start = System.nanoTime();
+        String error = null;
+        try {
+            switch (operation) {
+                case "login": login(); break;
+                case "image": generateFromImages(); break;
+                case "video": generateFromVideo(); break;
+                case "fetch": fetch(); break;
+                default: throw new IllegalArgumentException(operation);
+            }
+        } catch (IOException | JSONException e) {
+            error = RecordingTransport.describe(e);
+        }
+        stats.record("op:" + operation, System.nanoTime() - start, error);
+    }
+
+    private void login() throws IOException, JSONException {
+        Request request = Requests.login(options.username(index), options.password);
+        JSONArray result = transport.exchange(request, (in, encoding) -> Responses.readJsonArray(in, null));
+        if (!result.getBoolean(0)) throw new ServerErrorException("LOGIN_REJECTED");
+        // 与 App 相同：连接重建后用同样的凭据重新登录
+        socket.setAuthenticator(conn -> relogin(conn, request));
+    }
+
+    private static void relogin(ServerConnection conn, Request login) throws IOException {
+        conn.writeRequest(login.command(), login.body());
+        try {
+            if (!Responses.readJsonArray(conn.input(), null).getBoolean(0)) {
+                throw new IOException("Re-login rejected by server");
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid login response", e);
+        }
+    }
+
+    /**
+     * BLOB_QUERY -> 缺失的 BLOB_PUT -> JOB_SUBMIT 或旧服务器上的 IMAGE_BY_HASH；
+     * 服务器没有 blob 存储时与视频相同，整体上传
+     */
+    private void generateFromImages() throws IOException, JSONException {
+        List<File> images = new ArrayList<>();
+        List<String> imageHashes = new ArrayList<>();
+        for (int i = 0; i < options.images; i++) {
+            // 每次内容都不同，服务器按哈希去重不会跳过上传
+            File image = writeRandom("image_" + i + ".jpg", options.imageKb * 1024L);
+            images.add(image);
+            imageHashes.add(RequestBody.ofFile(image).sha256());
+        }
+        if (!transport.supports(Commands.FEATURE_BLOBS)) {
+            generate(RequestBody.ofImages(images), "image");
+            return;
+        }
+
+        JSONArray missing = transport.exchange(Requests.blobQuery(imageHashes),
+                (in, encoding) -> Responses.readJson(in)).getJSONArray("missing");
+        for (int i = 0; i < missing.length(); i++) {
+            int position = imageHashes.indexOf(missing.getString(i));
+            if (position < 0) throw new IOException("Unexpected blob hash: " + missing.getString(i));
+            transport.exchange(Requests.blobPut(imageHashes.get(position), images.get(position)),
+                    (in, encoding) -> Responses.readJson(in));
+        }
+
+        if (transport.supports(Commands.FEATURE_JOBS)) {
+            runJob(new JSONObject().put("images", new JSONArray(imageHashes)));
+        } else {
+            transport.exchange(Requests.imageByHash(imageHashes), namedDiscarder());
+        }
+    }
+
+    private void generateFromVideo() throws IOException, JSONException {
+        generate(RequestBody.ofFile(writeRandom("video.mp4", options.videoKb * 1024L)), "video");
+    }
+
+    /**
+     * UPLOAD_OPEN -> UPLOAD_CHUNK... -> JOB_SUBMIT 或 UPLOAD_COMMIT；
+     * 没有上传会话的旧服务器上一次发出 IMAGE / VIDEO
+     */
+    private void generate(RequestBody body, String kind) throws IOException, JSONException {
+        if (!transport.supports(Commands.FEATURE_UPLOADS)) {
+            byte cmd = "video".equals(kind) ? Commands.VIDEO : Commands.IMAGE;
+            transport.exchange(new Request(cmd, body), namedDiscarder());
+            return;
+        }
+        String uploadId = transfers.upload(body, body.sha256(), null, Transfers.NO_RETRY).id;
+
+        if (transport.supports(Commands.FEATURE_JOBS)) {
+            runJob(new JSONObject().put("upload", uploadId).put("kind", kind));
+        } else {
+            transport.exchange(Requests.uploadCommit(uploadId, kind), namedDiscarder());
+        }
+    }
+
+    private void runJob(JSONObject job) throws IOException, JSONException {
+        JSONObject status = transfers.submitJob(job);
+        String jobId = status.getString("id");
+        transfers.waitForJob(jobId, status, null, Transfers.NO_RETRY);
+        transfers.fetchJobResult(jobId, namedDiscarder(), Transfers.NO_RETRY);
+    }
+
+    /**
+     * 按 4MB 分段下载一个模型，与 App 的断点续传请求相同；服务器不支持分段时一次取回
+     */
+    private void fetch() throws IOException {
+        if (hashes.isEmpty()) throw new IOException("No GLB hashes to fetch, pass --hashes");
+        String hash = hashes.get(random.nextInt(hashes.size()));
+        if (transport.supports(Commands.FEATURE_GLB_RANGE)) {
+            transfers.downloadGlb(hash, 0, OutputStream.nullOutputStream(), null);
+            return;
+        }
+        transport.exchange(Requests.getGlb(hash), (in, encoding) -> {
+            int len = in.readInt();
+            if (len <= 0) throw new IOException("Server returned empty data");
+            ContentEncoding.Body data = ContentEncoding.open(in, encoding);
+            try {
+                Responses.copyBodyUnlessError(data, len, OutputStream.nullOutputStream(), null);
+            } finally {
+                data.close();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 读完并丢弃生成类响应；服务器附带阶段计时尾部时一并读掉（见 Commands.FEATURE_TIMING）
+     */
+    private ResponseReader<Void> namedDiscarder() throws IOException {
+        boolean timing = transport.supports(Commands.FEATURE_TIMING);
+        return (in, encoding) -> {
+            Responses.Named header = Responses.readNamed(in);
+            ContentEncoding.Body data = ContentEncoding.open(in, encoding);
+            try {
+                Responses.copyBodyUnlessError(data, header.dataLength, OutputStream.nullOutputStream(), null);
+            } catch (ServerErrorException e) {
+                if (timing) Responses.readTimingTrailer(in);
+                throw e;
+            } finally {
+                data.close();
+            }
+            if (timing) Responses.readTimingTrailer(in);
+            return null;
+        };
+    }
+
+    private File writeRandom(String name, long size) throws IOException {
+        File file = new File(dir, name);
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+        return file;
+    }
+}
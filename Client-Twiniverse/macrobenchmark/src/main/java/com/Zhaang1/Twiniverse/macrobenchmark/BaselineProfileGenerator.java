@@ -0,0 +1,51 @@
+package com.Zhaang1.Twiniverse.macrobenchmark;
+
+import androidx.benchmark.macro.junit4.BaselineProfileRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.UiDevice;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import kotlin.Unit;
+
+/**
+ * 走一遍启动、列表和相册网格，收集这些路径上执行过的类和方法，生成 sample 的 Baseline Profile。
+ * 生成和复制的命令见 macrobenchmark/build.gradle
+ */
+@RunWith(AndroidJUnit4.class)
+public class BaselineProfileGenerator {
+
+    @Rule
+    public final BaselineProfileRule rule = new BaselineProfileRule();
+
+    @Test
+    public void generate() {
+        rule.collect(Journeys.PACKAGE, 15, 3, null, false, false, name -> true, scope -> {
+            UiDevice device = scope.getDevice();
+            scope.pressHome();
+            scope.startActivityAndWait(Journeys.loginIntent());
+            Journeys.waitForLogin(device);
+
+            scope.startActivityAndWait(Journeys.homeIntent(Journeys.LIST_ACCOUNT));
+            Journeys.waitForHome(device);
+            try {
+                Journeys.seedModels(device);
+                Journeys.openList(device);
+                Journeys.scrollList(device);
+
+                scope.startActivityAndWait(Journeys.homeIntent(Journeys.ACCOUNT));
+                Journeys.waitForHome(device);
+                Journeys.openImageGrid(device);
+                Journeys.scrollImageGrid(device);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return Unit.INSTANCE;
+        });
+    }
+}
@@ -0,0 +1,126 @@
+package com.Zhaang1.Twiniverse.macrobenchmark;
+
+import android.content.Intent;
+
+import androidx.benchmark.macro.BaselineProfileMode;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 各项测量共用的操作脚本。登录需要服务器，测量时跳过 LoginActivity 的网络部分，
+ * 直接带上账号启动 MainActivity（与登录成功后的 Intent 相同）。
+ */
+final class Journeys {
+
+    static final String PACKAGE = "com.Zhaang1.Twiniverse";
+
+    // 启动测量用的账号，本地没有模型，首页显示空的 WebView
+    static final String ACCOUNT = "bench";
+    // 滚动测量用的账号，列表中预先放入 SEEDED_MODELS 个模型文件
+    static final String LIST_ACCOUNT = "benchlist";
+
+    private static final int SEEDED_MODELS = 60;
+    private static final int FLINGS = 3;
+    private static final long TIMEOUT_MS = 10_000;
+
+    private Journeys() {
+    }
+
+    /**
+     * 参数化测量的编译模式：不预编译（首次安装后的最坏情况）与只按 Baseline Profile 预编译（实际发布的情况）
+     */
+    static List<Object[]> compilationModes() {
+        return Arrays.asList(
+                new Object[]{"none", new CompilationMode.None()},
+                new Object[]{"baselineProfile", new CompilationMode.Partial(BaselineProfileMode.Require, 0)});
+    }
+
+    static Intent loginIntent() {
+        return new Intent(Intent.ACTION_MAIN).setClassName(PACKAGE, PACKAGE + ".LoginActivity");
+    }
+
+    /**
+     * 登录成功后进入的 MainActivity，清掉任务栈以免上一轮打开的选图界面留在前台
+     */
+    static Intent homeIntent(String account) {
+        return new Intent()
+                .setClassName(PACKAGE, PACKAGE + ".MainActivity")
+                .putExtra("ACCOUNT", account)
+                .putExtra("ISVIP", false)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+    }
+
+    static void waitForLogin(UiDevice device) {
+        find(device, "btnLogin");
+    }
+
+    static void waitForHome(UiDevice device) {
+        find(device, "web_view");
+    }
+
+    /**
+     * 在 LIST_ACCOUNT 的模型目录中放入空的模型文件，列表只按文件名显示，不读取内容。
+     * 需在 App 至少启动过一次（外部文件目录已由 App 创建）之后调用
+     */
+    static void seedModels(UiDevice device) throws IOException {
+        StringBuilder command = new StringBuilder("touch");
+        String dir = "/sdcard/Android/data/" + PACKAGE + "/files/";
+        for (int i = 0; i < SEEDED_MODELS; i++) {
+            command.append(' ').append(dir)
+                    .append(String.format(Locale.ROOT, "Bench%02d_%s_%064x.glb", i, LIST_ACCOUNT, i));
+        }
+        // executeShellCommand 不经过 sh，不能用通配符或 &&，所以一次 touch 全部文件
+        device.executeShellCommand(command.toString());
+    }
+
+    static void openList(UiDevice device) {
+        find(device, "listNavigation").click();
+        find(device, "recycler_view_list");
+    }
+
+    /**
+     * 首页的 “+” → 图片 → 相册，进入 ImageFileActivity 的图片网格。
+     * 网格内容来自系统相册，测量设备上需要有足够多的照片
+     */
+    static void openImageGrid(UiDevice device) throws IOException {
+        device.executeShellCommand("pm grant " + PACKAGE + " android.permission.READ_MEDIA_IMAGES");
+        find(device, "content_add_normal").click();
+        find(device, "btn_option_image").click();
+        find(device, "btn_source_file").click();
+        find(device, "recycler_view");
+    }
+
+    static void scrollList(UiDevice device) {
+        fling(device, find(device, "recycler_view_list"));
+    }
+
+    static void scrollImageGrid(UiDevice device) {
+        fling(device, find(device, "recycler_view"));
+    }
+
+    private static void fling(UiDevice device, UiObject2 list) {
+        // 留出边距，避免手势从屏幕边缘开始被系统当成返回手势
+        list.setGestureMargin(device.getDisplayWidth() / 5);
+        for (int i = 0; i < FLINGS; i++) {
+            list.fling(Direction.DOWN);
+            device.waitForIdle();
+        }
+        list.fling(Direction.UP);
+        device.waitForIdle();
+    }
+
+    private static UiObject2 find(UiDevice device, String id) {
+        UiObject2 view = device.wait(Until.findObject(By.res(PACKAGE, id)), TIMEOUT_MS);
+        if (view == null) throw new IllegalStateException("View not found within " + TIMEOUT_MS + " ms: " + id);
+        return view;
+    }
+}
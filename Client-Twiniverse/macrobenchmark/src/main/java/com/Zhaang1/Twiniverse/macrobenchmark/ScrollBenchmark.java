@@ -0,0 +1,87 @@
+package com.Zhaang1.Twiniverse.macrobenchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+
+import kotlin.Unit;
+
+/**
+ * 滚动时的帧耗时（frameDurationCpuMs / frameOverrunMs 的 P50 / P90 / P95 / P99）。
+ * 只统计 measure 部分的帧，进入界面的过程放在 setup 中
+ */
+@RunWith(Parameterized.class)
+public class ScrollBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> parameters() {
+        return Journeys.compilationModes();
+    }
+
+    @Rule
+    public final MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    private final CompilationMode compilationMode;
+
+    public ScrollBenchmark(String name, CompilationMode compilationMode) {
+        this.compilationMode = compilationMode;
+    }
+
+    /**
+     * ListFragment 的模型列表
+     */
+    @Test
+    public void modelList() {
+        rule.measureRepeated(Journeys.PACKAGE, Collections.singletonList(new FrameTimingMetric()),
+                compilationMode, StartupMode.WARM, ITERATIONS,
+                scope -> {
+                    scope.startActivityAndWait(Journeys.homeIntent(Journeys.LIST_ACCOUNT));
+                    try {
+                        Journeys.seedModels(scope.getDevice());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    Journeys.openList(scope.getDevice());
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    Journeys.scrollList(scope.getDevice());
+                    return Unit.INSTANCE;
+                });
+    }
+
+    /**
+     * ImageFileActivity 的相册网格，缩略图在滚动中解码
+     */
+    @Test
+    public void imageGrid() {
+        rule.measureRepeated(Journeys.PACKAGE, Collections.singletonList(new FrameTimingMetric()),
+                compilationMode, StartupMode.WARM, ITERATIONS,
+                scope -> {
+                    scope.startActivityAndWait(Journeys.homeIntent(Journeys.ACCOUNT));
+                    try {
+                        Journeys.openImageGrid(scope.getDevice());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    Journeys.scrollImageGrid(scope.getDevice());
+                    return Unit.INSTANCE;
+                });
+    }
+}
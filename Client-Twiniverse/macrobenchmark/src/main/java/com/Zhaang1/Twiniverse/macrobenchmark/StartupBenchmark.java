@@ -0,0 +1,76 @@
+package com.Zhaang1.Twiniverse.macrobenchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collections;
+import java.util.List;
+
+import kotlin.Unit;
+
+/**
+ * 冷启动耗时。timeToInitialDisplay 为第一帧；首页的 timeToFullDisplay 以 HomeFragment 报告
+ * 模型加载完成（或没有模型）为准，包含 WebView 的创建
+ */
+@RunWith(Parameterized.class)
+public class StartupBenchmark {
+
+    private static final int ITERATIONS = 10;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> parameters() {
+        return Journeys.compilationModes();
+    }
+
+    @Rule
+    public final MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    private final CompilationMode compilationMode;
+
+    public StartupBenchmark(String name, CompilationMode compilationMode) {
+        this.compilationMode = compilationMode;
+    }
+
+    /**
+     * 启动器图标 → 登录界面
+     */
+    @Test
+    public void login() {
+        rule.measureRepeated(Journeys.PACKAGE, Collections.singletonList(new StartupTimingMetric()),
+                compilationMode, StartupMode.COLD, ITERATIONS,
+                scope -> {
+                    scope.pressHome();
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scope.startActivityAndWait(Journeys.loginIntent());
+                    Journeys.waitForLogin(scope.getDevice());
+                    return Unit.INSTANCE;
+                });
+    }
+
+    /**
+     * 登录成功后 MainActivity → HomeFragment 的 WebView
+     */
+    @Test
+    public void home() {
+        rule.measureRepeated(Journeys.PACKAGE, Collections.singletonList(new StartupTimingMetric()),
+                compilationMode, StartupMode.COLD, ITERATIONS,
+                scope -> {
+                    scope.pressHome();
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scope.startActivityAndWait(Journeys.homeIntent(Journeys.ACCOUNT));
+                    Journeys.waitForHome(scope.getDevice());
+                    return Unit.INSTANCE;
+                });
+    }
+}
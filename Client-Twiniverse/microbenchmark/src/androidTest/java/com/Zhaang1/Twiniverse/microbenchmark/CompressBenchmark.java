@@ -0,0 +1,68 @@
+package com.Zhaang1.Twiniverse.microbenchmark;
+
+import android.util.Log;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import com.Zhaang1.Twiniverse.imaging.ImageCompressor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 上传前的整条压缩路径（ImageCompressor.process），每次迭代压缩一张图片，包括解码、缩放、
+ * 逐级降低画质和写文件。预算取 imageUploadBudget 的常见范围：默认 1MB 与慢速网络上的 300KB
+ */
+@RunWith(Parameterized.class)
+public class CompressBenchmark {
+
+    private static final String TAG = "ImagingBenchmark";
+    private static final long[] BUDGETS = {1024 * 1024, 300 * 1024};
+
+    @Parameterized.Parameters(name = "{0}_budget{1}")
+    public static List<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (Corpus.Entry entry : Corpus.ENTRIES) {
+            for (long budget : BUDGETS) parameters.add(new Object[]{entry, budget});
+        }
+        return parameters;
+    }
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final Corpus.Entry entry;
+    private final long budget;
+    private File file;
+    private ImageCompressor compressor;
+
+    public CompressBenchmark(Corpus.Entry entry, long budget) {
+        this.entry = entry;
+        this.budget = budget;
+    }
+
+    @Before
+    public void setUp() {
+        file = Corpus.file(entry);
+        compressor = new ImageCompressor(Corpus.dir(), "compressed_", budget);
+    }
+
+    @Test
+    public void compress() {
+        File result = compressor.process(file);
+        Log.i(TAG, "compress[" + entry + ", " + budget + "]: " + file.length() + " -> " + result.length() + " bytes");
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            compressor.process(file);
+        }
+    }
+}
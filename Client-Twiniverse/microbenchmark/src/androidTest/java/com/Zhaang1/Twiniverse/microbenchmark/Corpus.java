@@ -0,0 +1,122 @@
+package com.Zhaang1.Twiniverse.microbenchmark;
+
+import android.graphics.Bitmap;
+import android.media.ExifInterface;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 测量用的固定图片集：几种常见的相机尺寸和 EXIF 方向。
+ * 图片不放进仓库，第一次使用时按固定种子生成到测试应用的缓存目录，之后直接复用；
+ * 内容是渐变加噪点，JPEG 体积与真实照片同一量级（12MP 为数 MB），不会被编码器轻易压小。
+ */
+final class Corpus {
+
+    static final class Entry {
+        final String name;
+        final int width;
+        final int height;
+        final int orientation;
+
+        Entry(String name, int width, int height, int orientation) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static final Entry[] ENTRIES = {
+            new Entry("12mp_landscape", 4000, 3000, ExifInterface.ORIENTATION_NORMAL),
+            new Entry("12mp_portrait", 3000, 4000, ExifInterface.ORIENTATION_NORMAL),
+            // 相机传感器是横向的，竖拍的照片常以横向像素加 EXIF 旋转保存
+            new Entry("12mp_rotate90", 4000, 3000, ExifInterface.ORIENTATION_ROTATE_90),
+            new Entry("12mp_rotate180", 4000, 3000, ExifInterface.ORIENTATION_ROTATE_180),
+            new Entry("12mp_rotate270", 4000, 3000, ExifInterface.ORIENTATION_ROTATE_270),
+            new Entry("12mp_16x9", 4624, 2600, ExifInterface.ORIENTATION_NORMAL),
+            new Entry("8mp_landscape", 3264, 2448, ExifInterface.ORIENTATION_NORMAL),
+            new Entry("2mp_landscape", 1920, 1080, ExifInterface.ORIENTATION_NORMAL),
+    };
+
+    private static final int JPEG_QUALITY = 95;
+    private static final int NOISE = 24;
+    private static final long SEED = 20240601L;
+
+    private Corpus() {
+    }
+
+    /**
+     * 参数化用例的参数列表，每项为 {Entry}
+     */
+    static List<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (Entry entry : ENTRIES) parameters.add(new Object[]{entry});
+        return parameters;
+    }
+
+    static File dir() {
+        File dir = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "corpus");
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new UncheckedIOException(new IOException("Cannot create " + dir));
+        return dir;
+    }
+
+    /**
+     * 图片文件，不存在时生成
+     */
+    static synchronized File file(Entry entry) {
+        File file = new File(dir(), entry.name + ".jpg");
+        if (file.length() > 0) return file;
+        try {
+            generate(entry, file);
+        } catch (IOException e) {
+            file.delete();
+            throw new UncheckedIOException(e);
+        }
+        return file;
+    }
+
+    private static void generate(Entry entry, File file) throws IOException {
+        Bitmap bmp = Bitmap.createBitmap(entry.width, entry.height, Bitmap.Config.ARGB_8888);
+        try {
+            Random random = new Random(SEED ^ entry.name.hashCode());
+            int[] row = new int[entry.width];
+            for (int y = 0; y < entry.height; y++) {
+                for (int x = 0; x < entry.width; x++) {
+                    int r = 255 * x / entry.width + random.nextInt(NOISE);
+                    int g = 255 * y / entry.height + random.nextInt(NOISE);
+                    int b = 128 + random.nextInt(NOISE);
+                    row[x] = 0xFF000000 | clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+                }
+                bmp.setPixels(row, 0, entry.width, 0, y, entry.width, 1);
+            }
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                bmp.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            }
+        } finally {
+            bmp.recycle();
+        }
+
+        if (entry.orientation != ExifInterface.ORIENTATION_NORMAL) {
+            ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+            exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(entry.orientation));
+            exif.saveAttributes();
+        }
+    }
+
+    private static int clamp(int value) {
+        return Math.min(255, value);
+    }
+}
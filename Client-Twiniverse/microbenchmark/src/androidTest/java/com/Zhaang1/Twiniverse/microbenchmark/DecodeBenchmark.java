@@ -0,0 +1,123 @@
+package com.Zhaang1.Twiniverse.microbenchmark;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import com.Zhaang1.Twiniverse.imaging.Thumbnails;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 每次迭代解码一张图片。尺寸与界面一致：相册网格和拍照缩略图约为屏幕宽度的 1/5，预览为整屏。
+ * imageDecoderThumbnail 是对照组：ImageDecoder 直接解码到目标尺寸并按 EXIF 方向旋转，
+ * 与 cameraThumbnail（BitmapFactory 2 的幂采样 + Matrix 旋转）比较。
+ * Bitmap 像素在 native 堆上，不计入 allocationCount，每个用例开始时把单张的像素字节数写入 logcat
+ */
+@RunWith(Parameterized.class)
+public class DecodeBenchmark {
+
+    private static final String TAG = "ImagingBenchmark";
+    // 1080 像素宽的屏幕上相册网格 5 列，拍照界面缩略图宽高比 3:4
+    private static final int GRID = 216;
+    private static final int THUMB_WIDTH = 216;
+    private static final int THUMB_HEIGHT = 288;
+    private static final int PREVIEW_WIDTH = 1080;
+    private static final int PREVIEW_HEIGHT = 1920;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> parameters() {
+        return Corpus.parameters();
+    }
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final Corpus.Entry entry;
+    private File file;
+
+    public DecodeBenchmark(Corpus.Entry entry) {
+        this.entry = entry;
+    }
+
+    @Before
+    public void setUp() {
+        file = Corpus.file(entry);
+    }
+
+    /**
+     * ImageFileActivity 相册网格的一格
+     */
+    @Test
+    public void gridThumbnail() {
+        logBitmapBytes("gridThumbnail", Thumbnails.decodeSampledBitmap(file.getAbsolutePath(), GRID, GRID));
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Thumbnails.decodeSampledBitmap(file.getAbsolutePath(), GRID, GRID).recycle();
+        }
+    }
+
+    /**
+     * ImageFileActivity 点开后的整屏预览
+     */
+    @Test
+    public void preview() {
+        logBitmapBytes("preview", Thumbnails.decodeSampledBitmap(file.getAbsolutePath(), PREVIEW_WIDTH, PREVIEW_HEIGHT));
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Thumbnails.decodeSampledBitmap(file.getAbsolutePath(), PREVIEW_WIDTH, PREVIEW_HEIGHT).recycle();
+        }
+    }
+
+    /**
+     * ImageCameraActivity 拍照后底部的缩略图，包括读取 EXIF 和旋转
+     */
+    @Test
+    public void cameraThumbnail() {
+        logBitmapBytes("cameraThumbnail", Thumbnails.loadRotatedThumbnail(file, THUMB_WIDTH, THUMB_HEIGHT));
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Thumbnails.loadRotatedThumbnail(file, THUMB_WIDTH, THUMB_HEIGHT).recycle();
+        }
+    }
+
+    @Test
+    public void imageDecoderThumbnail() throws IOException {
+        logBitmapBytes("imageDecoderThumbnail", decodeWithImageDecoder());
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            decodeWithImageDecoder().recycle();
+        }
+    }
+
+    /**
+     * 解码到不小于缩略图尺寸的最小整数尺寸（保持宽高比），强制软件 Bitmap，与 BitmapFactory 的结果可比
+     */
+    private Bitmap decodeWithImageDecoder() throws IOException {
+        return ImageDecoder.decodeBitmap(ImageDecoder.createSource(file), (decoder, info, source) -> {
+            Size size = info.getSize();
+            double scale = Math.max((double) THUMB_WIDTH / size.getWidth(), (double) THUMB_HEIGHT / size.getHeight());
+            scale = Math.min(1.0, scale);
+            decoder.setTargetSize((int) Math.ceil(size.getWidth() * scale), (int) Math.ceil(size.getHeight() * scale));
+            decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+        });
+    }
+
+    private void logBitmapBytes(String test, Bitmap bmp) {
+        Log.i(TAG, test + "[" + entry + "]: " + bmp.getWidth() + "x" + bmp.getHeight()
+                + ", " + bmp.getAllocationByteCount() + " bitmap bytes");
+        bmp.recycle();
+    }
+}
@@ -0,0 +1,91 @@
+package com.Zhaang1.Twiniverse.microbenchmark;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 只测编码：同一张已解码的图片（12MP 按 inSampleSize 2 解码，即压缩路径上常见的 2000x1500）
+ * 用不同格式和画质编码到内存，不写磁盘。用于比较编码策略的耗时，编码后的大小写入 logcat
+ */
+@RunWith(Parameterized.class)
+public class EncodeBenchmark {
+
+    private static final String TAG = "ImagingBenchmark";
+
+    @Parameterized.Parameters(name = "{0}_q{1}")
+    public static List<Object[]> parameters() {
+        return Arrays.asList(
+                new Object[]{Bitmap.CompressFormat.JPEG, 90},
+                new Object[]{Bitmap.CompressFormat.JPEG, 75},
+                new Object[]{Bitmap.CompressFormat.WEBP_LOSSY, 80});
+    }
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final Bitmap.CompressFormat format;
+    private final int quality;
+    private Bitmap bitmap;
+
+    public EncodeBenchmark(Bitmap.CompressFormat format, int quality) {
+        this.format = format;
+        this.quality = quality;
+    }
+
+    @Before
+    public void setUp() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 2;
+        bitmap = BitmapFactory.decodeFile(Corpus.file(Corpus.ENTRIES[0]).getAbsolutePath(), options);
+    }
+
+    @After
+    public void tearDown() {
+        bitmap.recycle();
+    }
+
+    @Test
+    public void encode() {
+        CountingSink sink = new CountingSink();
+        bitmap.compress(format, quality, sink);
+        Log.i(TAG, "encode[" + format + ", q" + quality + "]: " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                + " -> " + sink.count + " bytes");
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            bitmap.compress(format, quality, sink);
+        }
+    }
+
+    /**
+     * 只计数、丢弃数据的输出流，避免把磁盘写入算进编码耗时
+     */
+    private static final class CountingSink extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+/**
+ * 命令号与服务器 HELLO 中声明的可选功能，与 Server-VGGT/Manager.py 中的 CMD_* 一一对应。
+ * 请求格式统一为 [cmd:1][len:4][body]，各命令的请求体见 Requests，响应格式见 Responses。
+ */
+public final class Commands {
+
+    public static final byte LOGIN = 1;
+    public static final byte IMAGE = 2;
+    public static final byte VIDEO = 3;
+    public static final byte GET_GLB = 4;
+    public static final byte UPLOAD_OPEN = 5;
+    public static final byte UPLOAD_CHUNK = 6;
+    public static final byte UPLOAD_QUERY = 7;
+    public static final byte UPLOAD_COMMIT = 8;
+    public static final byte GET_GLB_RANGE = 9;
+    public static final byte BLOB_QUERY = 10;
+    public static final byte BLOB_PUT = 11;
+    public static final byte IMAGE_BY_HASH = 12;
+    public static final byte HELLO = 13;
+    public static final byte GET_GLB_BATCH = 14;
+    public static final byte JOB_SUBMIT = 15;
+    public static final byte JOB_STATUS = 16;
+    public static final byte JOB_RESULT = 17;
+    public static final byte LIST_GLB = 18;
+    public static final byte ECHO = 19;
+    public static final byte SINK = 20;
+    public static final byte SOURCE = 21;
+
+    // 可选命令：旧服务器不声明，客户端应退回旧命令
+    public static final String FEATURE_GLB_BATCH = "glb_batch";
+    public static final String FEATURE_JOBS = "jobs";
+    public static final String FEATURE_GLB_LIST = "glb_list";
+    // 断点续传上传会话 UPLOAD_OPEN / CHUNK / QUERY / COMMIT，旧命令为一次性的 IMAGE / VIDEO
+    public static final String FEATURE_UPLOADS = "uploads";
+    // 分段下载 GET_GLB_RANGE，旧命令为一次取回整个文件的 GET_GLB
+    public static final String FEATURE_GLB_RANGE = "glb_range";
+    // 按内容哈希去重的图片存储 BLOB_QUERY / BLOB_PUT / IMAGE_BY_HASH，旧命令为整体上传的 IMAGE
+    public static final String FEATURE_BLOBS = "blobs";
+    // 网络诊断 ECHO / SINK / SOURCE，没有旧命令可退回（见 NetworkProbe）
+    public static final String FEATURE_DIAG = "diag";
+    // 客户端在 HELLO 中请求，服务器同意时才声明：生成类响应之后附带服务器各阶段耗时（见 Responses.readTimingTrailer）
+    public static final String FEATURE_TIMING = "timing";
+    // 客户端在 HELLO 中给出接收窗口 window 时服务器才声明：多路复用的每个流按 WINDOW 帧归还的额度发送响应（见 MuxSession）
+    public static final String FEATURE_FLOW = "flow";
+
+    // 等待响应时最长多久收不到任何数据就放弃，服务器失去响应时请求不会一直占着 IO 线程；
+    // 生成类命令要等推理完成才有响应，单独放宽
+    public static final int READ_TIMEOUT_MS = 60 * 1000;
+    public static final int GENERATION_TIMEOUT_MS = 15 * 60 * 1000;
+
+    private static final String[] NAMES = {null, "LOGIN", "IMAGE", "VIDEO", "GET_GLB", "UPLOAD_OPEN",
+            "UPLOAD_CHUNK", "UPLOAD_QUERY", "UPLOAD_COMMIT", "GET_GLB_RANGE", "BLOB_QUERY", "BLOB_PUT",
+            "IMAGE_BY_HASH", "HELLO", "GET_GLB_BATCH", "JOB_SUBMIT", "JOB_STATUS", "JOB_RESULT", "LIST_GLB",
+            "ECHO", "SINK", "SOURCE"};
+
+    private Commands() {
+    }
+
+    /**
+     * 命令名，用于日志和统计；未知命令返回 CMD_n
+     */
+    public static String name(byte cmd) {
+        return cmd > 0 && cmd < NAMES.length ? NAMES[cmd] : "CMD_" + cmd;
+    }
+
+    /**
+     * 该命令的响应读超时（毫秒）
+     */
+    public static int responseTimeoutMillis(byte cmd) {
+        return cmd == IMAGE || cmd == VIDEO || cmd == UPLOAD_COMMIT || cmd == IMAGE_BY_HASH
+                ? GENERATION_TIMEOUT_MS : READ_TIMEOUT_MS;
+    }
+
+    /**
+     * 只有幂等请求才能在连接失效后自动重发；生成请求重发会让服务器重复推理
+     */
+    public static boolean isIdempotent(byte cmd) {
+        return cmd == LOGIN || cmd == GET_GLB || cmd == GET_GLB_RANGE
+                || cmd == UPLOAD_OPEN || cmd == UPLOAD_CHUNK || cmd == UPLOAD_QUERY
+                || cmd == BLOB_QUERY || cmd == BLOB_PUT || cmd == GET_GLB_BATCH
+                || cmd == JOB_STATUS || cmd == JOB_RESULT || cmd == LIST_GLB
+                || cmd == ECHO || cmd == SINK || cmd == SOURCE;
+    }
+}
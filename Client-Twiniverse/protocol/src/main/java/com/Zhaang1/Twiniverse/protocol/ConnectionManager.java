@@ -0,0 +1,183 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 全局连接管理：每个服务器（ip:port）保持一条已登录的长连接，供整个 App 复用。
+ * 取用前做健康检查，连接失效时自动重连，并用最近一次成功登录的凭据重新认证。
+ * 旧协议连接同一时刻只借给一个请求；升级为多路复用的连接可同时借给多个请求。
+ * 并行上传时每台服务器可以再开几条连接（lane 1..MAX_LANES-1），共用同一份登录凭据；
+ * 多条 TCP 各自有拥塞窗口，高延迟链路上合起来能用满更多上行带宽。
+ */
+public class ConnectionManager {
+
+    /**
+     * 每台服务器最多同时保持的连接数，lane 0 为主连接
+     */
+    public static final int MAX_LANES = 4;
+
+    // 空闲过久的连接可能已被 NAT / 运营商网关静默回收，直接重建更可靠
+    private static final long MAX_IDLE_MS = 120 * 1000;
+
+    private static final ConnectionManager INSTANCE = new ConnectionManager();
+
+    /**
+     * 在新建立的连接上重新登录，失败时抛出 IOException。
+     */
+    public interface Authenticator {
+        void authenticate(ServerConnection connection) throws IOException;
+    }
+
+    private static class ServerSlot {
+        final ReentrantLock lock = new ReentrantLock();
+        // 只在持有 lock 时写入；reset 不加锁读取，以便关闭正被占用的连接
+        volatile ServerConnection connection;
+    }
+
+    private static class Server {
+        final ServerSlot[] lanes = new ServerSlot[MAX_LANES];
+        volatile Authenticator authenticator;
+    }
+
+    private final Map<String, Server> servers = new HashMap<>();
+
+    public static ConnectionManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 独立的连接池，不与 App 共享的实例复用连接，例如压测时每个模拟用户各用一个
+     */
+    public ConnectionManager() {
+    }
+
+    private synchronized Server server(String host, int port) {
+        String key = host + ":" + port;
+        Server server = servers.get(key);
+        if (server == null) {
+            server = new Server();
+            servers.put(key, server);
+        }
+        return server;
+    }
+
+    private synchronized ServerSlot slot(Server server, int lane) {
+        if (lane < 0 || lane >= MAX_LANES) throw new IllegalArgumentException("Invalid lane: " + lane);
+        ServerSlot slot = server.lanes[lane];
+        if (slot == null) {
+            slot = new ServerSlot();
+            server.lanes[lane] = slot;
+        }
+        return slot;
+    }
+
+    /**
+     * 取得到指定服务器的主连接，使用完毕后必须调用 release。
+     * 旧协议连接在 release 前由调用方独占，多路复用连接则直接共享。
+     */
+    public ServerConnection acquire(String host, int port) throws IOException {
+        return acquire(host, port, 0);
+    }
+
+    /**
+     * 同上，lane 大于 0 时取得并行上传用的额外连接
+     */
+    public ServerConnection acquire(String host, int port, int lane) throws IOException {
+        Server server = server(host, port);
+        ServerSlot slot = slot(server, lane);
+        try {
+            slot.lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for connection", e);
+        }
+
+        try {
+            ServerConnection conn = slot.connection;
+            if (conn != null && (conn.idleMillis() > MAX_IDLE_MS || !conn.isHealthy())) {
+                conn.close();
+                conn = null;
+            }
+            if (conn == null) {
+                conn = new ServerConnection(host, port);
+                Authenticator authenticator = server.authenticator;
+                try {
+                    // 先按旧协议重新登录，再协商是否升级为多路复用
+                    if (authenticator != null) {
+                        authenticator.authenticate(conn);
+                    }
+                    conn.negotiate();
+                } catch (IOException e) {
+                    conn.close();
+                    throw e;
+                }
+                slot.connection = conn;
+                // 建连期间退出了登录（reset 不等待 lock）：先放入再检查，reset 要么看到这条连接并关闭它，
+                // 要么这里看到凭据已被清除，以旧凭据登录的连接不会留下
+                if (authenticator != null && server.authenticator != authenticator) {
+                    conn.close();
+                    throw new IOException("Logged out while connecting");
+                }
+            }
+            if (conn.isMultiplexed()) {
+                slot.lock.unlock();
+            }
+            return conn;
+        } catch (IOException | RuntimeException e) {
+            slot.connection = null;
+            slot.lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还连接。broken 为 true 时连接状态未知（如读写中途异常），直接关闭丢弃；
+     * 多路复用连接上单个流的失败不影响连接本身，只有连接已断开时才丢弃。
+     */
+    public void release(String host, int port, ServerConnection connection, boolean broken) {
+        release(host, port, 0, connection, broken);
+    }
+
+    public void release(String host, int port, int lane, ServerConnection connection, boolean broken) {
+        ServerSlot slot = slot(server(host, port), lane);
+        boolean multiplexed = connection.isMultiplexed();
+        if (broken && (!multiplexed || !connection.isOpen())) {
+            connection.close();
+            // 旧协议连接的调用方仍持有 lock（可重入）；多路复用连接此时可能正有别的线程在重连，
+            // 只清除自己这条，不覆盖新建立的连接
+            slot.lock.lock();
+            try {
+                if (slot.connection == connection) slot.connection = null;
+            } finally {
+                slot.lock.unlock();
+            }
+        } else {
+            connection.markUsed();
+        }
+        if (!multiplexed) {
+            slot.lock.unlock();
+        }
+    }
+
+    public void setAuthenticator(String host, int port, Authenticator authenticator) {
+        server(host, port).authenticator = authenticator;
+    }
+
+    /**
+     * 退出登录：忘记凭据并关闭所有连接，下一次请求会以未登录状态重新建连。
+     * 会在主线程调用，因此不等待 lock：旧协议连接在生成任务中可能被占用十几分钟。
+     * 正在进行的请求随连接关闭以 IOException 结束，由 release 丢弃连接；
+     * 空闲的连接留在槽位中，下次 acquire 的健康检查发现已关闭后重建。
+     */
+    public void reset(String host, int port) {
+        Server server = server(host, port);
+        server.authenticator = null;
+        for (int lane = 0; lane < MAX_LANES; lane++) {
+            ServerConnection conn = slot(server, lane).connection;
+            if (conn != null) conn.close();
+        }
+    }
+}
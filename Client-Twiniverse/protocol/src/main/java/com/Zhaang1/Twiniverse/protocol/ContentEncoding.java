@@ -0,0 +1,138 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 响应数据压缩，连接建立时通过 HELLO 协商。启用后，携带模型数据的响应（CMD 2/3/4/8/9/12）
+ * 中的数据段改为分块传输: [chunkLen:4][chunk]...[0:4]，所有 chunk 拼起来是一个完整的 zlib 流。
+ * 响应中原有的长度字段仍是解压后的字节数，读取逻辑和进度统计都不需要改变。
+ * 解压在读取路径上边收边做，只占用一个 Inflater 和一块缓冲区，不会先把压缩数据读进内存。
+ */
+public final class ContentEncoding {
+
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * HELLO 中声明的客户端支持的编码，按偏好排序
+     */
+    static final String[] SUPPORTED = {DEFLATE};
+
+    // 服务器每次压缩一块文件数据后发送一个 chunk，正常远小于此值
+    private static final int MAX_CHUNK = 4 * 1024 * 1024;
+
+    private ContentEncoding() {
+    }
+
+    static boolean isSupported(String encoding) {
+        for (String supported : SUPPORTED) {
+            if (supported.equals(encoding)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 打开响应中的一段数据，encoding 为 null 时原样读取。
+     * 读完数据后调用 finish()，再在 finally 中 close()。
+     */
+    public static Body open(DataInputStream in, String encoding) throws IOException {
+        if (encoding == null) {
+            return new Body(new NonClosingInputStream(in), null, null);
+        }
+        if (!DEFLATE.equals(encoding)) {
+            throw new IOException("Unsupported content encoding: " + encoding);
+        }
+        ChunkedInputStream chunks = new ChunkedInputStream(in);
+        Inflater inflater = new Inflater();
+        return new Body(new InflaterInputStream(chunks, inflater, RequestBody.BUFFER_SIZE), inflater, chunks);
+    }
+
+    public static class Body extends DataInputStream {
+        private final Inflater inflater;
+        private final ChunkedInputStream chunks;
+
+        private Body(InputStream decoded, Inflater inflater, ChunkedInputStream chunks) {
+            super(decoded);
+            this.inflater = inflater;
+            this.chunks = chunks;
+        }
+
+        /**
+         * 数据已按长度字段读完：消费压缩流的结尾和分块结束标记，连接停在下一条响应的开头
+         */
+        public void finish() throws IOException {
+            if (chunks == null) return;
+            // 读到 zlib 流结尾（校验和），长度字段之外不应再有解压数据
+            if (in.read(new byte[1]) != -1) {
+                throw new IOException("Encoded data longer than declared");
+            }
+            chunks.drain();
+        }
+
+        /**
+         * 只释放 Inflater 的本地内存，不关闭底层连接
+         */
+        @Override
+        public void close() {
+            if (inflater != null) inflater.end();
+        }
+    }
+
+    /**
+     * [chunkLen:4][chunk]...[0:4] 解码为连续字节流，读到结束标记后返回 -1，不会多读后续响应
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final DataInputStream in;
+        private int remaining;
+        private boolean eof;
+
+        ChunkedInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (remaining == 0) {
+                if (eof) return -1;
+                int next = in.readInt();
+                if (next < 0 || next > MAX_CHUNK) throw new IOException("Invalid chunk length: " + next);
+                if (next == 0) eof = true;
+                remaining = next;
+            }
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n == -1) throw new EOFException("Connection closed inside encoded chunk");
+            remaining -= n;
+            return n;
+        }
+
+        void drain() throws IOException {
+            byte[] skip = new byte[RequestBody.BUFFER_SIZE];
+            while (read(skip, 0, skip.length) != -1) {
+                // 丢弃
+            }
+        }
+    }
+
+    private static class NonClosingInputStream extends FilterInputStream {
+        NonClosingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
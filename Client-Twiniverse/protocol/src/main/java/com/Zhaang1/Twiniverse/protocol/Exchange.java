@@ -0,0 +1,33 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * 连接上的一次请求-响应交换。旧协议下独占整条连接，多路复用协议下对应一个流。
+ * 两种情况下 input() 读到的都是旧协议格式的响应字节，各 ResponseReader 无需区分。
+ */
+interface Exchange {
+
+    /**
+     * 发送请求；请求体字节数计入 uploadMeter（可为 null）
+     */
+    void send(byte cmd, RequestBody body, TransferMeter uploadMeter) throws IOException;
+
+    DataInputStream input();
+
+    /**
+     * 已收到的响应字节数，用于判断失败时服务器是否已开始应答
+     */
+    long responseBytes();
+
+    /**
+     * 响应已完整读取，释放交换占用的资源
+     */
+    void complete();
+
+    /**
+     * 中止交换：旧协议下关闭整条连接，多路复用时只重置这个流
+     */
+    void abort();
+}
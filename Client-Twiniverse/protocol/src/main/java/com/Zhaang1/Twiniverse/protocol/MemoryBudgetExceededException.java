@@ -0,0 +1,27 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.util.Locale;
+
+/**
+ * 测试模式下任务的内存峰值超出预算（见 MemoryProbe.setBudget）
+ */
+public class MemoryBudgetExceededException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    // "java" 或 "native"
+    public final String heap;
+    // 峰值出现的阶段
+    public final String stage;
+    public final long peakBytes;
+    public final long budgetBytes;
+
+    public MemoryBudgetExceededException(String heap, String stage, long peakBytes, long budgetBytes) {
+        super(String.format(Locale.ROOT, "%s heap peak %.1f MB at %s exceeds budget %.1f MB",
+                heap, peakBytes / 1048576.0, stage, budgetBytes / 1048576.0));
+        this.heap = heap;
+        this.stage = stage;
+        this.peakBytes = peakBytes;
+        this.budgetBytes = budgetBytes;
+    }
+}
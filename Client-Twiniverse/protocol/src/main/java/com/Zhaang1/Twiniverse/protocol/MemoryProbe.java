@@ -0,0 +1,174 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 一次任务的内存高水位。在阶段边界采样 Java 堆已用量和 native 堆已分配量（Bitmap 像素在 native 堆上），
+ * 记录整体峰值及出现的阶段，以及各阶段各自的峰值。StageTrace 每记录一个客户端阶段采样一次；
+ * 阶段内部的峰值（例如压缩时两张 Bitmap 同时存在）由代码在当时调用 sampleCurrent 补采。
+ * Java 堆已用量包含尚未回收的垃圾，是实际占用的上限；测试模式下超出预算的读数先触发一次 GC 再重读，
+ * 以免上一个任务留下的垃圾使任务误判失败。
+ * 纯 Java 环境取不到 native 堆，由 App 通过 setNativeHeapSampler 提供（Android 上为 Debug.getNativeHeapAllocatedSize）。
+ * 设置了预算（测试模式）时，checkBudget 对超出预算的任务抛出 MemoryBudgetExceededException。
+ */
+public class MemoryProbe {
+
+    public static final String START = "start";
+
+    private static final ThreadLocal<MemoryProbe> CURRENT = new ThreadLocal<>();
+    private static volatile LongSupplier nativeHeap = () -> -1;
+    // 0 表示不限制
+    private static volatile long javaBudget;
+    private static volatile long nativeBudget;
+
+    /**
+     * bind 的返回值，关闭时恢复线程原先绑定的 MemoryProbe
+     */
+    public interface Binding extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final Map<String, long[]> stagePeaks = new LinkedHashMap<>();
+    private long javaPeak = -1;
+    private long nativePeak = -1;
+    private String javaPeakStage;
+    private String nativePeakStage;
+
+    /**
+     * native 堆已分配字节数的来源，未设置时不统计 native 堆（记为 -1）
+     */
+    public static void setNativeHeapSampler(LongSupplier sampler) {
+        nativeHeap = sampler != null ? sampler : () -> -1;
+    }
+
+    /**
+     * 测试模式的内存预算（字节），0 表示不限制；两者都为 0 时关闭测试模式
+     */
+    public static void setBudget(long javaBytes, long nativeBytes) {
+        javaBudget = Math.max(0, javaBytes);
+        nativeBudget = Math.max(0, nativeBytes);
+    }
+
+    public static long javaBudget() {
+        return javaBudget;
+    }
+
+    public static long nativeBudget() {
+        return nativeBudget;
+    }
+
+    /**
+     * 当前线程绑定的 MemoryProbe 采样一次；没有绑定时什么也不做。
+     * 供不知道自己属于哪个任务的代码（例如 ImageCompressor）在内存占用最高的时刻调用
+     */
+    public static void sampleCurrent(String stage) {
+        MemoryProbe probe = CURRENT.get();
+        if (probe != null) probe.sample(stage);
+    }
+
+    /**
+     * 在 close 之前，当前线程上的 sampleCurrent 记入此对象
+     */
+    public Binding bind() {
+        MemoryProbe previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    public void sample(String stage) {
+        Runtime runtime = Runtime.getRuntime();
+        long javaUsed = runtime.totalMemory() - runtime.freeMemory();
+        long javaLimit = javaBudget;
+        if (javaLimit > 0 && javaUsed > javaLimit) {
+            runtime.gc();
+            javaUsed = runtime.totalMemory() - runtime.freeMemory();
+        }
+        long nativeUsed = nativeHeap.getAsLong();
+        synchronized (this) {
+            long[] peak = stagePeaks.get(stage);
+            if (peak == null) {
+                peak = new long[]{-1, -1};
+                stagePeaks.put(stage, peak);
+            }
+            peak[0] = Math.max(peak[0], javaUsed);
+            peak[1] = Math.max(peak[1], nativeUsed);
+            if (javaUsed > javaPeak) {
+                javaPeak = javaUsed;
+                javaPeakStage = stage;
+            }
+            if (nativeUsed > nativePeak) {
+                nativePeak = nativeUsed;
+                nativePeakStage = stage;
+            }
+        }
+    }
+
+    public synchronized long javaPeak() {
+        return javaPeak;
+    }
+
+    public synchronized long nativePeak() {
+        return nativePeak;
+    }
+
+    public synchronized String javaPeakStage() {
+        return javaPeakStage;
+    }
+
+    public synchronized String nativePeakStage() {
+        return nativePeakStage;
+    }
+
+    /**
+     * 各阶段的峰值 {Java 堆, native 堆}，按第一次采样的顺序
+     */
+    public synchronized Map<String, long[]> stagePeaks() {
+        Map<String, long[]> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : stagePeaks.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+
+    /**
+     * 设置了预算且峰值超出时抛出 MemoryBudgetExceededException
+     */
+    public synchronized void checkBudget() {
+        long javaLimit = javaBudget;
+        long nativeLimit = nativeBudget;
+        if (javaLimit > 0 && javaPeak > javaLimit) {
+            throw new MemoryBudgetExceededException("java", javaPeakStage, javaPeak, javaLimit);
+        }
+        if (nativeLimit > 0 && nativePeak > nativeLimit) {
+            throw new MemoryBudgetExceededException("native", nativePeakStage, nativePeak, nativeLimit);
+        }
+    }
+
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("java_peak", javaPeak);
+        json.put("native_peak", nativePeak);
+        if (javaPeakStage != null) json.put("java_peak_stage", javaPeakStage);
+        if (nativePeakStage != null) json.put("native_peak_stage", nativePeakStage);
+        JSONObject stages = new JSONObject();
+        for (Map.Entry<String, long[]> entry : stagePeaks.entrySet()) {
+            stages.put(entry.getKey(), new JSONObject()
+                    .put("java", entry.getValue()[0])
+                    .put("native", entry.getValue()[1]));
+        }
+        json.put("stages", stages);
+        return json;
+    }
+}
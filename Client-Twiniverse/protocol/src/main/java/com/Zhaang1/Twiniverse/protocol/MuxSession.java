@@ -0,0 +1,457 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多路复用会话（协议 v2），帧格式: [type:1][streamId:4][len:4][payload]
+ * <ul>
+ * <li>HEADERS 开启一个流，payload 为 [cmd:1]</li>
+ * <li>DATA 请求体 / 响应体的一段，最多 64KB</li>
+ * <li>END 本方向的数据结束</li>
+ * <li>RESET 中止该流，任一方向都可发送</li>
+ * <li>WINDOW 客户端为该流的响应追加发送额度，payload 为 [increment:4]</li>
+ * </ul>
+ * 每个流的请求体和响应体与旧协议完全相同，只是切成帧后与其他流交错传输，
+ * 因此生成任务等待推理时，同一连接上的下载仍能继续。
+ * 读线程按 streamId 分发响应帧；写线程串行发送所有帧，调用线程被取消（中断）时
+ * 不会触及 SocketChannel，共享连接不会因中断而被关闭。
+ * <p>
+ * 读线程从不等待某个流的消费者，否则一个读得慢的流会拖住连接上的所有流。服务器支持流控
+ * （Commands.FEATURE_FLOW）时每个流最多领先消费者 STREAM_WINDOW 字节，消费者读走数据后
+ * 以 WINDOW 帧归还额度；不支持时缓冲超过 MAX_UNCONTROLLED_BUFFER 的流被中止（RESET）。
+ * <p>
+ * 连接没有读超时，每个流按命令的读超时（Commands.responseTimeoutMillis）自己计时：
+ * 请求发出后超时仍没有收到该流的数据时报 SocketTimeoutException 并中止这个流；
+ * 若整条连接在这段时间内一帧都没有收到，视为连接失效，关闭会话。
+ */
+class MuxSession {
+
+    static final byte FRAME_HEADERS = 1;
+    static final byte FRAME_DATA = 2;
+    static final byte FRAME_END = 3;
+    static final byte FRAME_RESET = 4;
+    static final byte FRAME_WINDOW = 5;
+
+    static final int MAX_FRAME_PAYLOAD = 64 * 1024;
+    // 每个流的初始接收窗口，在 HELLO 中告知服务器
+    static final int STREAM_WINDOW = 1024 * 1024;
+
+    // 写队列中的帧只引用请求体分段，不复制文件内容
+    private static final int WRITE_QUEUE_CAPACITY = 32;
+    // 消费者读走窗口的四分之一后归还额度，避免每读一帧就发一个 WINDOW 帧
+    private static final int WINDOW_UPDATE_THRESHOLD = STREAM_WINDOW / 4;
+    // 服务器不支持流控时单个流最多缓冲的未读响应字节
+    private static final int MAX_UNCONTROLLED_BUFFER = 8 * 1024 * 1024;
+    // 响应缓冲块复用池的上限，超出的块交给 GC
+    private static final int BUFFER_POOL_CAPACITY = 64;
+
+    private static final Frame CLOSE_WRITER = new Frame(FRAME_RESET, 0, null);
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final BlockingQueue<Frame> writeQueue = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextStreamId = new AtomicInteger(1);
+    private final BlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<>(BUFFER_POOL_CAPACITY);
+    private final boolean flowControl;
+    private final int streamBufferLimit;
+    private volatile IOException failure;
+    // 最近一次收到任意帧的时刻，用于判断整条连接是否失效
+    private volatile long lastReceivedAt = System.currentTimeMillis();
+
+    MuxSession(SocketChannel channel, DataInputStream in, String name, boolean flowControl) {
+        this.channel = channel;
+        this.in = in;
+        this.flowControl = flowControl;
+        this.streamBufferLimit = flowControl ? STREAM_WINDOW : MAX_UNCONTROLLED_BUFFER;
+
+        Thread reader = new Thread(this::readLoop, "twiniverse-mux-read-" + name);
+        reader.setDaemon(true);
+        reader.start();
+        Thread writer = new Thread(this::writeLoop, "twiniverse-mux-write-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    boolean isAlive() {
+        return failure == null;
+    }
+
+    int activeStreams() {
+        return streams.size();
+    }
+
+    Exchange newStream() {
+        return newStream(0);
+    }
+
+    /**
+     * timeoutMillis 大于 0 时代替按命令的读超时，供测试使用
+     */
+    Exchange newStream(int timeoutMillis) {
+        return new Stream(nextStreamId.getAndIncrement(), timeoutMillis);
+    }
+
+    void close() {
+        fail(new IOException("Connection closed"));
+    }
+
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (failure != null) return;
+            failure = e;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        for (Stream stream : streams.values()) {
+            stream.input.fail(e);
+        }
+        streams.clear();
+        // 唤醒等待队列空位的发送方和等待新帧的写线程
+        writeQueue.clear();
+        writeQueue.offer(CLOSE_WRITER);
+    }
+
+    private void enqueue(Frame frame) throws IOException {
+        checkAlive();
+        try {
+            writeQueue.put(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending request");
+        }
+        checkAlive();
+    }
+
+    private void checkAlive() throws IOException {
+        IOException e = failure;
+        if (e != null) throw new IOException("Connection lost: " + e.getMessage(), e);
+    }
+
+    private void readLoop() {
+        // 帧先读入这块固定缓冲，再复制到各流的缓冲块中，读线程不为每帧分配内存
+        byte[] payload = new byte[MAX_FRAME_PAYLOAD];
+        try {
+            while (true) {
+                byte type = in.readByte();
+                int streamId = in.readInt();
+                int len = in.readInt();
+                if (len < 0 || len > MAX_FRAME_PAYLOAD) {
+                    throw new IOException("Invalid frame length: " + len);
+                }
+                in.readFully(payload, 0, len);
+                lastReceivedAt = System.currentTimeMillis();
+
+                // 已被本地中止的流，其后续帧直接丢弃
+                Stream stream = streams.get(streamId);
+                if (stream == null) continue;
+
+                if (type == FRAME_DATA) {
+                    if (!stream.input.offer(payload, len)) {
+                        // 消费者跟不上（或服务器超出了窗口），只中止这一个流
+                        streams.remove(streamId);
+                        writeQueue.offer(new Frame(FRAME_RESET, streamId, null));
+                        stream.input.fail(new IOException("Stream receive buffer overflow"));
+                    }
+                } else if (type == FRAME_END) {
+                    streams.remove(streamId);
+                    stream.input.finish();
+                } else if (type == FRAME_RESET) {
+                    streams.remove(streamId);
+                    stream.input.fail(new IOException("Stream reset by server"));
+                } else {
+                    throw new IOException("Unexpected frame type: " + type);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Frame frame = writeQueue.take();
+                if (frame == CLOSE_WRITER) return;
+
+                ByteBuffer header = ByteBuffer.allocate(9);
+                header.put(frame.type).putInt(frame.streamId)
+                        .putInt(frame.payload != null ? (int) frame.payload.length() : 0).flip();
+                RequestBody.writeFully(channel, header);
+                if (frame.payload != null) {
+                    frame.payload.writeTo(channel);
+                }
+                if (frame.type != FRAME_RESET && frame.type != FRAME_WINDOW) {
+                    // 只记在请求所属的流上，别的流的上传不会推迟这个流的超时
+                    Stream stream = streams.get(frame.streamId);
+                    if (stream != null) stream.lastSentAt = System.currentTimeMillis();
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("Writer interrupted"));
+        }
+    }
+
+    private static class Frame {
+        final byte type;
+        final int streamId;
+        final RequestBody payload;
+
+        Frame(byte type, int streamId, RequestBody payload) {
+            this.type = type;
+            this.streamId = streamId;
+            this.payload = payload;
+        }
+    }
+
+    private class Stream implements Exchange {
+        private final int id;
+        private final StreamInput input = new StreamInput(this);
+        private final DataInputStream data = new DataInputStream(input);
+        private volatile boolean aborted;
+        private final int fixedTimeoutMillis;
+        private volatile long startedAt;
+        // 本流的请求帧最近一次写出的时刻，请求体发完后即为发送完成的时刻
+        private volatile long lastSentAt;
+        private volatile int timeoutMillis = Commands.READ_TIMEOUT_MS;
+
+        Stream(int id, int fixedTimeoutMillis) {
+            this.id = id;
+            this.fixedTimeoutMillis = fixedTimeoutMillis;
+        }
+
+        @Override
+        public void send(byte cmd, RequestBody body, TransferMeter uploadMeter) throws IOException {
+            if (aborted) throw new InterruptedIOException("Request aborted");
+            startedAt = System.currentTimeMillis();
+            timeoutMillis = fixedTimeoutMillis > 0 ? fixedTimeoutMillis : Commands.responseTimeoutMillis(cmd);
+            streams.put(id, this);
+            enqueue(new Frame(FRAME_HEADERS, id, RequestBody.ofBytes(new byte[]{cmd})));
+            for (long offset = 0; offset < body.length(); offset += MAX_FRAME_PAYLOAD) {
+                if (aborted) throw new InterruptedIOException("Request aborted");
+                long count = Math.min(MAX_FRAME_PAYLOAD, body.length() - offset);
+                enqueue(new Frame(FRAME_DATA, id, body.slice(offset, count)));
+                // 进入写队列即计入进度，队列最多领先实际发送约 2MB
+                if (uploadMeter != null) uploadMeter.add(count);
+            }
+            enqueue(new Frame(FRAME_END, id, null));
+        }
+
+        @Override
+        public DataInputStream input() {
+            return data;
+        }
+
+        @Override
+        public long responseBytes() {
+            return input.received();
+        }
+
+        @Override
+        public void complete() {
+            streams.remove(id);
+            // 响应已读完，归还剩余的缓冲块
+            input.discard(new IOException("Stream completed"));
+        }
+
+        @Override
+        public void abort() {
+            // 可能在主线程调用（取消请求），不能阻塞；队列已满时放弃通知，服务器的后续帧会被丢弃
+            aborted = true;
+            if (streams.remove(id) != null) {
+                writeQueue.offer(new Frame(FRAME_RESET, id, null));
+            }
+            input.discard(new InterruptedIOException("Request aborted"));
+        }
+    }
+
+    /**
+     * 响应缓冲块：读线程把帧数据追加到最后一块，块从 bufferPool 中取用，读完后归还
+     */
+    private static class Chunk {
+        final byte[] data;
+        int start;
+        int end;
+
+        Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * 单个流的响应缓冲：读线程写入帧数据，请求线程按旧协议格式读取
+     */
+    private class StreamInput extends InputStream {
+        private final Stream stream;
+        private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+        private int buffered;
+        private long received;
+        private long lastDataAt;
+        // 已读走但还没有归还给服务器的额度
+        private int unacknowledged;
+        private boolean finished;
+        private IOException error;
+
+        StreamInput(Stream stream) {
+            this.stream = stream;
+        }
+
+        /**
+         * 由读线程调用，从不等待；缓冲已满时返回 false，由读线程中止该流
+         */
+        synchronized boolean offer(byte[] payload, int len) {
+            if (error != null) return true;
+            if (buffered + len > streamBufferLimit) return false;
+            int off = 0;
+            while (off < len) {
+                Chunk tail = chunks.peekLast();
+                if (tail == null || tail.end == tail.data.length) {
+                    tail = new Chunk(takeBuffer());
+                    chunks.add(tail);
+                }
+                int n = Math.min(len - off, tail.data.length - tail.end);
+                System.arraycopy(payload, off, tail.data, tail.end, n);
+                tail.end += n;
+                off += n;
+            }
+            buffered += len;
+            received += len;
+            lastDataAt = System.currentTimeMillis();
+            notifyAll();
+            return true;
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        /**
+         * 流已正常结束时忽略，已收齐的数据仍可读完
+         */
+        synchronized void fail(IOException e) {
+            if (!finished && error == null) error = e;
+            notifyAll();
+        }
+
+        /**
+         * 请求被中止：丢弃尚未读取的数据，下次读取立即报错
+         */
+        synchronized void discard(IOException e) {
+            for (Chunk chunk : chunks) {
+                recycle(chunk.data);
+            }
+            chunks.clear();
+            buffered = 0;
+            if (error == null) error = e;
+            notifyAll();
+        }
+
+        synchronized long received() {
+            return received;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = readBuffered(b, off, len);
+            } catch (SocketTimeoutException e) {
+                // 在 StreamInput 的锁之外关闭会话，fail 要逐个锁住各流
+                if (System.currentTimeMillis() - lastReceivedAt >= stream.timeoutMillis) MuxSession.this.fail(e);
+                throw e;
+            }
+            if (n > 0 && flowControl) {
+                int increment = acknowledge(n);
+                if (increment > 0) sendWindowUpdate(increment);
+            }
+            return n;
+        }
+
+        private synchronized int readBuffered(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (chunks.isEmpty()) {
+                // 断线前已收到的数据先读完再报错，批量下载中已完整到达的条目不会丢失
+                if (error != null) throw new IOException(error.getMessage(), error);
+                if (finished) return -1;
+                // 本流的请求体还在发送时（写线程仍在输出）不算等待响应
+                long idle = System.currentTimeMillis()
+                        - Math.max(Math.max(stream.startedAt, lastDataAt), stream.lastSentAt);
+                long remaining = stream.timeoutMillis - idle;
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("No response from server for " + stream.timeoutMillis + " ms");
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading response");
+                }
+            }
+            Chunk head = chunks.peek();
+            int n = Math.min(len, head.end - head.start);
+            System.arraycopy(head.data, head.start, b, off, n);
+            head.start += n;
+            buffered -= n;
+            if (head.start == head.end) {
+                recycle(chunks.poll().data);
+            }
+            return n;
+        }
+
+        /**
+         * 累计读走的字节，攒够 WINDOW_UPDATE_THRESHOLD 后返回要归还的额度；流已结束时不再归还
+         */
+        private synchronized int acknowledge(int n) {
+            unacknowledged += n;
+            if (unacknowledged < WINDOW_UPDATE_THRESHOLD || finished || error != null) return 0;
+            int increment = unacknowledged;
+            unacknowledged = 0;
+            return increment;
+        }
+
+        private void sendWindowUpdate(int increment) throws InterruptedIOException {
+            if (!streams.containsKey(stream.id)) return;
+            byte[] payload = ByteBuffer.allocate(4).putInt(increment).array();
+            try {
+                enqueue(new Frame(FRAME_WINDOW, stream.id, RequestBody.ofBytes(payload)));
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                // 连接已断开，已缓冲的数据仍可读完，错误由之后的读取报告
+            }
+        }
+    }
+
+    private byte[] takeBuffer() {
+        byte[] buffer = bufferPool.poll();
+        return buffer != null ? buffer : new byte[MAX_FRAME_PAYLOAD];
+    }
+
+    private void recycle(byte[] buffer) {
+        bufferPool.offer(buffer);
+    }
+}
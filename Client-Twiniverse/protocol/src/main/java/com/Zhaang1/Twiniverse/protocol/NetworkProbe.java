@@ -0,0 +1,188 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 网络诊断：ECHO 测往返延迟分布，SINK / SOURCE 测上下行带宽。服务器对这几条命令只收发数据，
+ * 不查数据库也不推理，测到的时间基本都花在网络上；网络正常而生成任务仍然慢时，问题在服务器一侧
+ * （可与 StageTrace 中的服务器阶段对照）。数据是随机字节，SOURCE 的响应也不压缩，测的是链路本身。
+ * 正式测量前先发一次 ECHO，连接建立和 HELLO 不计入结果。需要服务器声明 FEATURE_DIAG。
+ */
+public class NetworkProbe {
+
+    // 与服务器的上限一致（Manager.py DIAG_ECHO_MAX / DIAG_SOURCE_MAX）
+    public static final int MAX_ECHO_BYTES = 64 * 1024;
+    public static final int MAX_TRANSFER_BYTES = 64 * 1024 * 1024;
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /**
+     * 往返延迟分布，各次耗时（微秒）已从小到大排序
+     */
+    public static final class Rtt {
+        public final int payloadBytes;
+        public final long[] samplesUs;
+
+        Rtt(int payloadBytes, long[] samplesUs) {
+            this.payloadBytes = payloadBytes;
+            this.samplesUs = samplesUs;
+        }
+
+        /**
+         * 第 p 百分位（0-100，最近秩法）
+         */
+        public long percentileUs(double p) {
+            int rank = (int) Math.ceil(p / 100 * samplesUs.length);
+            return samplesUs[Math.max(0, Math.min(samplesUs.length - 1, rank - 1))];
+        }
+
+        public long minUs() {
+            return samplesUs[0];
+        }
+
+        public long maxUs() {
+            return samplesUs[samplesUs.length - 1];
+        }
+    }
+
+    /**
+     * 一次上传或下载，时间均为微秒
+     */
+    public static final class Transfer {
+        public final long bytes;
+        // 客户端测得的整个请求耗时，包括一次往返
+        public final long elapsedUs;
+        // 下载：收到响应长度字段的时刻，之前是往返延迟；上传为 -1
+        public final long firstByteUs;
+        // 上传：服务器从收到第一个字节到收完请求体的用时；下载为 -1
+        public final long serverUs;
+
+        Transfer(long bytes, long elapsedUs, long firstByteUs, long serverUs) {
+            this.bytes = bytes;
+            this.elapsedUs = elapsedUs;
+            this.firstByteUs = firstByteUs;
+            this.serverUs = serverUs;
+        }
+
+        public long elapsedMs() {
+            return elapsedUs / 1000;
+        }
+
+        /**
+         * 吞吐量（字节/秒）。下载扣除收到第一个字节之前的等待；
+         * 上传按整个请求计，与 App 记录真实上传的方式相同
+         */
+        public double bytesPerSecond() {
+            long us = firstByteUs > 0 ? elapsedUs - firstByteUs : elapsedUs;
+            return us > 0 ? bytes * 1e6 / us : 0;
+        }
+    }
+
+    /**
+     * 一轮完整诊断的结果
+     */
+    public static final class Report {
+        public final Rtt rtt;
+        public final Transfer upload;
+        public final Transfer download;
+
+        Report(Rtt rtt, Transfer upload, Transfer download) {
+            this.rtt = rtt;
+            this.upload = upload;
+            this.download = download;
+        }
+    }
+
+    private final Transport transport;
+    private final Random random = new Random();
+
+    public NetworkProbe(Transport transport) {
+        this.transport = transport;
+    }
+
+    public boolean isSupported() throws IOException {
+        return transport.supports(Commands.FEATURE_DIAG);
+    }
+
+    /**
+     * 依次测往返延迟（pings 次，每次 pingBytes 字节）、上传和下载（各 transferBytes 字节）
+     */
+    public Report run(int pings, int pingBytes, int transferBytes) throws IOException {
+        if (!isSupported()) throw new IOException("Server does not support network diagnostics");
+        Rtt rtt = rtt(pings, pingBytes);
+        return new Report(rtt, upload(transferBytes), download(transferBytes));
+    }
+
+    public Rtt rtt(int count, int payloadBytes) throws IOException {
+        byte[] data = randomBytes(Math.max(0, Math.min(MAX_ECHO_BYTES, payloadBytes)));
+        echo(data);
+        long[] samples = new long[Math.max(1, count)];
+        for (int i = 0; i < samples.length; i++) {
+            long start = System.nanoTime();
+            echo(data);
+            samples[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(samples);
+        return new Rtt(data.length, samples);
+    }
+
+    public Transfer upload(int bytes) throws IOException {
+        byte[] data = randomBytes(Math.max(0, Math.min(MAX_TRANSFER_BYTES, bytes)));
+        long start = System.nanoTime();
+        JSONObject ack = transport.exchange(Requests.sink(data), (in, encoding) -> Responses.readJson(in));
+        long elapsed = (System.nanoTime() - start) / 1000;
+        if (ack.optLong("bytes", -1) != data.length) {
+            throw new IOException("SINK received " + ack.optLong("bytes", -1) + " of " + data.length + " bytes");
+        }
+        double serverMs = ack.optDouble("recv_ms", -1);
+        return new Transfer(data.length, elapsed, -1, serverMs >= 0 ? (long) (serverMs * 1000) : -1);
+    }
+
+    public Transfer download(int bytes) throws IOException {
+        int size = Math.max(0, Math.min(MAX_TRANSFER_BYTES, bytes));
+        long start = System.nanoTime();
+        long firstByte = transport.exchange(Requests.source(size), (in, encoding) -> {
+            int len = in.readInt();
+            long arrived = System.nanoTime();
+            // SOURCE 的数据从不压缩，不论协商的编码
+            ContentEncoding.Body data = ContentEncoding.open(in, null);
+            try {
+                if (len != size) throw Responses.readError(data, len);
+                Responses.copyBody(data, len, DISCARD, null);
+            } finally {
+                data.close();
+            }
+            return arrived;
+        });
+        long end = System.nanoTime();
+        return new Transfer(size, (end - start) / 1000, (firstByte - start) / 1000, -1);
+    }
+
+    private void echo(byte[] data) throws IOException {
+        byte[] reply = transport.exchange(Requests.echo(data), (in, encoding) -> Responses.readBytes(in));
+        if (Arrays.equals(reply, data)) return;
+        String text = new String(reply, StandardCharsets.UTF_8);
+        if (text.startsWith("ERROR_")) throw new ServerErrorException(text);
+        throw new IOException("ECHO returned " + reply.length + " bytes that differ from the " + data.length + " sent");
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+}
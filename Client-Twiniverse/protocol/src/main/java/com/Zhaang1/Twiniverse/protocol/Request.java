@@ -0,0 +1,23 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+/**
+ * 一条待发送的请求：命令号和请求体。请求体可以重复发送，连接失效重试时直接重用
+ */
+public final class Request {
+
+    private final byte command;
+    private final RequestBody body;
+
+    public Request(byte command, RequestBody body) {
+        this.command = command;
+        this.body = body;
+    }
+
+    public byte command() {
+        return command;
+    }
+
+    public RequestBody body() {
+        return body;
+    }
+}
@@ -0,0 +1,229 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 请求体：由若干段（内存中的小块字节 / 磁盘文件）顺序拼接而成。
+ * 总长度在发送前即可由各段长度算出，写出时文件段通过 FileChannel.transferTo
+ * 由内核直接从磁盘送往 Socket，文件内容不会进入 Java 堆。
+ */
+public class RequestBody {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    // 单次 transferTo 的最大字节数，便于按块统计上传进度
+    private static final long TRANSFER_STEP = 256 * 1024;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private long length = 0;
+
+    public static RequestBody ofBytes(byte[] data) {
+        return new RequestBody().appendBytes(data);
+    }
+
+    public static RequestBody ofFile(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("Invalid file: " + file.getAbsolutePath());
+        }
+        return new RequestBody().appendFile(file);
+    }
+
+    /**
+     * 图片任务协议: [图片数量] + [Size1][Data1] + [Size2][Data2]...
+     */
+    public static RequestBody ofImages(List<File> images) throws IOException {
+        RequestBody body = new RequestBody().appendInt(images.size());
+        for (File img : images) {
+            long size = img.length();
+            if (!img.isFile() || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid image file: " + img.getAbsolutePath());
+            }
+            body.appendInt((int) size).appendFile(img);
+        }
+        return body;
+    }
+
+    public RequestBody appendInt(int value) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(4);
+        try {
+            new DataOutputStream(bos).writeInt(value);
+        } catch (IOException ignored) {
+            // ByteArrayOutputStream 不会抛出 IOException
+        }
+        return appendBytes(bos.toByteArray());
+    }
+
+    public RequestBody appendBytes(byte[] data) {
+        return append(new BytesSegment(data));
+    }
+
+    public RequestBody appendFile(File file) {
+        return append(new FileSegment(file, 0, file.length()));
+    }
+
+    public RequestBody appendBody(RequestBody other) {
+        for (Segment segment : other.segments) {
+            append(segment);
+        }
+        return this;
+    }
+
+    /**
+     * 截取 [offset, offset + count) 范围作为新的请求体，文件段只记录偏移，不复制数据。
+     * 断点续传时用它构造每个分块。
+     */
+    public RequestBody slice(long offset, long count) {
+        RequestBody result = new RequestBody();
+        long pos = 0;
+        for (Segment segment : segments) {
+            long segEnd = pos + segment.length();
+            long from = Math.max(offset, pos);
+            long to = Math.min(offset + count, segEnd);
+            if (from < to) {
+                result.append(segment.slice(from - pos, to - from));
+            }
+            pos = segEnd;
+        }
+        return result;
+    }
+
+    /**
+     * 流式计算整个请求体的 SHA-256（十六进制小写），用于上传会话的内容校验与断点识别。
+     */
+    public String sha256() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (DigestOutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+            writeTo(Channels.newChannel(out));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private RequestBody append(Segment segment) {
+        segments.add(segment);
+        length += segment.length();
+        return this;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * 依次把所有段写入通道（阻塞模式）。
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        writeTo(channel, null);
+    }
+
+    /**
+     * 同上，每写出一块就把字节数计入 meter（可为 null）
+     */
+    void writeTo(WritableByteChannel channel, TransferMeter meter) throws IOException {
+        for (Segment segment : segments) {
+            segment.writeTo(channel, meter);
+        }
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private interface Segment {
+        long length();
+
+        Segment slice(long offset, long count);
+
+        void writeTo(WritableByteChannel channel, TransferMeter meter) throws IOException;
+    }
+
+    private static class BytesSegment implements Segment {
+        private final byte[] data;
+
+        BytesSegment(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+
+        @Override
+        public Segment slice(long offset, long count) {
+            return new BytesSegment(Arrays.copyOfRange(data, (int) offset, (int) (offset + count)));
+        }
+
+        @Override
+        public void writeTo(WritableByteChannel channel, TransferMeter meter) throws IOException {
+            writeFully(channel, ByteBuffer.wrap(data));
+            if (meter != null) meter.add(data.length);
+        }
+    }
+
+    private static class FileSegment implements Segment {
+        private final File file;
+        private final long offset;
+        private final long length;
+
+        FileSegment(File file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public Segment slice(long offset, long count) {
+            return new FileSegment(file, this.offset + offset, count);
+        }
+
+        @Override
+        public void writeTo(WritableByteChannel channel, TransferMeter meter) throws IOException {
+            long position = offset;
+            long end = offset + length;
+            try (FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+                while (position < end) {
+                    long n = fileChannel.transferTo(position, Math.min(end - position, TRANSFER_STEP), channel);
+                    // transferTo 在文件末尾返回 0，说明文件在发送过程中被截断
+                    if (n <= 0 && position >= fileChannel.size()) break;
+                    position += n;
+                    if (meter != null) meter.add(n);
+                }
+            }
+            long remaining = end - position;
+            // 长度头已经发出，文件在发送过程中被改动会破坏整个协议帧
+            if (remaining != 0) {
+                throw new IOException("File changed during upload: " + file.getName());
+            }
+        }
+    }
+}
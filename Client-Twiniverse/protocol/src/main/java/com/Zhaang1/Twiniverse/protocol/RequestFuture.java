@@ -0,0 +1,82 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 可取消的网络请求结果。cancel() 会立即中止正在进行的交换并中断工作线程：
+ * 旧协议下关闭所用连接，多路复用时只重置对应的流，同一连接上的其他请求不受影响。
+ * 阻塞在读写上的请求马上失败返回，线程和带宽随之释放。
+ * 注意：thenApply 等派生出的 Future 被取消时不会传递到这里，需要保留并取消原始对象。
+ */
+public class RequestFuture<T> extends CompletableFuture<T> {
+
+    // 工作线程当前正在执行的请求，sendRequest 通过它登记正在进行的交换
+    private static final ThreadLocal<RequestFuture<?>> CURRENT = new ThreadLocal<>();
+
+    private volatile Future<?> task;
+    private volatile Exchange exchange;
+
+    public static <T> RequestFuture<T> submit(ExecutorService executor, Callable<T> work) {
+        RequestFuture<T> future = new RequestFuture<>();
+        try {
+            future.task = executor.submit(() -> {
+                // 排队期间已被取消
+                if (future.isDone()) return;
+                CURRENT.set(future);
+                try {
+                    future.complete(work.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    CURRENT.remove();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            Exchange current = exchange;
+            if (current != null) current.abort();
+            Future<?> t = task;
+            if (t != null) t.cancel(true);
+        }
+        return cancelled;
+    }
+
+    /**
+     * 登记当前线程的请求正在进行的交换；请求已被取消时中止交换并抛出异常
+     */
+    static void attach(Exchange current) throws InterruptedIOException {
+        RequestFuture<?> future = CURRENT.get();
+        if (future == null) return;
+        future.exchange = current;
+        if (future.isCancelled()) {
+            current.abort();
+            throw new InterruptedIOException("Request cancelled");
+        }
+    }
+
+    static void detach() {
+        RequestFuture<?> future = CURRENT.get();
+        if (future != null) future.exchange = null;
+    }
+
+    /**
+     * 当前线程的请求是否已被取消，已取消时不再重试
+     */
+    public static boolean isCurrentCancelled() {
+        RequestFuture<?> future = CURRENT.get();
+        return future != null && future.isCancelled();
+    }
+}
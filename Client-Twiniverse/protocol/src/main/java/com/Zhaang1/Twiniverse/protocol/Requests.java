@@ -0,0 +1,214 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 各命令的请求编码。只负责拼出请求体，不涉及连接和重试；
+ * 文件内容以 RequestBody 文件段引用，发送时由内核直接从磁盘读取。
+ */
+public final class Requests {
+
+    private Requests() {
+    }
+
+    /**
+     * LOGIN: {"u": 用户名, "p": 密码}
+     */
+    public static Request login(String username, String password) throws IOException {
+        try {
+            return json(Commands.LOGIN, new JSONObject().put("u", username).put("p", password));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * IMAGE: [图片数量] + [Size1][Data1] + [Size2][Data2]...，服务器收完后直接推理
+     */
+    public static Request images(List<File> images) throws IOException {
+        return new Request(Commands.IMAGE, RequestBody.ofImages(images));
+    }
+
+    /**
+     * VIDEO: 整个视频文件
+     */
+    public static Request video(File video) throws IOException {
+        return new Request(Commands.VIDEO, RequestBody.ofFile(video));
+    }
+
+    /**
+     * GET_GLB: 模型哈希
+     */
+    public static Request getGlb(String hash) {
+        return text(Commands.GET_GLB, hash);
+    }
+
+    /**
+     * GET_GLB_RANGE: [offset:8][length:4][hash]
+     */
+    public static Request getGlbRange(String hash, long offset, int length) {
+        byte[] hashBytes = hash.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(12 + hashBytes.length);
+        payload.putLong(offset).putInt(length).put(hashBytes);
+        return new Request(Commands.GET_GLB_RANGE, RequestBody.ofBytes(payload.array()));
+    }
+
+    /**
+     * GET_GLB_BATCH: ["hash", ...]
+     */
+    public static Request getGlbBatch(List<String> hashes) {
+        return array(Commands.GET_GLB_BATCH, hashes);
+    }
+
+    /**
+     * UPLOAD_OPEN: {"size": 总大小, "sha256": 内容哈希}
+     */
+    public static Request uploadOpen(long size, String sha256) throws IOException {
+        try {
+            return json(Commands.UPLOAD_OPEN, new JSONObject().put("size", size).put("sha256", sha256));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * UPLOAD_CHUNK: [offset:8][idLen:4][id][data]
+     */
+    public static Request uploadChunk(String uploadId, long offset, RequestBody chunk) {
+        byte[] idBytes = uploadId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(12 + idBytes.length);
+        header.putLong(offset).putInt(idBytes.length).put(idBytes);
+        return new Request(Commands.UPLOAD_CHUNK, new RequestBody().appendBytes(header.array()).appendBody(chunk));
+    }
+
+    /**
+     * UPLOAD_QUERY: 上传 ID
+     */
+    public static Request uploadQuery(String uploadId) {
+        return text(Commands.UPLOAD_QUERY, uploadId);
+    }
+
+    /**
+     * UPLOAD_COMMIT: {"id": 上传 ID, "kind": "image" / "video"}
+     */
+    public static Request uploadCommit(String uploadId, String kind) throws IOException {
+        try {
+            return json(Commands.UPLOAD_COMMIT, new JSONObject().put("id", uploadId).put("kind", kind));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * BLOB_QUERY: ["sha256", ...]
+     */
+    public static Request blobQuery(List<String> hashes) {
+        return array(Commands.BLOB_QUERY, hashes);
+    }
+
+    /**
+     * BLOB_PUT: [sha256:64][data]
+     */
+    public static Request blobPut(String sha256, File image) {
+        RequestBody body = new RequestBody()
+                .appendBytes(sha256.getBytes(StandardCharsets.UTF_8))
+                .appendFile(image);
+        return new Request(Commands.BLOB_PUT, body);
+    }
+
+    /**
+     * IMAGE_BY_HASH: {"images": ["sha256", ...]}，顺序即图片顺序
+     */
+    public static Request imageByHash(List<String> hashes) throws IOException {
+        try {
+            return json(Commands.IMAGE_BY_HASH, new JSONObject().put("images", new JSONArray(hashes)));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * JOB_SUBMIT: {"images": [...]} 或 {"upload": 上传 ID, "kind": ...}
+     */
+    public static Request jobSubmit(JSONObject job) {
+        return json(Commands.JOB_SUBMIT, job);
+    }
+
+    /**
+     * JOB_STATUS: {"id", "wait"}，附带已知的 state / position 时服务器在它们变化后立即返回。
+     * state 为 null 表示未知，position 为负数表示不附带
+     */
+    public static Request jobStatus(String jobId, int waitMs, String state, long position) throws IOException {
+        try {
+            JSONObject query = new JSONObject().put("id", jobId).put("wait", waitMs);
+            if (state != null) query.put("state", state);
+            if (position >= 0) query.put("position", position);
+            return json(Commands.JOB_STATUS, query);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * JOB_RESULT: 任务 ID
+     */
+    public static Request jobResult(String jobId) {
+        return text(Commands.JOB_RESULT, jobId);
+    }
+
+    /**
+     * LIST_GLB: {"cursor": 上一页返回的游标，首页为 0, "limit": 每页数量}
+     */
+    public static Request listGlb(long cursor, int limit) throws IOException {
+        try {
+            return json(Commands.LIST_GLB, new JSONObject().put("cursor", cursor).put("limit", limit));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * ECHO: 任意数据，服务器原样返回
+     */
+    public static Request echo(byte[] data) {
+        return new Request(Commands.ECHO, RequestBody.ofBytes(data));
+    }
+
+    /**
+     * SINK: 任意数据，服务器丢弃后返回 {"bytes": 收到的字节数, "recv_ms": 服务器收完请求体的用时}
+     */
+    public static Request sink(byte[] data) {
+        return new Request(Commands.SINK, RequestBody.ofBytes(data));
+    }
+
+    /**
+     * SOURCE: {"size": 字节数}，服务器返回这么多未压缩的随机数据
+     */
+    public static Request source(int size) throws IOException {
+        try {
+            return json(Commands.SOURCE, new JSONObject().put("size", size));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Request text(byte cmd, String value) {
+        return new Request(cmd, RequestBody.ofBytes(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Request array(byte cmd, List<String> values) {
+        return new Request(cmd, RequestBody.ofBytes(new JSONArray(values).toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Request json(byte cmd, JSONObject json) {
+        return new Request(cmd, RequestBody.ofBytes(json.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+}
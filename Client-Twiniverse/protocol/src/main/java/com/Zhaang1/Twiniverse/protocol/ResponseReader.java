@@ -0,0 +1,12 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * 响应读取回调：在连接归还前从输入流中解析出结果。
+ * encoding 为连接上协商到的压缩编码，携带模型数据的响应用 ContentEncoding 打开数据段
+ */
+public interface ResponseReader<T> {
+    T read(DataInputStream in, String encoding) throws IOException;
+}
@@ -0,0 +1,243 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 各类响应的流式解析。长度字段之后的模型数据按协商的编码用 ContentEncoding 打开，
+ * 再由 copyBody 边收边写出，内存只占用一块缓冲区，与模型大小无关。
+ * 服务器出错时数据段是很短的 ERROR_xxx 字符串，解析为 ServerErrorException。
+ */
+public final class Responses {
+
+    public static final int MAX_ERROR_LENGTH = 1024;
+    private static final int MAX_SMALL_RESPONSE = 1024 * 1024;
+    private static final int MAX_NAME_LENGTH = 1024;
+    private static final byte[] ERROR_PREFIX = "ERROR_".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 生成类响应（IMAGE / VIDEO / UPLOAD_COMMIT / IMAGE_BY_HASH / JOB_RESULT）的头部，
+     * 之后是 dataLength 字节的数据段
+     */
+    public static final class Named {
+        // 服务器给出的文件名，为空时是 null
+        public final String name;
+        public final int dataLength;
+
+        Named(String name, int dataLength) {
+            this.name = name;
+            this.dataLength = dataLength;
+        }
+    }
+
+    /**
+     * GET_GLB_RANGE 响应的头部；total 为 -1 时数据段是错误信息
+     */
+    public static final class Range {
+        public final long total;
+        public final int dataLength;
+
+        Range(long total, int dataLength) {
+            this.total = total;
+            this.dataLength = dataLength;
+        }
+    }
+
+    /**
+     * GET_GLB_BATCH 中一个模型的头部；ok 为 false 时数据段是错误信息
+     */
+    public static final class BatchEntry {
+        public final String hash;
+        public final boolean ok;
+        public final int dataLength;
+
+        BatchEntry(String hash, boolean ok, int dataLength) {
+            this.hash = hash;
+            this.ok = ok;
+            this.dataLength = dataLength;
+        }
+    }
+
+    private Responses() {
+    }
+
+    /**
+     * [DataLen][Data]，仅用于体积很小的响应
+     */
+    public static byte[] readBytes(DataInputStream in) throws IOException {
+        return readBytes(in, null);
+    }
+
+    /**
+     * 同上，收到的字节数计入 meter 的下载阶段
+     */
+    public static byte[] readBytes(DataInputStream in, TransferMeter meter) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > MAX_SMALL_RESPONSE) throw new IOException("Invalid response length");
+
+        if (meter != null) meter.begin(TransferListener.Phase.DOWNLOAD, len);
+        byte[] data = new byte[len];
+        in.readFully(data);
+        if (meter != null) meter.add(len);
+        return data;
+    }
+
+    /**
+     * [DataLen][JSON 对象]，ERROR_ 开头的响应转换为 ServerErrorException
+     */
+    public static JSONObject readJson(DataInputStream in) throws IOException {
+        String text = readText(in, null);
+        try {
+            return new JSONObject(text);
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON response", e);
+        }
+    }
+
+    /**
+     * [DataLen][JSON 数组]，例如 LOGIN 的 [登录成功, 是否 VIP]
+     */
+    public static JSONArray readJsonArray(DataInputStream in, TransferMeter meter) throws IOException {
+        String text = readText(in, meter);
+        try {
+            return new JSONArray(text);
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON response", e);
+        }
+    }
+
+    private static String readText(DataInputStream in, TransferMeter meter) throws IOException {
+        String text = new String(readBytes(in, meter), StandardCharsets.UTF_8);
+        if (text.startsWith("ERROR_")) throw new ServerErrorException(text);
+        return text;
+    }
+
+    /**
+     * [NameLen][Name][DataLen]，之后是数据段
+     */
+    public static Named readNamed(DataInputStream in) throws IOException {
+        int nameLen = in.readInt();
+        if (nameLen < 0 || nameLen > MAX_NAME_LENGTH) {
+            throw new IOException("Invalid filename length: " + nameLen);
+        }
+        String name = null;
+        if (nameLen > 0) {
+            byte[] nameBytes = new byte[nameLen];
+            in.readFully(nameBytes);
+            name = new String(nameBytes, StandardCharsets.UTF_8);
+        }
+        return new Named(name, in.readInt());
+    }
+
+    /**
+     * [DataLen][total:8]，之后是 DataLen - 8 字节的数据段。total 不压缩，数据段按协商的编码
+     */
+    public static Range readRange(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 8) throw new IOException("Invalid range response length: " + len);
+        return new Range(in.readLong(), len - 8);
+    }
+
+    /**
+     * GET_GLB_BATCH 的条目数。请求本身无效时服务器回复 -1 和 [DataLen][ERROR_xxx]，转换为异常
+     */
+    public static int readBatchCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) throw new ServerErrorException(new String(readBytes(in), StandardCharsets.UTF_8));
+        return count;
+    }
+
+    /**
+     * [hashLen:4][hash][status:1][DataLen:4]，之后是数据段
+     */
+    public static BatchEntry readBatchEntry(DataInputStream in) throws IOException {
+        int hashLen = in.readInt();
+        if (hashLen < 0 || hashLen > MAX_NAME_LENGTH) throw new IOException("Invalid hash length: " + hashLen);
+        byte[] hashBytes = new byte[hashLen];
+        in.readFully(hashBytes);
+        boolean ok = in.readByte() == 0;
+        return new BatchEntry(new String(hashBytes, StandardCharsets.UTF_8), ok, in.readInt());
+    }
+
+    /**
+     * 协商了 Commands.FEATURE_TIMING 时，生成类响应的数据段（包括错误信息）之后是服务器各阶段的耗时：
+     * [DataLen][{"stages": [{"name", "start_ms", "ms"}, ...]}]，见 StageTrace.addServerStages
+     */
+    public static JSONObject readTimingTrailer(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > MAX_SMALL_RESPONSE) throw new IOException("Invalid timing trailer length: " + len);
+        byte[] data = new byte[len];
+        in.readFully(data);
+        try {
+            return new JSONObject(new String(data, StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            throw new IOException("Invalid timing trailer", e);
+        }
+    }
+
+    /**
+     * 读完长度为 len 的错误数据段，返回对应的异常由调用方抛出或记录
+     */
+    public static ServerErrorException readError(ContentEncoding.Body data, int len) throws IOException {
+        if (len < 0 || len > MAX_ERROR_LENGTH) throw new IOException("Invalid error length: " + len);
+        byte[] message = new byte[len];
+        data.readFully(message);
+        data.finish();
+        return new ServerErrorException(new String(message, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 把长度为 len 的数据段写入 out，字节数计入 meter（可为 null），读完后连接停在下一条响应的开头
+     */
+    public static void copyBody(ContentEncoding.Body data, long len, OutputStream out, TransferMeter meter)
+            throws IOException {
+        copyRemaining(data, len, out, meter, new byte[RequestBody.BUFFER_SIZE]);
+    }
+
+    /**
+     * 同上，但只在第一块数据中检查 ERROR_ 前缀：数据是错误信息时抛出 ServerErrorException，不写入 out。
+     * 错误信息都很短，大文件直接跳过此检查
+     */
+    public static void copyBodyUnlessError(ContentEncoding.Body data, int len, OutputStream out,
+                                           TransferMeter meter) throws IOException {
+        byte[] buffer = new byte[RequestBody.BUFFER_SIZE];
+        int first = Math.min(len, buffer.length);
+        data.readFully(buffer, 0, first);
+        if (len < MAX_ERROR_LENGTH && startsWith(buffer, first, ERROR_PREFIX)) {
+            data.finish();
+            throw new ServerErrorException(new String(buffer, 0, first, StandardCharsets.UTF_8));
+        }
+        out.write(buffer, 0, first);
+        if (meter != null) meter.add(first);
+        copyRemaining(data, len - first, out, meter, buffer);
+    }
+
+    private static void copyRemaining(ContentEncoding.Body data, long remaining, OutputStream out,
+                                      TransferMeter meter, byte[] buffer) throws IOException {
+        while (remaining > 0) {
+            int n = data.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) {
+                throw new EOFException("Connection closed, " + remaining + " bytes missing");
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+            if (meter != null) meter.add(n);
+        }
+        data.finish();
+    }
+
+    private static boolean startsWith(byte[] data, int len, byte[] prefix) {
+        if (len < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
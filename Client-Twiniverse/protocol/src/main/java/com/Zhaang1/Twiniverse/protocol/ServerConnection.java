@@ -0,0 +1,258 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 与服务器之间的一条长连接。服务器端 handle_client 会在同一连接上循环处理多条命令，
+ * 因此登录、生成、下载都可以复用这条连接，省去每次请求的 TCP 握手。
+ * 旧协议 [cmd][len][body] 同一时刻只允许一个请求占用连接，由 ConnectionManager 负责加锁；
+ * 服务器支持时通过 HELLO 升级为多路复用协议（见 MuxSession），多个请求可以同时进行。
+ */
+public class ServerConnection {
+
+    private static final int PROTOCOL_VERSION = 2;
+    private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+
+    private final String name;
+    private final SocketChannel channel;
+    private final DataInputStream input;
+    private volatile MuxSession mux;
+    private volatile String contentEncoding;
+    private volatile Set<String> features = Collections.emptySet();
+
+    private volatile long lastUsedAt;
+    private long responseBytes;
+    private volatile boolean reused = false;
+
+    ServerConnection(String host, int port) throws IOException {
+        name = host + ":" + port;
+        channel = SocketChannel.open();
+        channel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        channel.socket().setKeepAlive(true);
+        channel.socket().setTcpNoDelay(true);
+        // 旧协议的读超时，每个请求按命令重新设置（见 writeRequest）
+        channel.socket().setSoTimeout(Commands.READ_TIMEOUT_MS);
+
+        // Channels.newInputStream 不受 SO_TIMEOUT 约束，读取必须经过 socket 自己的输入流
+        input = new DataInputStream(new BufferedInputStream(
+                new CountingInputStream(channel.socket().getInputStream()), RequestBody.BUFFER_SIZE));
+        lastUsedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 发送请求头 [cmd:1][len:4] 和请求体，文件段走 transferTo 零拷贝。
+     * 之后读取响应时超过 Commands.responseTimeoutMillis 收不到数据即抛出 SocketTimeoutException。
+     */
+    public void writeRequest(byte cmd, RequestBody body) throws IOException {
+        writeRequest(cmd, body, null);
+    }
+
+    /**
+     * 同上，请求体的发送字节数计入 uploadMeter（可为 null）
+     */
+    void writeRequest(byte cmd, RequestBody body, TransferMeter uploadMeter) throws IOException {
+        if (body.length() > Integer.MAX_VALUE) {
+            throw new IOException("Request body too large: " + body.length());
+        }
+        responseBytes = 0;
+        channel.socket().setSoTimeout(Commands.responseTimeoutMillis(cmd));
+
+        ByteBuffer header = ByteBuffer.allocate(5);
+        header.put(cmd).putInt((int) body.length()).flip();
+        RequestBody.writeFully(channel, header);
+
+        body.writeTo(channel, uploadMeter);
+    }
+
+    public DataInputStream input() {
+        return input;
+    }
+
+    /**
+     * 协商协议版本和响应压缩：发送 HELLO，服务器支持 v2 时切换为多路复用帧格式，
+     * 并从客户端声明的编码中选定一种（见 ContentEncoding），同时告知它支持的可选命令；
+     * 客户端请求的服务器阶段计时和多路复用流控也以可选功能的形式确认（Commands.FEATURE_TIMING / FEATURE_FLOW）。
+     * 旧服务器对未知命令回复 UNKNOWN_COMMAND，此时继续使用旧协议、不压缩、不用可选命令。
+     */
+    void negotiate() throws IOException {
+        JSONObject hello = new JSONObject();
+        try {
+            hello.put("v", PROTOCOL_VERSION);
+            hello.put("enc", new JSONArray(Arrays.asList(ContentEncoding.SUPPORTED)));
+            hello.put("timing", true);
+            hello.put("window", MuxSession.STREAM_WINDOW);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        writeRequest(Commands.HELLO, RequestBody.ofBytes(hello.toString().getBytes(StandardCharsets.UTF_8)));
+        int len = input.readInt();
+        if (len < 0 || len > 1024) throw new IOException("Invalid hello response length: " + len);
+        byte[] data = new byte[len];
+        input.readFully(data);
+
+        // 旧服务器回复 UNKNOWN_COMMAND 或空响应
+        if (len == 0 || data[0] != '{') return;
+        try {
+            JSONObject resp = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            String encoding = resp.optString("enc", null);
+            if (ContentEncoding.isSupported(encoding)) {
+                contentEncoding = encoding;
+            }
+            JSONArray announced = resp.optJSONArray("features");
+            if (announced != null) {
+                Set<String> set = new HashSet<>();
+                for (int i = 0; i < announced.length(); i++) {
+                    set.add(announced.getString(i));
+                }
+                features = set;
+            }
+            if (resp.optInt("v", 1) >= PROTOCOL_VERSION) {
+                // 读线程在空闲连接上一直等待下一帧，超时由各个流自己判断
+                channel.socket().setSoTimeout(0);
+                mux = new MuxSession(channel, input, name, features.contains(Commands.FEATURE_FLOW));
+            }
+        } catch (JSONException ignored) {
+        }
+    }
+
+    /**
+     * 协商到的响应压缩编码，未启用时为 null
+     */
+    String contentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * 服务器是否在 HELLO 中声明支持某个可选命令，例如 "glb_batch"
+     */
+    boolean supports(String feature) {
+        return features.contains(feature);
+    }
+
+    boolean isMultiplexed() {
+        return mux != null;
+    }
+
+    /**
+     * 开始一次请求：多路复用时新建一个流，否则独占整条连接
+     */
+    Exchange newExchange() {
+        MuxSession session = mux;
+        return session != null ? session.newStream() : new LegacyExchange();
+    }
+
+    boolean isReused() {
+        return reused;
+    }
+
+    long idleMillis() {
+        // 多路复用连接上仍有请求在进行时不算空闲
+        MuxSession session = mux;
+        if (session != null && session.activeStreams() > 0) return 0;
+        return System.currentTimeMillis() - lastUsedAt;
+    }
+
+    /**
+     * 健康检查：通道仍然连接，且没有残留的未读数据或已到达的 EOF。
+     * 空闲连接上本不应有任何数据，能读到字节或 -1 都说明连接已不可用。
+     */
+    boolean isHealthy() {
+        if (!channel.isOpen() || !channel.isConnected()) return false;
+        // 多路复用时读线程一直在读，连接断开会立即被它发现
+        MuxSession session = mux;
+        if (session != null) return session.isAlive();
+        try {
+            if (input.available() > 0) return false;
+            channel.configureBlocking(false);
+            try {
+                return channel.read(ByteBuffer.allocate(1)) == 0;
+            } finally {
+                channel.configureBlocking(true);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    void markUsed() {
+        lastUsedAt = System.currentTimeMillis();
+        reused = true;
+    }
+
+    public boolean isOpen() {
+        MuxSession session = mux;
+        return channel.isOpen() && (session == null || session.isAlive());
+    }
+
+    public void close() {
+        MuxSession session = mux;
+        if (session != null) session.close();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private class LegacyExchange implements Exchange {
+        @Override
+        public void send(byte cmd, RequestBody body, TransferMeter uploadMeter) throws IOException {
+            writeRequest(cmd, body, uploadMeter);
+        }
+
+        @Override
+        public DataInputStream input() {
+            return input;
+        }
+
+        @Override
+        public long responseBytes() {
+            return responseBytes;
+        }
+
+        @Override
+        public void complete() {
+        }
+
+        @Override
+        public void abort() {
+            // 旧协议下响应读到一半无法恢复帧边界，只能关闭连接
+            close();
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) responseBytes++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) responseBytes += n;
+            return n;
+        }
+    }
+}
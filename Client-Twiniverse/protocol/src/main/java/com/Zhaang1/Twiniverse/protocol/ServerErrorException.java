@@ -0,0 +1,22 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.io.IOException;
+
+/**
+ * 服务器明确返回了 ERROR_xxx 错误。与网络异常不同，这类错误重试也不会成功。
+ */
+public class ServerErrorException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String errorCode;
+
+    public ServerErrorException(String errorCode) {
+        super("Server Error: " + errorCode);
+        this.errorCode = errorCode;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+}
@@ -0,0 +1,87 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.io.IOException;
+
+/**
+ * 基于 ConnectionManager 长连接的传输层：使用同一 ConnectionManager 的 SocketTransport 共用连接和登录凭据。
+ * 复用的旧连接可能已被对端悄悄关闭，尚未收到任何响应时透明重连重试一次。
+ */
+public class SocketTransport implements Transport {
+
+    private final ConnectionManager connectionManager;
+    private final String host;
+    private final int port;
+
+    public SocketTransport(String host, int port) {
+        this(ConnectionManager.getInstance(), host, port);
+    }
+
+    public SocketTransport(ConnectionManager connectionManager, String host, int port) {
+        this.connectionManager = connectionManager;
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public <T> T exchange(Request request, TransferMeter uploadMeter, int lane, ResponseReader<T> reader)
+            throws IOException {
+        long progressBefore = uploadMeter != null ? uploadMeter.done() : 0;
+        for (int attempt = 0; ; attempt++) {
+            ServerConnection conn = connectionManager.acquire(host, port, lane);
+            Exchange exchange = conn.newExchange();
+            boolean broken = true;
+            boolean requestSent = false;
+            try {
+                // 异步请求被取消时由 RequestFuture 中止这次交换（旧协议下即关闭连接）
+                RequestFuture.attach(exchange);
+
+                // 1. 发送请求头和请求体
+                exchange.send(request.command(), request.body(), uploadMeter);
+                requestSent = true;
+
+                // 2. 读取响应
+                T result = reader.read(exchange.input(), conn.contentEncoding());
+                exchange.complete();
+                broken = false;
+                return result;
+            } catch (IOException e) {
+                // 请求没能完整发出时服务器不会处理它，任何命令都可以安全重发
+                boolean safeToResend = !requestSent || Commands.isIdempotent(request.command());
+                if (attempt == 0 && conn.isReused() && exchange.responseBytes() == 0 && safeToResend
+                        && !RequestFuture.isCurrentCancelled()) {
+                    if (uploadMeter != null) uploadMeter.set(progressBefore);
+                    continue;
+                }
+                throw e;
+            } finally {
+                RequestFuture.detach();
+                if (broken) exchange.abort();
+                connectionManager.release(host, port, lane, conn, broken);
+            }
+        }
+    }
+
+    /**
+     * 以主连接 HELLO 协商的结果为准
+     */
+    @Override
+    public boolean supports(String feature) throws IOException {
+        ServerConnection conn = connectionManager.acquire(host, port, 0);
+        connectionManager.release(host, port, 0, conn, false);
+        return conn.supports(feature);
+    }
+
+    /**
+     * 连接断开重建后，用 authenticator 在新连接上重新登录
+     */
+    public void setAuthenticator(ConnectionManager.Authenticator authenticator) {
+        connectionManager.setAuthenticator(host, port, authenticator);
+    }
+
+    /**
+     * 退出登录：丢弃保存的凭据并断开所有连接
+     */
+    public void reset() {
+        connectionManager.reset(host, port);
+    }
+}
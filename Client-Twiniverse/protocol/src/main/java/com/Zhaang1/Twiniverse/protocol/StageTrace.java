@@ -0,0 +1,227 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 一次生成任务的分阶段耗时。客户端阶段按单调时钟（System.nanoTime）记录起止，
+ * TransferMeter 的各阶段自动记入（见 TransferMeter.setTrace）；服务器阶段来自响应后的计时尾部
+ * （见 Responses.readTimingTrailer），以客户端开始等待服务器的时刻为起点排列。
+ * 同名阶段多次出现时（例如逐张压缩图片）合并为一段：起点取最早、终点取最晚，busyMs 累计实际耗时。
+ * 上传各路在不同线程上记录，方法加了锁。
+ * 每个客户端阶段结束时还对内存采样一次，任务的内存高水位见 memory()。
+ */
+public class StageTrace {
+
+    public static final String SOURCE_CLIENT = "client";
+    public static final String SOURCE_SERVER = "server";
+
+    // 不来自 TransferMeter 的客户端阶段
+    public static final String COMPRESS = "compress";
+    public static final String HASH = "hash";
+    public static final String SAVE = "save";
+    public static final String RENDER = "babylon_load";
+
+    /**
+     * 一个阶段，时间均为相对任务开始的毫秒数
+     */
+    public static final class Span {
+        public final String name;
+        public final String source;
+        public final long startMs;
+        public final long durationMs;
+        public final long busyMs;
+        public final int count;
+
+        Span(String name, String source, long startMs, long durationMs, long busyMs, int count) {
+            this.name = name;
+            this.source = source;
+            this.startMs = startMs;
+            this.durationMs = durationMs;
+            this.busyMs = busyMs;
+            this.count = count;
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final String source;
+        long start;
+        long end;
+        long busy;
+        int count;
+
+        Entry(String name, String source, long start, long end) {
+            this.name = name;
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final String kind;
+    private final long startedAt = System.currentTimeMillis();
+    private final long origin = System.nanoTime();
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final MemoryProbe memory = new MemoryProbe();
+    private String result;
+    private String error;
+    private long endNanos;
+
+    /**
+     * @param kind 任务类型，例如 "image" / "video"
+     */
+    public StageTrace(String kind) {
+        this.kind = kind;
+        memory.sample(MemoryProbe.START);
+    }
+
+    public String kind() {
+        return kind;
+    }
+
+    /**
+     * 任务开始时的墙上时间，仅用于显示
+     */
+    public long startedAt() {
+        return startedAt;
+    }
+
+    /**
+     * 记录一段客户端阶段，startNanos / endNanos 取自 System.nanoTime()
+     */
+    public void record(String name, long startNanos, long endNanos) {
+        add(name, SOURCE_CLIENT, startNanos, endNanos);
+        memory.sample(name);
+    }
+
+    /**
+     * 记录从 startNanos 到现在的客户端阶段
+     */
+    public void recordSince(String name, long startNanos) {
+        record(name, startNanos, System.nanoTime());
+    }
+
+    private synchronized void add(String name, String source, long start, long end) {
+        String key = source + ':' + name;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(name, source, start, end);
+            entries.put(key, entry);
+        } else {
+            entry.start = Math.min(entry.start, start);
+            entry.end = Math.max(entry.end, end);
+        }
+        entry.busy += end - start;
+        entry.count++;
+    }
+
+    /**
+     * 加入服务器计时尾部中的阶段 {"stages": [{"name", "start_ms", "ms"}, ...]}。
+     * 服务器的 start_ms 从它接受请求（任务方式为提交）时算起，两端时钟无法对齐，
+     * 这里以客户端最早的排队 / 等待服务器阶段的起点作为服务器的零点，误差约为半个往返
+     */
+    public synchronized void addServerStages(JSONObject trailer) {
+        JSONArray stages = trailer.optJSONArray("stages");
+        if (stages == null) return;
+        long anchor = serverAnchor();
+        for (int i = 0; i < stages.length(); i++) {
+            JSONObject stage = stages.optJSONObject(i);
+            if (stage == null) continue;
+            long start = anchor + stage.optLong("start_ms") * 1_000_000L;
+            add(stage.optString("name", "?"), SOURCE_SERVER, start, start + stage.optLong("ms") * 1_000_000L);
+        }
+    }
+
+    private long serverAnchor() {
+        long anchor = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            if (entry.source.equals(SOURCE_CLIENT) && (phaseName(TransferListener.Phase.QUEUED).equals(entry.name)
+                    || phaseName(TransferListener.Phase.SERVER_WAIT).equals(entry.name))) {
+                anchor = Math.min(anchor, entry.start);
+            }
+        }
+        return anchor != Long.MAX_VALUE ? anchor : System.nanoTime();
+    }
+
+    /**
+     * 任务结束：result 为生成的模型名，失败时 error 为错误信息
+     */
+    public synchronized void finish(String result, String error) {
+        this.result = result;
+        this.error = error;
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * 任务的内存高水位，各阶段结束时采样
+     */
+    public MemoryProbe memory() {
+        return memory;
+    }
+
+    public synchronized String result() {
+        return result;
+    }
+
+    public synchronized boolean hasStage(String name) {
+        return entries.containsKey(SOURCE_CLIENT + ':' + name);
+    }
+
+    /**
+     * 各阶段按起点排序
+     */
+    public synchronized List<Span> spans() {
+        List<Span> spans = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            spans.add(new Span(entry.name, entry.source, toMillis(entry.start), toMillis(entry.end) - toMillis(entry.start),
+                    entry.busy / 1_000_000L, entry.count));
+        }
+        spans.sort((a, b) -> Long.compare(a.startMs, b.startMs));
+        return spans;
+    }
+
+    /**
+     * 从开始到 finish 的总耗时，尚未结束时为 -1
+     */
+    public synchronized long totalMs() {
+        return endNanos != 0 ? toMillis(endNanos) : -1;
+    }
+
+    private long toMillis(long nanos) {
+        return (nanos - origin) / 1_000_000L;
+    }
+
+    static String phaseName(TransferListener.Phase phase) {
+        return phase.name().toLowerCase(Locale.ROOT);
+    }
+
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("kind", kind);
+        json.put("started_at", startedAt);
+        json.put("total_ms", totalMs());
+        if (result != null) json.put("result", result);
+        if (error != null) json.put("error", error);
+        JSONArray stages = new JSONArray();
+        for (Span span : spans()) {
+            stages.put(new JSONObject()
+                    .put("name", span.name)
+                    .put("source", span.source)
+                    .put("start_ms", span.startMs)
+                    .put("ms", span.durationMs)
+                    .put("busy_ms", span.busyMs)
+                    .put("count", span.count));
+        }
+        json.put("stages", stages);
+        json.put("memory", memory.toJson());
+        return json;
+    }
+}
@@ -0,0 +1,49 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.util.Locale;
+
+/**
+ * 传输进度回调。在 I/O 线程上调用，更新界面时需切回主线程。
+ */
+public interface TransferListener {
+
+    enum Phase {
+        UPLOAD,       // 请求体上传中
+        QUEUED,       // 任务已提交，在服务器队列中排队，bytesDone 为前面的任务数
+        SERVER_WAIT,  // 请求已发完，等待服务器处理（推理）
+        DOWNLOAD      // 正在接收模型文件
+    }
+
+    /**
+     * @param bytesDone      本阶段已完成字节数
+     * @param totalBytes     本阶段总字节数，未知时为 -1
+     * @param bytesPerSecond 平滑后的吞吐量估计（EWMA），尚无样本时为 0
+     */
+    void onProgress(Phase phase, long bytesDone, long totalBytes, double bytesPerSecond);
+
+    /**
+     * 生成对话框中显示的进度文字，例如 "上传中 45% · 1.2 MB/s"
+     */
+    static String describe(Phase phase, long bytesDone, long totalBytes, double bytesPerSecond) {
+        if (phase == Phase.SERVER_WAIT) {
+            return "服务器处理中";
+        }
+        if (phase == Phase.QUEUED) {
+            return bytesDone > 0 ? "排队中，前面还有 " + bytesDone + " 个任务" : "排队中";
+        }
+        StringBuilder sb = new StringBuilder(phase == Phase.UPLOAD ? "上传中" : "下载中");
+        if (totalBytes > 0) {
+            sb.append(' ').append(bytesDone * 100 / totalBytes).append('%');
+        }
+        if (bytesPerSecond > 0) {
+            sb.append(" · ").append(formatBytes(bytesPerSecond)).append("/s");
+        }
+        return sb.toString();
+    }
+
+    static String formatBytes(double bytes) {
+        if (bytes >= 1024 * 1024) return String.format(Locale.US, "%.1f MB", bytes / (1024 * 1024));
+        if (bytes >= 1024) return String.format(Locale.US, "%.0f KB", bytes / 1024);
+        return String.format(Locale.US, "%.0f B", bytes);
+    }
+}
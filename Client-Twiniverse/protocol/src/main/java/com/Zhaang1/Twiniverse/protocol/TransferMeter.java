@@ -0,0 +1,179 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.util.logging.Logger;
+
+/**
+ * 一次操作（登录 / 生成 / 下载）的进度统计：按阶段累计字节数，
+ * 用指数加权移动平均（EWMA）估计吞吐量，并节流回调 TransferListener。
+ * 每个阶段结束时把耗时和平均速度写入日志，设置了 StageTrace 时同时记入其中，便于分析时间花在哪里。
+ * 通常只在执行该操作的线程上使用；并行上传时每一路通过 lane() 取得自己的计数器，
+ * 字节数汇总到这里，因此计数方法加了锁。
+ */
+public class TransferMeter {
+
+    // java.util.logging 在 Android 上输出到 logcat，在 JVM 上输出到标准错误
+    private static final Logger LOG = Logger.getLogger("TransferMeter");
+
+    // 回调最短间隔，避免界面刷新过于频繁
+    private static final long REPORT_INTERVAL_MS = 100;
+    // 吞吐量采样间隔与平滑系数
+    private static final long SAMPLE_INTERVAL_MS = 250;
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final String operation;
+    private final TransferListener listener;
+    // 非 null 时本对象是 parent 的一路，只记录本路字节数并转发给 parent
+    private final TransferMeter parent;
+
+    private StageTrace trace;
+
+    private TransferListener.Phase phase;
+    private long done;
+    private long total = -1;
+    private long phaseStart;
+    private long phaseStartNanos;
+
+    private long sampleTime;
+    private long sampleBytes;
+    private double rate;
+    private long lastReport;
+
+    public TransferMeter(String operation, TransferListener listener) {
+        this(operation, listener, null);
+    }
+
+    private TransferMeter(String operation, TransferListener listener, TransferMeter parent) {
+        this.operation = operation;
+        this.listener = listener;
+        this.parent = parent;
+    }
+
+    /**
+     * 并行传输中的一路：add / set 作用于本路的计数并同步到当前阶段，重试回退不会影响其他路
+     */
+    public TransferMeter lane() {
+        return new TransferMeter(operation, null, this);
+    }
+
+    /**
+     * 各阶段的起止同时记入 trace（可为 null）
+     */
+    public void setTrace(StageTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * 并行上传的各路返回所属操作的 trace
+     */
+    public StageTrace trace() {
+        return parent != null ? parent.trace() : trace;
+    }
+
+    /**
+     * 把从 startNanos（System.nanoTime）到现在记为阶段 name，用于传输以外的耗时，例如压缩和落盘。
+     * 没有设置 trace 时忽略
+     */
+    public void mark(String name, long startNanos) {
+        StageTrace target = trace();
+        if (target != null) target.recordSince(name, startNanos);
+    }
+
+    /**
+     * 进入新阶段，已完成字节数从 0 开始
+     */
+    public void begin(TransferListener.Phase newPhase, long totalBytes) {
+        endPhase();
+        long now = System.currentTimeMillis();
+        phase = newPhase;
+        done = 0;
+        total = totalBytes;
+        phaseStart = now;
+        phaseStartNanos = System.nanoTime();
+        sampleTime = now;
+        sampleBytes = 0;
+        rate = 0;
+        report(true);
+    }
+
+    public TransferListener.Phase phase() {
+        return phase;
+    }
+
+    public synchronized long done() {
+        return done;
+    }
+
+    public synchronized void setTotal(long totalBytes) {
+        total = totalBytes;
+    }
+
+    /**
+     * 设置绝对进度，例如断点续传从服务器确认的偏移继续，或重试时回退
+     */
+    public synchronized void set(long bytesDone) {
+        if (parent != null) {
+            parent.shift(bytesDone - done);
+            done = bytesDone;
+            return;
+        }
+        done = bytesDone;
+        // 跳变不计入吞吐量采样
+        sampleBytes = bytesDone;
+        report(false);
+    }
+
+    public synchronized void add(long bytes) {
+        if (bytes <= 0) return;
+        if (parent != null) {
+            done += bytes;
+            parent.add(bytes);
+            return;
+        }
+        done += bytes;
+        long now = System.currentTimeMillis();
+        long elapsed = now - sampleTime;
+        if (elapsed >= SAMPLE_INTERVAL_MS) {
+            double sample = (done - sampleBytes) * 1000.0 / elapsed;
+            rate = rate == 0 ? sample : EWMA_ALPHA * sample + (1 - EWMA_ALPHA) * rate;
+            sampleTime = now;
+            sampleBytes = done;
+        }
+        report(false);
+    }
+
+    private synchronized void shift(long delta) {
+        done += delta;
+        sampleBytes += delta;
+        report(false);
+    }
+
+    /**
+     * 操作结束（成功或失败），记录最后一个阶段
+     */
+    public void finish() {
+        endPhase();
+        phase = null;
+    }
+
+    private void endPhase() {
+        if (phase == null) return;
+        long elapsed = Math.max(1, System.currentTimeMillis() - phaseStart);
+        if (trace != null) trace.recordSince(StageTrace.phaseName(phase), phaseStartNanos);
+        report(true);
+        if (phase == TransferListener.Phase.SERVER_WAIT || phase == TransferListener.Phase.QUEUED) {
+            LOG.info(operation + " " + phase + ": " + elapsed + " ms");
+        } else {
+            LOG.info(operation + " " + phase + ": " + done + " bytes in " + elapsed + " ms, "
+                    + TransferListener.formatBytes(done * 1000.0 / elapsed) + "/s");
+        }
+    }
+
+    private void report(boolean force) {
+        if (listener == null) return;
+        long now = System.currentTimeMillis();
+        if (!force && now - lastReport < REPORT_INTERVAL_MS) return;
+        lastReport = now;
+        long shown = total >= 0 ? Math.min(done, total) : done;
+        listener.onProgress(phase, shown, total, rate);
+    }
+}
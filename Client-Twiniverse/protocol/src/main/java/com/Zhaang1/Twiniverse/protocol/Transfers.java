@@ -0,0 +1,204 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 多条命令组成的传输流程：分块上传、分段下载、任务长轮询。App（CommunicationManager）和
+ * 压测工具（loadgen）共用这些流程，两边发出的请求序列和分块参数始终一致。
+ * 网络错误是否重试由调用方的 RetryPolicy 决定；meter 均可为 null。
+ */
+public class Transfers {
+
+    // 分块上传：每块 1MB
+    public static final int UPLOAD_CHUNK_SIZE = 1024 * 1024;
+    // 分段下载：每次请求 4MB（服务器上限 8MB）
+    public static final int DOWNLOAD_RANGE_SIZE = 4 * 1024 * 1024;
+    // 任务长轮询：每次最多等待 25 秒（服务器上限 30 秒）
+    public static final int JOB_POLL_WAIT_MS = 25 * 1000;
+
+    public static final String JOB_QUEUED = "queued";
+    public static final String JOB_DONE = "done";
+    public static final String JOB_FAILED = "failed";
+
+    /**
+     * 网络错误后的处理：可以退避等待后返回（重试），不再重试时抛出 e
+     */
+    public interface RetryPolicy {
+        void beforeRetry(int failures, IOException e) throws IOException;
+    }
+
+    public static final RetryPolicy NO_RETRY = (failures, e) -> {
+        throw e;
+    };
+
+    /**
+     * 一次完成的分块上传
+     */
+    public static final class Upload {
+        public final String id;
+        // OPEN 时服务器已提交的字节数，断点续传跳过了这一部分
+        public final long resumedFrom;
+
+        Upload(String id, long resumedFrom) {
+            this.id = id;
+            this.resumedFrom = resumedFrom;
+        }
+    }
+
+    private final Transport transport;
+
+    public Transfers(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * 分块上传会话：
+     * OPEN(总大小, SHA-256) -> 服务器已提交的偏移；CHUNK(偏移, 数据) -> 新的已提交偏移；
+     * 中断后通过 QUERY 取回已提交偏移，只补传缺失的尾部。
+     * 会话以内容哈希为 ID，App 被杀后重新上传同一文件也会从断点继续。
+     */
+    public Upload upload(RequestBody body, String sha256, TransferMeter meter, RetryPolicy retry) throws IOException {
+        JSONObject session = readJson(Requests.uploadOpen(body.length(), sha256), null);
+        String uploadId = getString(session, "id");
+        long offset = getLong(session, "offset");
+        long resumedFrom = offset;
+        int failures = 0;
+
+        if (meter != null) meter.begin(TransferListener.Phase.UPLOAD, body.length());
+        while (offset < body.length()) {
+            try {
+                if (offset < 0) {
+                    offset = getLong(readJson(Requests.uploadQuery(uploadId), null), "offset");
+                    continue;
+                }
+                // 以服务器确认的偏移为准，断点续传时进度直接从已提交部分开始
+                if (meter != null) meter.set(offset);
+                long count = Math.min(UPLOAD_CHUNK_SIZE, body.length() - offset);
+                Request chunk = Requests.uploadChunk(uploadId, offset, body.slice(offset, count));
+                offset = getLong(readJson(chunk, meter), "offset");
+                failures = 0;
+            } catch (IOException e) {
+                retry.beforeRetry(++failures, e);
+                // 断线后不确定服务器收到了多少，先询问已提交偏移
+                offset = -1;
+            }
+        }
+        if (meter != null) meter.set(body.length());
+        return new Upload(uploadId, resumedFrom);
+    }
+
+    /**
+     * JOB_SUBMIT: 立即返回任务状态 {"id", "state", ...}
+     */
+    public JSONObject submitJob(JSONObject job) throws IOException {
+        return readJson(Requests.jobSubmit(job), null);
+    }
+
+    /**
+     * JOB_STATUS 长轮询直到任务结束（成功或失败）。status 为已知的最新状态，可为 null。
+     * 排队时 meter 处于 QUEUED 阶段、进度为前面的任务数，开始推理后进入 SERVER_WAIT
+     */
+    public void waitForJob(String jobId, JSONObject status, TransferMeter meter, RetryPolicy retry)
+            throws IOException {
+        TransferListener.Phase phase = null;
+        int failures = 0;
+        while (true) {
+            String state = null;
+            long position = -1;
+            if (status != null) {
+                state = getString(status, "state");
+                position = status.optLong("position", -1);
+                if (JOB_DONE.equals(state) || JOB_FAILED.equals(state)) return;
+
+                TransferListener.Phase current = JOB_QUEUED.equals(state)
+                        ? TransferListener.Phase.QUEUED : TransferListener.Phase.SERVER_WAIT;
+                if (meter != null) {
+                    if (current != phase) meter.begin(current, -1);
+                    if (current == TransferListener.Phase.QUEUED) meter.set(Math.max(0, position));
+                }
+                phase = current;
+            }
+            // 带上已知状态，服务器在状态或排队位置变化时立即返回，否则最多等待 JOB_POLL_WAIT_MS
+            try {
+                status = readJson(Requests.jobStatus(jobId, JOB_POLL_WAIT_MS, state, position), null);
+                failures = 0;
+            } catch (IOException e) {
+                retry.beforeRetry(++failures, e);
+                status = null;
+            }
+        }
+    }
+
+    /**
+     * JOB_RESULT: 响应格式与 CMD_IMAGE 相同，任务失败时数据是 ERROR_xxx
+     */
+    public <T> T fetchJobResult(String jobId, ResponseReader<T> reader, RetryPolicy retry) throws IOException {
+        Request request = Requests.jobResult(jobId);
+        int failures = 0;
+        while (true) {
+            try {
+                return transport.exchange(request, reader);
+            } catch (IOException e) {
+                retry.beforeRetry(++failures, e);
+            }
+        }
+    }
+
+    /**
+     * 从 offset 起按 DOWNLOAD_RANGE_SIZE 分段下载模型直到文件末尾，数据依次写入 out，返回文件总大小。
+     * 中途失败时已写入 out 的数据保持完整，调用方可以从新的偏移继续；
+     * offset 超过总大小时不写入任何数据，由调用方发现不一致
+     */
+    public long downloadGlb(String hash, long offset, OutputStream out, TransferMeter meter) throws IOException {
+        while (true) {
+            Responses.Range range = downloadRange(hash, offset, out, meter);
+            offset += range.dataLength;
+            if (offset >= range.total) return range.total;
+            if (range.dataLength == 0) throw new IOException("Empty range at " + offset);
+        }
+    }
+
+    /**
+     * GET_GLB_RANGE: 请求 [offset:8][length:4][hash]，响应 [DataLen][total:8][data]。
+     * total 为 -1 时 data 是 ERROR_xxx 错误信息
+     */
+    private Responses.Range downloadRange(String hash, long offset, OutputStream out, TransferMeter meter)
+            throws IOException {
+        return transport.exchange(Requests.getGlbRange(hash, offset, DOWNLOAD_RANGE_SIZE), (in, encoding) -> {
+            Responses.Range range = Responses.readRange(in);
+            ContentEncoding.Body data = ContentEncoding.open(in, encoding);
+            try {
+                if (range.total < 0) throw Responses.readError(data, range.dataLength);
+                if (meter != null) meter.setTotal(range.total);
+                Responses.copyBody(data, range.dataLength, out, meter);
+            } finally {
+                data.close();
+            }
+            return range;
+        });
+    }
+
+    private JSONObject readJson(Request request, TransferMeter uploadMeter) throws IOException {
+        return transport.exchange(request, uploadMeter, 0, (in, encoding) -> Responses.readJson(in));
+    }
+
+    private static String getString(JSONObject json, String key) throws IOException {
+        try {
+            return json.getString(key);
+        } catch (JSONException e) {
+            throw new IOException("Invalid response: " + json, e);
+        }
+    }
+
+    private static long getLong(JSONObject json, String key) throws IOException {
+        try {
+            return json.getLong(key);
+        } catch (JSONException e) {
+            throw new IOException("Invalid response: " + json, e);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import java.io.IOException;
+
+/**
+ * 一次请求-响应交换的传输层。实现负责连接的建立、复用和失效重试，
+ * 调用方只需给出编码好的请求（见 Requests）和响应的解析方式（见 Responses）。
+ * 不依赖 Android，可以在 JVM 上直接连接服务器做测试或压测。
+ */
+public interface Transport {
+
+    /**
+     * 发送请求并用 reader 解析响应。uploadMeter 不为 null 时请求体的发送字节数计入其当前阶段；
+     * lane 指定使用哪条连接，并行上传的各路各用一条（见 ConnectionManager）
+     */
+    <T> T exchange(Request request, TransferMeter uploadMeter, int lane, ResponseReader<T> reader)
+            throws IOException;
+
+    default <T> T exchange(Request request, ResponseReader<T> reader) throws IOException {
+        return exchange(request, null, 0, reader);
+    }
+
+    /**
+     * 服务器是否支持某个可选命令（见 Commands.FEATURE_*）
+     */
+    boolean supports(String feature) throws IOException;
+}
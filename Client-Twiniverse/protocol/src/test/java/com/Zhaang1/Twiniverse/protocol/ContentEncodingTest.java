@@ -0,0 +1,159 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * deflate 分块: [chunkLen:4][chunk]...[0:4]，读完数据并 finish() 后连接停在下一条响应的开头
+ */
+public class ContentEncodingTest {
+
+    // 紧跟在数据段之后的下一条响应
+    private static final int NEXT = 0x7E57AB1E;
+
+    @Test
+    public void deflateRoundTripAcrossChunks() throws Exception {
+        byte[] data = sample(300 * 1024);
+        DataInputStream in = stream(deflateChunks(data, 1000), NEXT);
+
+        ContentEncoding.Body body = ContentEncoding.open(in, ContentEncoding.DEFLATE);
+        byte[] decoded = new byte[data.length];
+        body.readFully(decoded);
+        body.finish();
+        body.close();
+
+        assertArrayEquals(data, decoded);
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test
+    public void finishConsumesTrailerAfterExactRead() throws Exception {
+        // 数据全在第一块，zlib 校验和单独成块，读够长度后结尾和结束标记都还没有被读到
+        byte[] data = sample(4096);
+        byte[] compressed = deflate(data);
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(framed);
+        out.writeInt(compressed.length - 4);
+        out.write(compressed, 0, compressed.length - 4);
+        out.writeInt(4);
+        out.write(compressed, compressed.length - 4, 4);
+        out.writeInt(0);
+        DataInputStream in = stream(framed.toByteArray(), NEXT);
+
+        ContentEncoding.Body body = ContentEncoding.open(in, ContentEncoding.DEFLATE);
+        byte[] decoded = new byte[data.length];
+        body.readFully(decoded);
+        body.finish();
+
+        assertArrayEquals(data, decoded);
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test
+    public void finishRejectsDataLongerThanDeclared() throws Exception {
+        byte[] data = sample(2048);
+        ContentEncoding.Body body = ContentEncoding.open(stream(deflateChunks(data, 512), NEXT),
+                ContentEncoding.DEFLATE);
+        body.readFully(new byte[1024]);
+        try {
+            body.finish();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Encoded data longer than declared", e.getMessage());
+        }
+    }
+
+    @Test
+    public void identityLeavesConnectionOpen() throws Exception {
+        byte[] data = sample(100);
+        DataInputStream in = stream(data, NEXT);
+
+        ContentEncoding.Body body = ContentEncoding.open(in, null);
+        byte[] decoded = new byte[data.length];
+        body.readFully(decoded);
+        body.finish();
+        body.close();
+
+        assertArrayEquals(data, decoded);
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidChunkLength() throws Exception {
+        ContentEncoding.Body body = ContentEncoding.open(stream(new byte[0], -5), ContentEncoding.DEFLATE);
+        body.read();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownEncoding() throws Exception {
+        ContentEncoding.open(stream(new byte[0], NEXT), "br");
+    }
+
+    @Test
+    public void negotiatesOnlySupportedEncodings() {
+        assertTrue(ContentEncoding.isSupported(ContentEncoding.DEFLATE));
+        assertFalse(ContentEncoding.isSupported("gzip"));
+    }
+
+    /**
+     * 与服务器相同的分块方式：整段数据是一个 zlib 流，按 chunkSize 切块后以 0 结尾
+     */
+    static byte[] deflateChunks(byte[] data, int chunkSize) throws IOException {
+        byte[] compressed = deflate(data);
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(framed);
+        for (int off = 0; off < compressed.length; off += chunkSize) {
+            int n = Math.min(chunkSize, compressed.length - off);
+            out.writeInt(n);
+            out.write(compressed, off, n);
+        }
+        out.writeInt(0);
+        return framed.toByteArray();
+    }
+
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * 可压缩但不全是重复内容的数据
+     */
+    static byte[] sample(int size) {
+        byte[] data = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i % 64 < 48 ? i / 64 : random.nextInt());
+        }
+        return data;
+    }
+
+    private static DataInputStream stream(byte[] body, int next) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(body);
+        out.writeInt(next);
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
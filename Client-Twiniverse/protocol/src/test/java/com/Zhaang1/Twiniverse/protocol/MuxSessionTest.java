@@ -0,0 +1,362 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 本机 socket 对上的多路复用会话：测试线程充当服务器，按帧格式收发
+ */
+public class MuxSessionTest {
+
+    private ServerSocket listener;
+    private SocketChannel channel;
+    private Socket server;
+    private DataInputStream serverIn;
+    private DataOutputStream serverOut;
+    private MuxSession session;
+
+    /**
+     * 服务器收到的一帧
+     */
+    private static final class Frame {
+        final byte type;
+        final int streamId;
+        final byte[] payload;
+
+        Frame(byte type, int streamId, byte[] payload) {
+            this.type = type;
+            this.streamId = streamId;
+            this.payload = payload;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        listener = new ServerSocket(0, 1, loopback);
+        channel = SocketChannel.open(new InetSocketAddress(loopback, listener.getLocalPort()));
+        server = listener.accept();
+        // 服务器一侧等不到预期的帧时让测试失败，而不是一直挂起
+        server.setSoTimeout(5000);
+        serverIn = new DataInputStream(new BufferedInputStream(server.getInputStream()));
+        serverOut = new DataOutputStream(server.getOutputStream());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (session != null) session.close();
+        channel.close();
+        server.close();
+        listener.close();
+    }
+
+    @Test(timeout = 10000)
+    public void interleavedResponsesReachTheirStreams() throws Exception {
+        open(false);
+        byte[] requestA = {1, 2, 3};
+        byte[] requestB = ContentEncodingTest.sample(MuxSession.MAX_FRAME_PAYLOAD + 100);
+        Exchange a = session.newStream();
+        Exchange b = session.newStream();
+        a.send(Commands.ECHO, RequestBody.ofBytes(requestA), null);
+        b.send(Commands.ECHO, RequestBody.ofBytes(requestB), null);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int idA = readRequest(Commands.ECHO, body);
+        assertArrayEquals(requestA, body.toByteArray());
+        body.reset();
+        int idB = readRequest(Commands.ECHO, body);
+        assertArrayEquals(requestB, body.toByteArray());
+
+        // 两个响应按 16KB 交替发送，B 先结束
+        byte[] responseA = ContentEncodingTest.sample(200 * 1024);
+        byte[] responseB = ContentEncodingTest.sample(50 * 1024);
+        byte[] framedA = lengthPrefixed(responseA);
+        byte[] framedB = lengthPrefixed(responseB);
+        int step = 16 * 1024;
+        for (int off = 0; off < Math.max(framedA.length, framedB.length); off += step) {
+            if (off < framedA.length) writeData(idA, framedA, off, Math.min(step, framedA.length - off));
+            if (off < framedB.length) writeData(idB, framedB, off, Math.min(step, framedB.length - off));
+            if (off + step >= framedB.length && off < framedB.length) writeFrame(MuxSession.FRAME_END, idB, null);
+        }
+        writeFrame(MuxSession.FRAME_END, idA, null);
+
+        // 先读后开始的流，另一个流的数据在缓冲中等待
+        assertArrayEquals(responseB, Responses.readBytes(b.input()));
+        assertEquals(-1, b.input().read());
+        b.complete();
+        assertArrayEquals(responseA, Responses.readBytes(a.input()));
+        assertEquals(-1, a.input().read());
+        a.complete();
+
+        assertEquals(0, session.activeStreams());
+        assertTrue(session.isAlive());
+    }
+
+    @Test(timeout = 10000)
+    public void serverResetFailsOnlyThatStream() throws Exception {
+        open(false);
+        Exchange a = session.newStream();
+        Exchange b = session.newStream();
+        a.send(Commands.GET_GLB, RequestBody.ofBytes(new byte[]{'x'}), null);
+        b.send(Commands.ECHO, RequestBody.ofBytes(new byte[]{'y'}), null);
+        int idA = readRequest(Commands.GET_GLB, new ByteArrayOutputStream());
+        int idB = readRequest(Commands.ECHO, new ByteArrayOutputStream());
+
+        byte[] partial = lengthPrefixed(new byte[100]);
+        writeData(idA, partial, 0, 10);
+        writeFrame(MuxSession.FRAME_RESET, idA, null);
+        byte[] echo = lengthPrefixed(new byte[]{'y'});
+        writeData(idB, echo, 0, echo.length);
+        writeFrame(MuxSession.FRAME_END, idB, null);
+
+        try {
+            a.input().readFully(new byte[partial.length]);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Stream reset by server", e.getMessage());
+        }
+        assertArrayEquals(new byte[]{'y'}, Responses.readBytes(b.input()));
+        b.complete();
+        assertTrue(session.isAlive());
+    }
+
+    @Test(timeout = 10000)
+    public void abortSendsResetAndDropsLateFrames() throws Exception {
+        open(false);
+        Exchange a = session.newStream();
+        a.send(Commands.IMAGE, RequestBody.ofBytes(new byte[]{0, 0, 0, 0}), null);
+        int idA = readRequest(Commands.IMAGE, new ByteArrayOutputStream());
+
+        a.abort();
+        Frame reset = readFrame();
+        assertEquals(MuxSession.FRAME_RESET, reset.type);
+        assertEquals(idA, reset.streamId);
+
+        // 服务器在收到 RESET 之前发出的帧被丢弃，不影响之后的流
+        writeData(idA, new byte[8], 0, 8);
+        writeFrame(MuxSession.FRAME_END, idA, null);
+        Exchange b = session.newStream();
+        b.send(Commands.ECHO, RequestBody.ofBytes(new byte[]{'z'}), null);
+        int idB = readRequest(Commands.ECHO, new ByteArrayOutputStream());
+        byte[] echo = lengthPrefixed(new byte[]{'z'});
+        writeData(idB, echo, 0, echo.length);
+        writeFrame(MuxSession.FRAME_END, idB, null);
+
+        assertArrayEquals(new byte[]{'z'}, Responses.readBytes(b.input()));
+        b.complete();
+        assertEquals(0, session.activeStreams());
+    }
+
+    @Test(timeout = 10000)
+    public void consumerReturnsWindowAfterQuarter() throws Exception {
+        open(true);
+        Exchange a = session.newStream();
+        a.send(Commands.SOURCE, RequestBody.ofBytes(new byte[]{'{', '}'}), null);
+        int idA = readRequest(Commands.SOURCE, new ByteArrayOutputStream());
+
+        // 正好用完初始窗口
+        byte[] response = ContentEncodingTest.sample(MuxSession.STREAM_WINDOW);
+        writeAll(idA, response);
+        a.input().readFully(new byte[MuxSession.STREAM_WINDOW / 4]);
+
+        Frame window = readFrame();
+        assertEquals(MuxSession.FRAME_WINDOW, window.type);
+        assertEquals(idA, window.streamId);
+        assertEquals(MuxSession.STREAM_WINDOW / 4, ByteBuffer.wrap(window.payload).getInt());
+        a.abort();
+    }
+
+    @Test(timeout = 10000)
+    public void exceedingWindowResetsStream() throws Exception {
+        open(true);
+        Exchange a = session.newStream();
+        a.send(Commands.SOURCE, RequestBody.ofBytes(new byte[]{'{', '}'}), null);
+        int idA = readRequest(Commands.SOURCE, new ByteArrayOutputStream());
+
+        byte[] response = ContentEncodingTest.sample(MuxSession.STREAM_WINDOW + 1);
+        writeAll(idA, response);
+        Frame reset = readFrame();
+        assertEquals(MuxSession.FRAME_RESET, reset.type);
+        assertEquals(idA, reset.streamId);
+
+        // 已缓冲的窗口内数据仍可读完，之后报告溢出
+        byte[] buffered = new byte[MuxSession.STREAM_WINDOW];
+        a.input().readFully(buffered);
+        assertArrayEquals(Arrays.copyOf(response, buffered.length), buffered);
+        try {
+            a.input().read();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Stream receive buffer overflow", e.getMessage());
+        }
+        assertTrue(session.isAlive());
+    }
+
+    @Test(timeout = 10000)
+    public void connectionLossFailsAllStreams() throws Exception {
+        open(false);
+        Exchange a = session.newStream();
+        Exchange b = session.newStream();
+        a.send(Commands.ECHO, RequestBody.ofBytes(new byte[]{1}), null);
+        b.send(Commands.ECHO, RequestBody.ofBytes(new byte[]{2}), null);
+        readRequest(Commands.ECHO, new ByteArrayOutputStream());
+        readRequest(Commands.ECHO, new ByteArrayOutputStream());
+        server.close();
+
+        for (Exchange exchange : new Exchange[]{a, b}) {
+            try {
+                exchange.input().readInt();
+                fail("Expected IOException");
+            } catch (IOException expected) {
+                // 读线程发现连接断开后唤醒所有等待中的流
+            }
+        }
+        assertFalse(session.isAlive());
+    }
+
+    @Test(timeout = 10000)
+    public void silentConnectionClosesSession() throws Exception {
+        open(false);
+        Exchange a = session.newStream(300);
+        a.send(Commands.ECHO, RequestBody.ofBytes(new byte[]{1}), null);
+        readRequest(Commands.ECHO, new ByteArrayOutputStream());
+
+        // 服务器收下请求后一帧都不再发送
+        try {
+            a.input().readInt();
+            fail("Expected SocketTimeoutException");
+        } catch (SocketTimeoutException expected) {
+        }
+        assertFalse(session.isAlive());
+        try {
+            session.newStream().send(Commands.ECHO, RequestBody.ofBytes(new byte[]{2}), null);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // 失效的会话不再接受新的请求
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void otherStreamUploadDoesNotDelayTimeout() throws Exception {
+        open(false);
+        Exchange a = session.newStream(300);
+        a.send(Commands.ECHO, RequestBody.ofBytes(new byte[]{1}), null);
+        readRequest(Commands.ECHO, new ByteArrayOutputStream());
+
+        // 另一个流持续上传约 1.5 秒；缩小缓冲区让写线程跟着服务器的接收速度发送，
+        // 服务器慢慢收下，期间不断发出与任何流无关的帧，连接本身没有沉默
+        channel.socket().setSendBufferSize(16 * 1024);
+        server.setReceiveBufferSize(16 * 1024);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread uploader = new Thread(() -> {
+            try {
+                byte[] body = new byte[48 * MuxSession.MAX_FRAME_PAYLOAD];
+                session.newStream().send(Commands.SINK, RequestBody.ofBytes(body), null);
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        Thread receiver = new Thread(() -> {
+            try {
+                while (readFrame().type != MuxSession.FRAME_END) {
+                    writeFrame(MuxSession.FRAME_DATA, 999, new byte[1]);
+                    Thread.sleep(30);
+                }
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        uploader.start();
+        receiver.start();
+
+        long start = System.currentTimeMillis();
+        try {
+            a.input().readInt();
+            fail("Expected SocketTimeoutException");
+        } catch (SocketTimeoutException expected) {
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Timed out after " + elapsed + " ms", elapsed < 1000);
+        a.abort();
+
+        uploader.join();
+        receiver.join();
+        if (error.get() != null) throw new AssertionError(error.get());
+        assertTrue(session.isAlive());
+    }
+
+    private void open(boolean flowControl) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                channel.socket().getInputStream(), RequestBody.BUFFER_SIZE));
+        session = new MuxSession(channel, in, "test", flowControl);
+    }
+
+    /**
+     * 读取一个完整的请求 HEADERS / DATA... / END，请求体写入 body，返回 streamId
+     */
+    private int readRequest(byte cmd, ByteArrayOutputStream body) throws IOException {
+        Frame headers = readFrame();
+        assertEquals(MuxSession.FRAME_HEADERS, headers.type);
+        assertArrayEquals(new byte[]{cmd}, headers.payload);
+        while (true) {
+            Frame frame = readFrame();
+            assertEquals(headers.streamId, frame.streamId);
+            if (frame.type == MuxSession.FRAME_END) return headers.streamId;
+            assertEquals(MuxSession.FRAME_DATA, frame.type);
+            assertTrue(frame.payload.length <= MuxSession.MAX_FRAME_PAYLOAD);
+            body.write(frame.payload);
+        }
+    }
+
+    private Frame readFrame() throws IOException {
+        byte type = serverIn.readByte();
+        int streamId = serverIn.readInt();
+        byte[] payload = new byte[serverIn.readInt()];
+        serverIn.readFully(payload);
+        return new Frame(type, streamId, payload);
+    }
+
+    private void writeAll(int streamId, byte[] data) throws IOException {
+        for (int off = 0; off < data.length; off += MuxSession.MAX_FRAME_PAYLOAD) {
+            writeData(streamId, data, off, Math.min(MuxSession.MAX_FRAME_PAYLOAD, data.length - off));
+        }
+    }
+
+    private void writeData(int streamId, byte[] data, int off, int len) throws IOException {
+        writeFrame(MuxSession.FRAME_DATA, streamId, Arrays.copyOfRange(data, off, off + len));
+    }
+
+    private void writeFrame(byte type, int streamId, byte[] payload) throws IOException {
+        serverOut.writeByte(type);
+        serverOut.writeInt(streamId);
+        serverOut.writeInt(payload != null ? payload.length : 0);
+        if (payload != null) serverOut.write(payload);
+        serverOut.flush();
+    }
+
+    private static byte[] lengthPrefixed(byte[] data) {
+        return ByteBuffer.allocate(4 + data.length).putInt(data.length).put(data).array();
+    }
+}
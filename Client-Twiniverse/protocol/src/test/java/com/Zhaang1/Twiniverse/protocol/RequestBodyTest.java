@@ -0,0 +1,101 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * slice 跨越内存段和文件段时内容正确，sha256 与直接计算的结果一致
+ */
+public class RequestBodyTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sliceAcrossSegments() throws Exception {
+        byte[] head = ContentEncodingTest.sample(1000);
+        byte[] file = ContentEncodingTest.sample(RequestBody.BUFFER_SIZE * 3 + 17);
+        byte[] tail = {1, 2, 3};
+        RequestBody body = new RequestBody().appendBytes(head).appendFile(write(file)).appendBytes(tail);
+        byte[] all = concat(head, file, tail);
+        assertEquals(all.length, body.length());
+
+        long[][] ranges = {
+                {0, all.length},
+                {0, 10},
+                {990, 20},
+                {head.length + 5, RequestBody.BUFFER_SIZE},
+                {all.length - 4, 4},
+                {all.length, 0},
+        };
+        for (long[] range : ranges) {
+            RequestBody slice = body.slice(range[0], range[1]);
+            assertEquals(range[1], slice.length());
+            assertArrayEquals(Arrays.copyOfRange(all, (int) range[0], (int) (range[0] + range[1])), bytes(slice));
+        }
+    }
+
+    @Test
+    public void sliceOfSlice() throws Exception {
+        byte[] data = ContentEncodingTest.sample(5000);
+        RequestBody slice = new RequestBody().appendFile(write(data)).slice(1000, 3000).slice(500, 100);
+        assertArrayEquals(Arrays.copyOfRange(data, 1500, 1600), bytes(slice));
+    }
+
+    @Test
+    public void sha256MatchesMessageDigest() throws Exception {
+        byte[] file = ContentEncodingTest.sample(RequestBody.BUFFER_SIZE * 2 + 5);
+        RequestBody body = new RequestBody().appendInt(7).appendFile(write(file));
+        byte[] all = concat(new byte[]{0, 0, 0, 7}, file);
+
+        assertEquals(hex(all), body.sha256());
+        assertEquals(hex(Arrays.copyOfRange(all, 2, 1002)), body.slice(2, 1000).sha256());
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                new RequestBody().sha256());
+    }
+
+    @Test(expected = IOException.class)
+    public void ofFileRejectsMissingFile() throws Exception {
+        RequestBody.ofFile(new File(folder.getRoot(), "missing.mp4"));
+    }
+
+    private File write(byte[] data) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static byte[] bytes(RequestBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static String hex(byte[] data) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
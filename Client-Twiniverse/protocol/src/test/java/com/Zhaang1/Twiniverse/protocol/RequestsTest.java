@@ -0,0 +1,186 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * 请求体的编码与服务器（Manager.py）解析的格式一致
+ */
+public class RequestsTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loginIsJsonObject() throws Exception {
+        Request request = Requests.login("alice", "secret");
+        assertEquals(Commands.LOGIN, request.command());
+        JSONObject json = new JSONObject(text(request));
+        assertEquals("alice", json.getString("u"));
+        assertEquals("secret", json.getString("p"));
+    }
+
+    @Test
+    public void getGlbIsPlainHash() throws Exception {
+        Request request = Requests.getGlb("abc123");
+        assertEquals(Commands.GET_GLB, request.command());
+        assertEquals("abc123", text(request));
+    }
+
+    @Test
+    public void getGlbRangeLayout() throws Exception {
+        Request request = Requests.getGlbRange("abc123", 5L << 32, 4096);
+        assertEquals(Commands.GET_GLB_RANGE, request.command());
+        ByteBuffer body = ByteBuffer.wrap(bytes(request));
+        assertEquals(5L << 32, body.getLong());
+        assertEquals(4096, body.getInt());
+        assertEquals("abc123", remainingText(body));
+    }
+
+    @Test
+    public void getGlbBatchIsJsonArray() throws Exception {
+        Request request = Requests.getGlbBatch(Arrays.asList("a", "b"));
+        assertEquals(Commands.GET_GLB_BATCH, request.command());
+        JSONArray hashes = new JSONArray(text(request));
+        assertEquals(2, hashes.length());
+        assertEquals("a", hashes.getString(0));
+        assertEquals("b", hashes.getString(1));
+    }
+
+    @Test
+    public void uploadChunkLayout() throws Exception {
+        byte[] data = {1, 2, 3, 4, 5, 6};
+        Request request = Requests.uploadChunk("up-1", 1024, RequestBody.ofBytes(data).slice(2, 3));
+        assertEquals(Commands.UPLOAD_CHUNK, request.command());
+        ByteBuffer body = ByteBuffer.wrap(bytes(request));
+        assertEquals(1024, body.getLong());
+        byte[] id = new byte[body.getInt()];
+        body.get(id);
+        assertEquals("up-1", new String(id, StandardCharsets.UTF_8));
+        byte[] chunk = new byte[body.remaining()];
+        body.get(chunk);
+        assertArrayEquals(new byte[]{3, 4, 5}, chunk);
+    }
+
+    @Test
+    public void uploadOpenAndCommit() throws Exception {
+        JSONObject open = new JSONObject(text(Requests.uploadOpen(123, "ff")));
+        assertEquals(123, open.getLong("size"));
+        assertEquals("ff", open.getString("sha256"));
+
+        Request commit = Requests.uploadCommit("up-1", "video");
+        assertEquals(Commands.UPLOAD_COMMIT, commit.command());
+        JSONObject json = new JSONObject(text(commit));
+        assertEquals("up-1", json.getString("id"));
+        assertEquals("video", json.getString("kind"));
+    }
+
+    @Test
+    public void imagesLayout() throws Exception {
+        File first = write("a.jpg", new byte[]{10, 11});
+        File second = write("b.jpg", new byte[]{20, 21, 22});
+        Request request = Requests.images(Arrays.asList(first, second));
+        assertEquals(Commands.IMAGE, request.command());
+        ByteBuffer body = ByteBuffer.wrap(bytes(request));
+        assertEquals(2, body.getInt());
+        assertEquals(2, body.getInt());
+        assertEquals(10, body.get());
+        assertEquals(11, body.get());
+        assertEquals(3, body.getInt());
+        assertEquals(20, body.get());
+        assertEquals(21, body.get());
+        assertEquals(22, body.get());
+        assertFalse(body.hasRemaining());
+    }
+
+    @Test
+    public void blobPutLayout() throws Exception {
+        String hash = repeat('e', 64);
+        File image = write("c.jpg", new byte[]{7, 8, 9});
+        Request request = Requests.blobPut(hash, image);
+        assertEquals(Commands.BLOB_PUT, request.command());
+        byte[] body = bytes(request);
+        assertEquals(hash, new String(body, 0, 64, StandardCharsets.UTF_8));
+        assertArrayEquals(new byte[]{7, 8, 9}, Arrays.copyOfRange(body, 64, body.length));
+    }
+
+    @Test
+    public void imageByHashKeepsOrder() throws Exception {
+        JSONObject json = new JSONObject(text(Requests.imageByHash(Arrays.asList("h2", "h1"))));
+        JSONArray images = json.getJSONArray("images");
+        assertEquals("h2", images.getString(0));
+        assertEquals("h1", images.getString(1));
+    }
+
+    @Test
+    public void jobStatusOmitsUnknownState() throws Exception {
+        JSONObject first = new JSONObject(text(Requests.jobStatus("j1", 25000, null, -1)));
+        assertEquals("j1", first.getString("id"));
+        assertEquals(25000, first.getInt("wait"));
+        assertFalse(first.has("state"));
+        assertFalse(first.has("position"));
+
+        JSONObject known = new JSONObject(text(Requests.jobStatus("j1", 25000, "queued", 0)));
+        assertEquals("queued", known.getString("state"));
+        assertEquals(0, known.getLong("position"));
+    }
+
+    @Test
+    public void listGlbAndDiagnostics() throws Exception {
+        JSONObject page = new JSONObject(text(Requests.listGlb(42, 50)));
+        assertEquals(42, page.getLong("cursor"));
+        assertEquals(50, page.getInt("limit"));
+
+        byte[] data = {0, (byte) 0xFF, 1};
+        Request echo = Requests.echo(data);
+        assertEquals(Commands.ECHO, echo.command());
+        assertArrayEquals(data, bytes(echo));
+        assertEquals(Commands.SINK, Requests.sink(data).command());
+        assertEquals(1 << 20, new JSONObject(text(Requests.source(1 << 20))).getInt("size"));
+    }
+
+    static byte[] bytes(Request request) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.body().writeTo(Channels.newChannel(out));
+        assertEquals(request.body().length(), out.size());
+        return out.toByteArray();
+    }
+
+    private static String text(Request request) throws IOException {
+        return new String(bytes(request), StandardCharsets.UTF_8);
+    }
+
+    private static String remainingText(ByteBuffer buffer) {
+        byte[] rest = new byte[buffer.remaining()];
+        buffer.get(rest);
+        return new String(rest, StandardCharsets.UTF_8);
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
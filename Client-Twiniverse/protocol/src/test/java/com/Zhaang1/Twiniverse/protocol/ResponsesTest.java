@@ -0,0 +1,264 @@
+package com.Zhaang1.Twiniverse.protocol;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 按服务器的响应格式构造字节流，检查各解析函数读完后停在正确的位置
+ */
+public class ResponsesTest {
+
+    private static final int NEXT = 0x7E57AB1E;
+
+    @Test
+    public void readNamedWithName() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeBlock(out, "model.glb".getBytes(StandardCharsets.UTF_8));
+        out.writeInt(1234);
+        out.writeInt(NEXT);
+
+        DataInputStream in = input(bytes);
+        Responses.Named named = Responses.readNamed(in);
+        assertEquals("model.glb", named.name);
+        assertEquals(1234, named.dataLength);
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test
+    public void readNamedWithoutName() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(17);
+
+        Responses.Named named = Responses.readNamed(input(bytes));
+        assertNull(named.name);
+        assertEquals(17, named.dataLength);
+    }
+
+    @Test(expected = IOException.class)
+    public void readNamedRejectsHugeName() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(1 << 20);
+        Responses.readNamed(input(bytes));
+    }
+
+    @Test
+    public void readRangeSplitsTotalFromData() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(8 + 3);
+        out.writeLong(10_000_000_000L);
+        out.write(new byte[]{1, 2, 3});
+        out.writeInt(NEXT);
+
+        DataInputStream in = input(bytes);
+        Responses.Range range = Responses.readRange(in);
+        assertEquals(10_000_000_000L, range.total);
+        assertEquals(3, range.dataLength);
+
+        ContentEncoding.Body data = ContentEncoding.open(in, null);
+        ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        Responses.copyBody(data, range.dataLength, copied, null);
+        assertArrayEquals(new byte[]{1, 2, 3}, copied.toByteArray());
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test
+    public void readRangeErrorHasNegativeTotal() throws Exception {
+        byte[] message = "ERROR_GLB_NOT_FOUND".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(8 + message.length);
+        out.writeLong(-1);
+        out.write(message);
+        out.writeInt(NEXT);
+
+        DataInputStream in = input(bytes);
+        Responses.Range range = Responses.readRange(in);
+        assertEquals(-1, range.total);
+        ServerErrorException error = Responses.readError(ContentEncoding.open(in, null), range.dataLength);
+        assertEquals("ERROR_GLB_NOT_FOUND", error.getErrorCode());
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test(expected = IOException.class)
+    public void readRangeRejectsShortLength() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(4);
+        Responses.readRange(input(bytes));
+    }
+
+    @Test
+    public void readBatchEntries() throws Exception {
+        byte[] error = "ERROR_GLB_NOT_FOUND".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(2);
+        writeBlock(out, "h1".getBytes(StandardCharsets.UTF_8));
+        out.writeByte(0);
+        writeBlock(out, new byte[]{9, 9});
+        writeBlock(out, "h2".getBytes(StandardCharsets.UTF_8));
+        out.writeByte(1);
+        writeBlock(out, error);
+        out.writeInt(NEXT);
+
+        DataInputStream in = input(bytes);
+        assertEquals(2, Responses.readBatchCount(in));
+
+        Responses.BatchEntry first = Responses.readBatchEntry(in);
+        assertEquals("h1", first.hash);
+        assertTrue(first.ok);
+        assertEquals(2, first.dataLength);
+        ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        Responses.copyBody(ContentEncoding.open(in, null), first.dataLength, copied, null);
+        assertArrayEquals(new byte[]{9, 9}, copied.toByteArray());
+
+        Responses.BatchEntry second = Responses.readBatchEntry(in);
+        assertEquals("h2", second.hash);
+        assertFalse(second.ok);
+        assertEquals("ERROR_GLB_NOT_FOUND",
+                Responses.readError(ContentEncoding.open(in, null), second.dataLength).getErrorCode());
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test
+    public void readBatchCountReportsRequestError() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(-1);
+        writeBlock(out, "ERROR_BAD_REQUEST".getBytes(StandardCharsets.UTF_8));
+        try {
+            Responses.readBatchCount(input(bytes));
+            fail("Expected ServerErrorException");
+        } catch (ServerErrorException e) {
+            assertEquals("ERROR_BAD_REQUEST", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void readTimingTrailer() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeBlock(out, "{\"stages\":[{\"name\":\"infer\",\"start_ms\":5,\"ms\":120}]}"
+                .getBytes(StandardCharsets.UTF_8));
+        out.writeInt(NEXT);
+
+        DataInputStream in = input(bytes);
+        JSONObject trailer = Responses.readTimingTrailer(in);
+        JSONObject stage = trailer.getJSONArray("stages").getJSONObject(0);
+        assertEquals("infer", stage.getString("name"));
+        assertEquals(120, stage.getInt("ms"));
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test(expected = IOException.class)
+    public void readTimingTrailerRejectsInvalidJson() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeBlock(new DataOutputStream(bytes), "not json".getBytes(StandardCharsets.UTF_8));
+        Responses.readTimingTrailer(input(bytes));
+    }
+
+    @Test
+    public void readJsonConvertsErrorText() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeBlock(new DataOutputStream(bytes), "ERROR_JOB_NOT_FOUND".getBytes(StandardCharsets.UTF_8));
+        try {
+            Responses.readJson(input(bytes));
+            fail("Expected ServerErrorException");
+        } catch (ServerErrorException e) {
+            assertEquals("ERROR_JOB_NOT_FOUND", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void copyBodyUnlessErrorThrowsOnErrorText() throws Exception {
+        byte[] message = "ERROR_INFERENCE_FAILED".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(message);
+        out.writeInt(NEXT);
+
+        DataInputStream in = input(bytes);
+        ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        try {
+            Responses.copyBodyUnlessError(ContentEncoding.open(in, null), message.length, copied, null);
+            fail("Expected ServerErrorException");
+        } catch (ServerErrorException e) {
+            assertEquals("ERROR_INFERENCE_FAILED", e.getErrorCode());
+        }
+        assertEquals(0, copied.size());
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test
+    public void copyBodyUnlessErrorSniffsDeflatedError() throws Exception {
+        byte[] message = "ERROR_INFERENCE_FAILED".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(ContentEncodingTest.deflateChunks(message, 8));
+        out.writeInt(NEXT);
+
+        DataInputStream in = input(bytes);
+        try {
+            Responses.copyBodyUnlessError(ContentEncoding.open(in, ContentEncoding.DEFLATE), message.length,
+                    new ByteArrayOutputStream(), null);
+            fail("Expected ServerErrorException");
+        } catch (ServerErrorException e) {
+            assertEquals("ERROR_INFERENCE_FAILED", e.getErrorCode());
+        }
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test
+    public void copyBodyUnlessErrorCopiesData() throws Exception {
+        // 超过一个缓冲区，覆盖首块检查之后的剩余部分
+        byte[] data = ContentEncodingTest.sample(RequestBody.BUFFER_SIZE * 2 + 100);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(ContentEncodingTest.deflateChunks(data, 4096));
+        out.writeInt(NEXT);
+
+        DataInputStream in = input(bytes);
+        ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        Responses.copyBodyUnlessError(ContentEncoding.open(in, ContentEncoding.DEFLATE), data.length, copied, null);
+        assertArrayEquals(data, copied.toByteArray());
+        assertEquals(NEXT, in.readInt());
+    }
+
+    @Test
+    public void copyBodyUnlessErrorIgnoresPrefixInLargeData() throws Exception {
+        // 只有短数据才可能是错误信息，大文件恰好以 ERROR_ 开头时照常写入
+        byte[] data = new byte[Responses.MAX_ERROR_LENGTH * 2];
+        byte[] prefix = "ERROR_".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(prefix, 0, data, 0, prefix.length);
+        ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        Responses.copyBodyUnlessError(ContentEncoding.open(new DataInputStream(new ByteArrayInputStream(data)), null),
+                data.length, copied, null);
+        assertArrayEquals(data, copied.toByteArray());
+    }
+
+    private static void writeBlock(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static DataInputStream input(ByteArrayOutputStream bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
@@ -2,38 +2,140 @@ package com.Zhaang1.Twiniverse;
 
 import android.content.Context;
 import android.text.TextUtils;
+import android.util.Log;
+
+import com.Zhaang1.Twiniverse.protocol.Commands;
+import com.Zhaang1.Twiniverse.protocol.ConnectionManager;
+import com.Zhaang1.Twiniverse.protocol.ContentEncoding;
+import com.Zhaang1.Twiniverse.protocol.MemoryProbe;
+import com.Zhaang1.Twiniverse.protocol.NetworkProbe;
+import com.Zhaang1.Twiniverse.protocol.Request;
+import com.Zhaang1.Twiniverse.protocol.RequestBody;
+import com.Zhaang1.Twiniverse.protocol.RequestFuture;
+import com.Zhaang1.Twiniverse.protocol.Requests;
+import com.Zhaang1.Twiniverse.protocol.ResponseReader;
+import com.Zhaang1.Twiniverse.protocol.Responses;
+import com.Zhaang1.Twiniverse.protocol.ServerConnection;
+import com.Zhaang1.Twiniverse.protocol.ServerErrorException;
+import com.Zhaang1.Twiniverse.protocol.SocketTransport;
+import com.Zhaang1.Twiniverse.protocol.StageTrace;
+import com.Zhaang1.Twiniverse.protocol.TransferListener;
+import com.Zhaang1.Twiniverse.protocol.TransferMeter;
+import com.Zhaang1.Twiniverse.protocol.Transfers;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CommunicationManager {
 
+    private static final String TAG = "CommunicationManager";
+    private static final CommunicationManager INSTANCE = new CommunicationManager();
+
     private String serverIp = "103.45.130.80";
     private int serverPort = 27172;
     private static final int TIMEOUT = 600000; // 600秒超时
 
-    private static final byte CMD_LOGIN = 1;
-    private static final byte CMD_IMAGE = 2;
-    private static final byte CMD_VIDEO = 3;
-    private static final byte CMD_GET_GLB = 4;
+    // 分块上传、分段下载、任务轮询的请求流程和参数在 Transfers 中；网络中断后最多连续重试 5 次
+    private static final int MAX_CHUNK_RETRIES = 5;
+    private static final long RETRY_BACKOFF_MS = 1000;
+    // 服务器单个图片 blob 的大小上限，超过时退回整体分块上传
+    private static final long MAX_BLOB_SIZE = 32 * 1024 * 1024;
+    // 批量下载：每次请求最多 64 个模型，服务器上限为 256
+    private static final int GLB_BATCH_SIZE = 64;
+    // 模型库同步：每页最多 200 个模型（服务器上限）
+    private static final int GLB_LIST_PAGE_SIZE = 200;
+    // 待上传图片总量小于此值时只用一条连接，多开连接的握手和登录开销不划算
+    private static final long PARALLEL_UPLOAD_MIN_BYTES = 512 * 1024;
+    // 边处理边上传时，已处理、待上传的图片数上限
+    private static final int PIPELINE_DEPTH = 2;
+
+    // 下载中的临时文件后缀，不以 .glb 结尾，不会出现在文件列表中
+    private static final String PART_SUFFIX = ".part";
 
     // 当前登录用户名，默认为 guest
     private String currentUsername = "guest";
 
+    // 请求的编码、发送和响应解析都在 :protocol 模块中，这里只负责文件、进度和本地状态
+    private volatile SocketTransport transport = new SocketTransport(serverIp, serverPort);
+    private final UploadLaneTuner laneTuner = new UploadLaneTuner(ConnectionManager.MAX_LANES);
+    // 本进程中正在等待的任务，resumeJobs 跳过它们，避免同一结果取回两次
+    private final Set<String> activeJobs = ConcurrentHashMap.newKeySet();
+
+    // 所有异步请求共用的 I/O 线程池：最多 4 个线程、排队 32 个任务，空闲 30 秒后回收线程
+    private static final int IO_THREADS = 4;
+    private static final int IO_QUEUE_CAPACITY = 32;
+    private static final ExecutorService IO_EXECUTOR = createIoExecutor();
+
+    private static ExecutorService createIoExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "twiniverse-io-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(IO_QUEUE_CAPACITY), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // 并行上传的额外各路在独立线程上运行，不占用 I/O 线程池，避免互相等待造成死锁。
+    // 线程已满时直接少开几路，调用线程自己始终负责一路，上传总能完成
+    private static final int UPLOAD_THREADS = 2 * (ConnectionManager.MAX_LANES - 1);
+    private static final ExecutorService UPLOAD_EXECUTOR = createUploadExecutor();
+
+    private static ExecutorService createUploadExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "twiniverse-upload-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        return new ThreadPoolExecutor(0, UPLOAD_THREADS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), factory);
+    }
+
+    /**
+     * App 内共享的实例，各界面通过它复用同一条已登录的长连接
+     */
+    public static CommunicationManager getInstance() {
+        return INSTANCE;
+    }
+
     public void setConnectionInfo(String ip, int port) {
         this.serverIp = ip;
         this.serverPort = port;
+        this.transport = new SocketTransport(ip, port);
     }
 
     public void setCurrentUsername(String username) {
@@ -42,92 +144,804 @@ public class CommunicationManager {
         }
     }
 
+    /**
+     * 在共享 I/O 线程池中执行一组阻塞调用（例如先压缩图片再上传），整体可以取消
+     */
+    public <T> RequestFuture<T> submitAsync(Callable<T> work) {
+        return RequestFuture.submit(IO_EXECUTOR, work);
+    }
+
+    public RequestFuture<boolean[]> loginAsync(String username, String password) {
+        return loginAsync(username, password, null);
+    }
+
+    public RequestFuture<boolean[]> loginAsync(String username, String password, TransferListener listener) {
+        return submitAsync(() -> login(username, password, listener));
+    }
+
+    public RequestFuture<File> genByImageAsync(Context context, List<File> images) {
+        return genByImageAsync(context, images, null);
+    }
+
+    public RequestFuture<File> genByImageAsync(Context context, List<File> images, TransferListener listener) {
+        return submitAsync(() -> genByImage(context, images, listener));
+    }
+
+    public RequestFuture<File> genByImageAsync(Context context, List<File> images, ImagePreprocessor preprocessor,
+                                               TransferListener listener) {
+        return submitAsync(() -> genByImage(context, images, preprocessor, listener));
+    }
+
+    public RequestFuture<File> genByVideoAsync(Context context, File video) {
+        return genByVideoAsync(context, video, null);
+    }
+
+    public RequestFuture<File> genByVideoAsync(Context context, File video, TransferListener listener) {
+        return submitAsync(() -> genByVideo(context, video, listener));
+    }
+
+    public RequestFuture<File> getGLBByHashAsync(Context context, String hash) {
+        return getGLBByHashAsync(context, hash, null);
+    }
+
+    public RequestFuture<File> getGLBByHashAsync(Context context, String hash, TransferListener listener) {
+        return submitAsync(() -> getGLBByHash(context, hash, listener));
+    }
+
+    public RequestFuture<Map<String, File>> getGLBsByHashAsync(Context context, List<String> hashes,
+                                                                TransferListener listener) {
+        return submitAsync(() -> getGLBsByHash(context, hashes, listener));
+    }
+
+    public RequestFuture<List<File>> resumeJobsAsync(Context context) {
+        return submitAsync(() -> resumeJobs(context));
+    }
+
+    public RequestFuture<List<RemoteGLB>> syncLibraryAsync(Context context) {
+        return submitAsync(() -> syncLibrary(context));
+    }
+
     public boolean[] login(String username, String password) throws Exception {
-        JSONObject json = new JSONObject();
-        json.put("u", username);
-        json.put("p", password);
-        byte[] payload = json.toString().getBytes(StandardCharsets.UTF_8);
+        return login(username, password, null);
+    }
 
-        ResponseData response = sendRequest(CMD_LOGIN, payload);
+    public boolean[] login(String username, String password, TransferListener listener) throws Exception {
+        Request request = Requests.login(username, password);
+        SocketTransport transport = this.transport;
 
-        String jsonResp = new String(response.data, StandardCharsets.UTF_8);
-        JSONArray arr = new JSONArray(jsonResp);
+        TransferMeter meter = new TransferMeter("login", listener);
+        JSONArray arr;
+        try {
+            meter.begin(TransferListener.Phase.UPLOAD, request.body().length());
+            arr = transport.exchange(request, meter, 0, (dis, encoding) -> {
+                meter.begin(TransferListener.Phase.SERVER_WAIT, -1);
+                return Responses.readJsonArray(dis, meter);
+            });
+        } finally {
+            meter.finish();
+        }
 
         boolean success = arr.getBoolean(0);
         if (success) {
             this.currentUsername = username;
+            // 连接断开重建后，用同样的凭据在新连接上重新登录
+            transport.setAuthenticator(conn -> relogin(conn, request));
         }
 
         return new boolean[]{success, arr.getBoolean(1)};
     }
 
+    /**
+     * 退出登录：丢弃保存的凭据并断开长连接
+     */
+    public void logout() {
+        transport.reset();
+        currentUsername = "guest";
+    }
+
+    private void relogin(ServerConnection conn, Request login) throws IOException {
+        conn.writeRequest(login.command(), login.body());
+        try {
+            if (!Responses.readJsonArray(conn.input(), null).getBoolean(0)) {
+                throw new IOException("Re-login rejected by server");
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid login response", e);
+        }
+    }
+
     public File genByImage(Context context, List<File> images) throws Exception {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        DataOutputStream bufferDos = new DataOutputStream(buffer);
+        return genByImage(context, images, null);
+    }
 
-        // 协议: [图片数量] + [Size1][Data1] + [Size2][Data2]...
-        bufferDos.writeInt(images.size());
+    public File genByImage(Context context, List<File> images, TransferListener listener) throws Exception {
+        return genByImage(context, images, null, listener);
+    }
 
+    /**
+     * 上传前逐张预处理图片（例如压缩）。预处理与上传流水线进行：
+     * 第 i 张上传的同时处理第 i+1 张，总耗时接近两者中较慢的一方，而不是两者之和
+     */
+    public File genByImage(Context context, List<File> images, ImagePreprocessor preprocessor,
+                           TransferListener listener) throws Exception {
+        TransferMeter meter = new TransferMeter("genByImage", listener);
+        return traceJob("image", meter, () -> {
+            if (preprocessor != null) {
+                return generateFromImagesPipelined(context, images, preprocessor, meter);
+            }
+            return generateFromImages(context, images, meter);
+        });
+    }
+
+    /**
+     * 执行一次生成并把各阶段耗时和内存高水位记入 JobTraces（DebugActivity 中查看），结束时 finish meter。
+     * 测试模式下（MemoryBudget）内存峰值超出预算的任务以 MemoryBudgetExceededException 失败，模型仍已保存
+     */
+    private File traceJob(String kind, TransferMeter meter, Callable<File> work) throws Exception {
+        StageTrace trace = new StageTrace(kind);
+        meter.setTrace(trace);
+        JobTraces.add(trace);
+        File result = null;
+        String error = null;
+        try (MemoryProbe.Binding ignored = trace.memory().bind()) {
+            result = work.call();
+            trace.memory().checkBudget();
+            return result;
+        } catch (Exception e) {
+            error = e.toString();
+            throw e;
+        } finally {
+            meter.finish();
+            trace.finish(result != null ? GLBFileManager.getFileNameInHash(result.getName()) : null, error);
+        }
+    }
+
+    /**
+     * 上传前对单张图片的处理，返回实际要上传的文件（可以是原文件）
+     */
+    public interface ImagePreprocessor {
+        File process(File image) throws Exception;
+    }
+
+    /**
+     * 按最近测得的上行带宽为 count 张图片中的每一张分配字节预算（用于 ImageCompressor），
+     * 使整个任务的上传时间大致固定：慢速网络上压得更小，快速网络上尽量保留原图。
+     * 还没有测量数据时返回 1MB
+     */
+    public long imageUploadBudget(Context context, int count) {
+        return UplinkEstimator.get(context).imageBudget(count);
+    }
+
+    private File generateFromImages(Context context, List<File> images, TransferMeter meter) throws Exception {
+        // 旧服务器没有按哈希去重的图片存储，整体上传
+        if (!transport.supports(Commands.FEATURE_BLOBS)) {
+            return uploadAndCommit(context, RequestBody.ofImages(images), "image", meter);
+        }
+        for (File img : images) {
+            if (img.length() > MAX_BLOB_SIZE) {
+                // 协议: [图片数量] + [Size1][Data1] + [Size2][Data2]...
+                // 分块上传后提交，响应体直接流式写入文件
+                return uploadAndCommit(context, RequestBody.ofImages(images), "image", meter);
+            }
+        }
+
+        // 每张图片以内容 SHA-256 标识，重试或重复拍摄时服务器已有的图片不再上传
+        List<String> hashes = new ArrayList<>();
+        long hashStart = System.nanoTime();
         for (File img : images) {
-            byte[] fileBytes = readFileToBytes(img);
-            bufferDos.writeInt(fileBytes.length);
-            bufferDos.write(fileBytes);
+            hashes.add(RequestBody.ofFile(img).sha256());
+        }
+        meter.mark(StageTrace.HASH, hashStart);
+        List<File> toUpload = new ArrayList<>();
+        List<String> missingHashes = queryMissingBlobs(hashes);
+        long uploadTotal = 0;
+        for (String missing : missingHashes) {
+            int index = hashes.indexOf(missing);
+            if (index < 0) throw new IOException("Unexpected blob hash: " + missing);
+            toUpload.add(images.get(index));
+            uploadTotal += images.get(index).length();
         }
 
-        byte[] payload = buffer.toByteArray();
+        // 进度只统计真正需要上传的图片
+        meter.begin(TransferListener.Phase.UPLOAD, uploadTotal);
+        uploadBlobs(context, missingHashes, toUpload, uploadTotal, meter);
 
-        // 发送请求
-        ResponseData response = sendRequest(CMD_IMAGE, payload);
+        return submitImageHashes(context, hashes, meter);
+    }
 
-        if (response.data == null || response.data.length == 0) {
-            throw new IOException("Server returned empty data");
+    /**
+     * 边预处理边上传：调用线程依次处理图片并计算哈希，放入容量为 PIPELINE_DEPTH 的队列，
+     * 上传各路从队列中取出后先询问服务器是否已有，再上传缺失的图片。
+     * 队列满时处理线程等待上传，内存和临时文件中最多只积压几张已处理的图片。
+     */
+    private File generateFromImagesPipelined(Context context, List<File> images, ImagePreprocessor preprocessor,
+                                             TransferMeter meter) throws Exception {
+        if (!transport.supports(Commands.FEATURE_BLOBS)) {
+            // 没有 blob 存储就无法逐张上传，处理完全部图片后整体上传
+            return preprocessAndCommit(context, images, new ArrayList<>(), preprocessor, meter);
         }
+        // 处理完之前不知道总大小，先以未知总量开始上传阶段
+        meter.begin(TransferListener.Phase.UPLOAD, -1);
+        BlockingQueue<BlobTask> tasks = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+        List<File> prepared = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        long preparedBytes = 0;
+        boolean oversized = false;
+        // 处理线程曾因队列满而等待，说明上传是瓶颈，此时测得的吞吐量才反映上传路数的效果
+        boolean uploadBound = false;
 
-        // 使用服务器返回的文件名
-        String finalFileName = generateFileName(response.filename);
-        return saveResponseToFile(context, response.data, finalFileName);
+        int lanes = laneTuner.choose(images.size());
+        long start = System.currentTimeMillis();
+        List<Future<?>> uploaders = startUploadLanes(0, lanes, tasks, meter);
+        try {
+            for (File image : images) {
+                checkUploadLanes(uploaders);
+                long stageStart = System.nanoTime();
+                File file = preprocessor.process(image);
+                meter.mark(StageTrace.COMPRESS, stageStart);
+                prepared.add(file);
+                if (file.length() > MAX_BLOB_SIZE) {
+                    oversized = true;
+                    break;
+                }
+                stageStart = System.nanoTime();
+                BlobTask task = new BlobTask(RequestBody.ofFile(file).sha256(), file, true);
+                meter.mark(StageTrace.HASH, stageStart);
+                hashes.add(task.hash);
+                preparedBytes += file.length();
+                if (uploaders.isEmpty()) {
+                    // 没有空闲的上传线程，退化为处理一张上传一张
+                    uploadIfMissing(task, 0, meter.lane());
+                } else {
+                    uploadBound |= enqueue(tasks, task, uploaders);
+                }
+            }
+            if (!uploaders.isEmpty()) {
+                enqueue(tasks, END_OF_BLOBS, uploaders);
+                awaitUploadLanes(uploaders);
+            }
+        } finally {
+            for (Future<?> uploader : uploaders) {
+                uploader.cancel(true);
+            }
+        }
+
+        if (oversized) {
+            // 超出 blob 上限时退回整体分块上传，已上传的 blob 留在服务器上供以后复用
+            return preprocessAndCommit(context, images, prepared, preprocessor, meter);
+        }
+
+        meter.setTotal(preparedBytes);
+        if (uploadBound) {
+            long elapsed = System.currentTimeMillis() - start;
+            laneTuner.record(uploaders.size(), preparedBytes, elapsed);
+            UplinkEstimator.get(context).record(preparedBytes, elapsed);
+        }
+        return submitImageHashes(context, hashes, meter);
+    }
+
+    /**
+     * 处理 images 中 prepared 之后的其余图片，再把全部图片整体上传
+     */
+    private File preprocessAndCommit(Context context, List<File> images, List<File> prepared,
+                                     ImagePreprocessor preprocessor, TransferMeter meter) throws Exception {
+        for (int i = prepared.size(); i < images.size(); i++) {
+            long stageStart = System.nanoTime();
+            prepared.add(preprocessor.process(images.get(i)));
+            meter.mark(StageTrace.COMPRESS, stageStart);
+        }
+        return uploadAndCommit(context, RequestBody.ofImages(prepared), "image", meter);
+    }
+
+    /**
+     * IMAGE_BY_HASH: 以哈希列表提交任务，顺序与图片顺序一致
+     */
+    private File submitImageHashes(Context context, List<String> hashes, TransferMeter meter) throws Exception {
+        if (transport.supports(Commands.FEATURE_JOBS)) {
+            JSONObject job = new JSONObject();
+            job.put("images", new JSONArray(hashes));
+            return runJob(context, job, meter);
+        }
+        return transport.exchange(Requests.imageByHash(hashes), generationReader(context, meter));
+    }
+
+    /**
+     * BLOB_QUERY: ["sha256", ...] -> {"missing": [...]}，返回服务器尚未保存的图片哈希
+     */
+    private List<String> queryMissingBlobs(List<String> hashes) throws Exception {
+        return queryMissingBlobs(hashes, 0);
+    }
+
+    private List<String> queryMissingBlobs(List<String> hashes, int lane) throws Exception {
+        JSONArray missing = sendJsonRequest(Requests.blobQuery(hashes), null, lane).getJSONArray("missing");
+
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < missing.length(); i++) {
+            result.add(missing.getString(i));
+        }
+        return result;
+    }
+
+    /**
+     * 待上传的一张图片。checkFirst 为 true 时上传前先单独询问服务器是否已有
+     */
+    private static class BlobTask {
+        final String hash;
+        final File file;
+        final boolean checkFirst;
+
+        BlobTask(String hash, File file, boolean checkFirst) {
+            this.hash = hash;
+            this.file = file;
+            this.checkFirst = checkFirst;
+        }
+    }
+
+    // 队列结束标记：各路取到后放回队列并退出，其余各路随之退出
+    private static final BlobTask END_OF_BLOBS = new BlobTask(null, null, false);
+
+    /**
+     * 把图片分给多条连接并行上传：各路从同一个队列里取下一张图片，先传完的自动多分担一些。
+     * 服务器按提交时的哈希列表顺序组装图片，上传完成的先后顺序无关紧要。
+     * 路数由 laneTuner 根据之前测得的吞吐量选择，本次结果再反馈给它和上行带宽估计。
+     */
+    private void uploadBlobs(Context context, List<String> hashes, List<File> files, long totalBytes,
+                             TransferMeter meter) throws Exception {
+        if (files.isEmpty()) return;
+        int lanes = totalBytes < PARALLEL_UPLOAD_MIN_BYTES ? 1 : laneTuner.choose(files.size());
+
+        BlockingQueue<BlobTask> tasks = new LinkedBlockingQueue<>();
+        for (int i = 0; i < files.size(); i++) {
+            tasks.add(new BlobTask(hashes.get(i), files.get(i), false));
+        }
+        tasks.add(END_OF_BLOBS);
+
+        long start = System.currentTimeMillis();
+        List<Future<?>> helpers = startUploadLanes(1, lanes - 1, tasks, meter);
+        try {
+            // 调用线程负责主连接这一路，取消请求时由 RequestFuture 中止它
+            uploadBlobLane(0, tasks, meter.lane());
+            awaitUploadLanes(helpers);
+        } finally {
+            for (Future<?> helper : helpers) {
+                helper.cancel(true);
+            }
+        }
+
+        if (totalBytes >= PARALLEL_UPLOAD_MIN_BYTES) {
+            long elapsed = System.currentTimeMillis() - start;
+            laneTuner.record(helpers.size() + 1, totalBytes, elapsed);
+            UplinkEstimator.get(context).record(totalBytes, elapsed);
+        }
+    }
+
+    /**
+     * 在上传线程池中启动第 firstLane 路起的 count 路，线程不足时少开几路
+     */
+    private List<Future<?>> startUploadLanes(int firstLane, int count, BlockingQueue<BlobTask> tasks,
+                                             TransferMeter meter) {
+        List<Future<?>> lanes = new ArrayList<>();
+        for (int lane = firstLane; lane < firstLane + count; lane++) {
+            int laneIndex = lane;
+            TransferMeter laneMeter = meter.lane();
+            try {
+                lanes.add(UPLOAD_EXECUTOR.submit(() -> {
+                    uploadBlobLane(laneIndex, tasks, laneMeter);
+                    return null;
+                }));
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        return lanes;
+    }
+
+    private void awaitUploadLanes(List<Future<?>> lanes) throws Exception {
+        for (Future<?> lane : lanes) {
+            try {
+                lane.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 不等待地检查各路：结束标记发出之前就已结束的一路只可能是失败了，立即抛出它的异常
+     */
+    private void checkUploadLanes(List<Future<?>> lanes) throws Exception {
+        for (Future<?> lane : lanes) {
+            if (lane.isDone()) {
+                awaitUploadLanes(Collections.singletonList(lane));
+            }
+        }
+    }
+
+    /**
+     * 放入队列，队列满时等待并定期检查各路是否失败。返回是否曾经等待
+     */
+    private boolean enqueue(BlockingQueue<BlobTask> tasks, BlobTask task, List<Future<?>> lanes)
+            throws Exception {
+        if (tasks.offer(task)) return false;
+        while (!tasks.offer(task, 100, TimeUnit.MILLISECONDS)) {
+            checkUploadLanes(lanes);
+        }
+        return true;
+    }
+
+    private void uploadBlobLane(int lane, BlockingQueue<BlobTask> tasks, TransferMeter meter) throws Exception {
+        while (true) {
+            BlobTask task = tasks.take();
+            if (task == END_OF_BLOBS) {
+                tasks.put(END_OF_BLOBS);
+                return;
+            }
+            try {
+                uploadIfMissing(task, lane, meter);
+            } catch (Exception e) {
+                // 一路失败时整个任务失败，其他路不再领取新的图片
+                tasks.clear();
+                tasks.offer(END_OF_BLOBS);
+                throw e;
+            }
+        }
+    }
+
+    private void uploadIfMissing(BlobTask task, int lane, TransferMeter meter) throws Exception {
+        if (task.checkFirst && queryMissingBlobs(Collections.singletonList(task.hash), lane).isEmpty()) {
+            // 服务器已有这张图片，直接计为已完成
+            meter.add(task.file.length());
+            return;
+        }
+        uploadBlob(task.hash, task.file, meter, lane);
+    }
+
+    /**
+     * BLOB_PUT: [sha256:64][data]，图片内容由内核直接从磁盘发送。网络中断时退避重试
+     */
+    private void uploadBlob(String hash, File image, TransferMeter meter, int lane) throws Exception {
+        Request request = Requests.blobPut(hash, image);
+        long base = meter.done();
+        int failures = 0;
+        while (true) {
+            try {
+                sendJsonRequest(request, meter, lane);
+                // 扣除请求头的 64 字节哈希，只计图片内容
+                meter.set(base + image.length());
+                return;
+            } catch (IOException e) {
+                waitBeforeRetry(++failures, e);
+                meter.set(base);
+            }
+        }
     }
 
     public File genByVideo(Context context, File video) throws Exception {
-        byte[] payload = readFileToBytes(video);
+        return genByVideo(context, video, null);
+    }
 
-        ResponseData response = sendRequest(CMD_VIDEO, payload);
+    public File genByVideo(Context context, File video, TransferListener listener) throws Exception {
+        // 视频文件由内核直接发送，不再整体读入 byte[]
+        RequestBody body = RequestBody.ofFile(video);
 
-        if (response.data == null || response.data.length == 0) {
-            throw new IOException("Server returned empty data");
+        TransferMeter meter = new TransferMeter("genByVideo", listener);
+        return traceJob("video", meter, () -> uploadAndCommit(context, body, "video", meter));
+    }
+
+    /**
+     * 断点续传上传 body，然后提交生成任务。响应格式与 CMD_IMAGE / CMD_VIDEO 相同。
+     * 旧服务器没有上传会话时，body 随 CMD_IMAGE / CMD_VIDEO 一次发出，两者的请求体格式相同
+     */
+    private File uploadAndCommit(Context context, RequestBody body, String kind, TransferMeter meter) throws Exception {
+        if (!transport.supports(Commands.FEATURE_UPLOADS)) {
+            byte cmd = "video".equals(kind) ? Commands.VIDEO : Commands.IMAGE;
+            return sendGeneration(context, new Request(cmd, body), meter);
         }
+        String uploadId = uploadResumable(context, body, meter);
 
-        // 使用服务器返回的文件名
-        String finalFileName = generateFileName(response.filename);
-        return saveResponseToFile(context, response.data, finalFileName);
+        if (transport.supports(Commands.FEATURE_JOBS)) {
+            JSONObject job = new JSONObject();
+            job.put("upload", uploadId);
+            job.put("kind", kind);
+            return runJob(context, job, meter);
+        }
+
+        return transport.exchange(Requests.uploadCommit(uploadId, kind), generationReader(context, meter));
+    }
+
+    /**
+     * 一次性生成请求：请求体由内核直接从磁盘发送，中断后只能整个重发，响应流式写入文件
+     */
+    private File sendGeneration(Context context, Request request, TransferMeter meter) throws Exception {
+        ResponseReader<File> reader = generationReader(context, meter);
+        meter.begin(TransferListener.Phase.UPLOAD, request.body().length());
+        return transport.exchange(request, meter, 0, reader);
+    }
+
+    /**
+     * 以任务方式生成：JOB_SUBMIT 立即返回任务 ID，推理期间不占用连接。
+     * 任务 ID 先写入 JobStore，等待中进程被杀时下次启动由 resumeJobs 取回结果。
+     * 请求被取消只是不再等待，服务器上的任务照常完成，结果同样留待 resumeJobs 取回。
+     */
+    private File runJob(Context context, JSONObject request, TransferMeter meter) throws Exception {
+        JSONObject status = new Transfers(transport).submitJob(request);
+        String jobId = status.getString("id");
+        JobStore.add(context, jobId, currentUsername);
+        return awaitJob(context, jobId, status, meter);
+    }
+
+    /**
+     * 取回上次未等到结果的任务（App 被杀、网络中断或界面已关闭），返回取回的模型文件。
+     * 已失败或服务器上已不存在的任务直接丢弃，网络错误的留待下次。
+     */
+    public List<File> resumeJobs(Context context) throws Exception {
+        List<File> files = new ArrayList<>();
+        for (String jobId : JobStore.pending(context, currentUsername)) {
+            if (activeJobs.contains(jobId)) continue;
+            TransferMeter meter = new TransferMeter("resumeJob", null);
+            try {
+                files.add(traceJob("resume", meter, () -> awaitJob(context, jobId, null, meter)));
+            } catch (ServerErrorException e) {
+                Log.w(TAG, "Job " + jobId + " dropped: " + e.getMessage());
+            } catch (IOException e) {
+                if (RequestFuture.isCurrentCancelled()) throw e;
+                Log.w(TAG, "Job " + jobId + " not resumed: " + e.getMessage());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * JOB_STATUS 长轮询直到任务结束，再用 JOB_RESULT 取回模型。status 为已知的最新状态，可为 null。
+     * 任务结束（成功或服务器报错）后从 JobStore 中删除
+     */
+    private File awaitJob(Context context, String jobId, JSONObject status, TransferMeter meter) throws Exception {
+        if (!activeJobs.add(jobId)) throw new IOException("Job already being awaited: " + jobId);
+        try {
+            Transfers transfers = new Transfers(transport);
+            transfers.waitForJob(jobId, status, meter, this::waitBeforeRetry);
+            File result = transfers.fetchJobResult(jobId, generationReader(context, meter), this::waitBeforeRetry);
+            JobStore.remove(context, jobId);
+            return result;
+        } catch (ServerErrorException e) {
+            // 任务失败、过期或服务器已重启，再等也取不到结果
+            JobStore.remove(context, jobId);
+            throw e;
+        } finally {
+            activeJobs.remove(jobId);
+        }
+    }
+
+    /**
+     * 断点续传上传 body（见 Transfers.upload），返回上传会话 ID
+     */
+    private String uploadResumable(Context context, RequestBody body, TransferMeter meter) throws Exception {
+        long hashStart = System.nanoTime();
+        String sha256 = body.sha256();
+        meter.mark(StageTrace.HASH, hashStart);
+
+        long start = System.currentTimeMillis();
+        Transfers.Upload upload = new Transfers(transport).upload(body, sha256, meter, this::waitBeforeRetry);
+        // 只按本次实际发送的部分估计带宽，断点续传跳过的部分不算
+        if (upload.resumedFrom >= 0) {
+            UplinkEstimator.get(context).record(body.length() - upload.resumedFrom,
+                    System.currentTimeMillis() - start);
+        }
+        return upload.id;
+    }
+
+    /**
+     * 网络异常后退避等待；服务器明确报错或重试次数用尽时直接抛出原异常
+     */
+    private void waitBeforeRetry(int failures, IOException e) throws IOException {
+        if (e instanceof ServerErrorException || failures > MAX_CHUNK_RETRIES
+                || RequestFuture.isCurrentCancelled()) throw e;
+        try {
+            Thread.sleep(RETRY_BACKOFF_MS * failures);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private JSONObject sendJsonRequest(Request request) throws IOException {
+        return sendJsonRequest(request, null, 0);
+    }
+
+    /**
+     * 发送请求并把 [DataLen][Data] 响应解析为 JSON 对象，ERROR_ 开头的响应转换为异常
+     */
+    private JSONObject sendJsonRequest(Request request, TransferMeter uploadMeter, int lane) throws IOException {
+        return transport.exchange(request, uploadMeter, lane, (dis, encoding) -> Responses.readJson(dis));
     }
 
     /**
      * 通过 Hash 获取 GLB 文件
      */
     public File getGLBByHash(Context context, String hash) throws Exception {
-        byte[] payload = hash.getBytes(StandardCharsets.UTF_8);
+        return getGLBByHash(context, hash, null);
+    }
+
+    public File getGLBByHash(Context context, String hash, TransferListener listener) throws Exception {
+        TransferMeter meter = new TransferMeter("getGLBByHash", listener);
+        try {
+            return downloadGLB(context, hash, meter);
+        } finally {
+            meter.finish();
+        }
+    }
 
-        // 发送请求 CMD_GET_GLB (4)
-        ResponseData response = sendRequest(CMD_GET_GLB, payload);
+    /**
+     * 批量获取多个模型，例如恢复模型库或导入多个分享链接。
+     * 服务器支持时每批只需一次请求、一次数据库查询，模型逐个流式写入文件；
+     * 旧服务器上退化为逐个 getGLBByHash。
+     * 返回 hash -> 文件，顺序与 hashes 一致；服务器上不存在的模型不在结果中。
+     */
+    public Map<String, File> getGLBsByHash(Context context, List<String> hashes, TransferListener listener)
+            throws Exception {
+        TransferMeter meter = new TransferMeter("getGLBsByHash", listener);
+        Map<String, File> result = new LinkedHashMap<>();
+        Set<String> unavailable = new HashSet<>();
+        try {
+            if (!transport.supports(Commands.FEATURE_GLB_BATCH)) {
+                for (String hash : new LinkedHashSet<>(hashes)) {
+                    try {
+                        result.put(hash, downloadGLB(context, hash, meter));
+                    } catch (ServerErrorException e) {
+                        unavailable.add(hash);
+                    }
+                }
+                return result;
+            }
 
-        // 【核心修复】 防止 OOM (Out Of Memory)
-        // 只有当数据长度很小（例如小于1KB）时，才尝试将其转换为字符串来检查错误信息。
-        // 如果是几百MB的文件数据，直接跳过此检查。
-        if (response.data.length < 1024) {
-            String respStr = new String(response.data, StandardCharsets.UTF_8);
-            if (respStr.startsWith("ERROR_")) {
-                throw new IOException("Server Error: " + respStr);
+            meter.begin(TransferListener.Phase.DOWNLOAD, -1);
+            List<String> pending = new ArrayList<>(new LinkedHashSet<>(hashes));
+            int failures = 0;
+            while (!pending.isEmpty()) {
+                List<String> batch = pending.subList(0, Math.min(GLB_BATCH_SIZE, pending.size()));
+                try {
+                    downloadBatch(context, new ArrayList<>(batch), result, unavailable, meter);
+                    failures = 0;
+                } catch (IOException e) {
+                    // 中断前已写完的模型保留，重试时只请求剩下的
+                    waitBeforeRetry(++failures, e);
+                }
+                pending.removeIf(hash -> result.containsKey(hash) || unavailable.contains(hash));
             }
+            return result;
+        } finally {
+            meter.finish();
         }
+    }
 
-        if (response.data == null || response.data.length == 0) {
+    /**
+     * GET_GLB_BATCH: 请求 ["hash", ...]，响应 [count:4] 后按请求顺序逐个
+     * [hashLen:4][hash][status:1][DataLen:4][data]，status 非 0 时 data 是 ERROR_xxx。
+     * 请求本身无效时 count 为 -1，随后是 [DataLen][ERROR_xxx]。
+     */
+    private void downloadBatch(Context context, List<String> batch, Map<String, File> result,
+                               Set<String> unavailable, TransferMeter meter) throws Exception {
+        transport.exchange(Requests.getGlbBatch(batch), (dis, encoding) -> {
+            int count = Responses.readBatchCount(dis);
+            if (count != batch.size()) throw new IOException("Unexpected batch size: " + count);
+
+            for (int i = 0; i < count; i++) {
+                Responses.BatchEntry entry = Responses.readBatchEntry(dis);
+                ContentEncoding.Body data = ContentEncoding.open(dis, encoding);
+                try {
+                    if (!entry.ok) {
+                        Responses.readError(data, entry.dataLength);
+                        unavailable.add(entry.hash);
+                        continue;
+                    }
+                    // 每个模型收完即落盘，已收到的不会因为后面的中断而丢失
+                    result.put(entry.hash, receiveToFile(context, data, entry.dataLength,
+                            generateFileName(entry.hash + ".glb"), meter));
+                } finally {
+                    data.close();
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 同步服务器上当前用户的模型清单，返回本地还没有的模型，新生成的在前。
+     * 只分页取回上次同步游标之后的新模型，不下载模型本身，需要时再用 getGLBByHash 取回。
+     * 旧服务器不支持 LIST_GLB 时直接返回本地已保存的清单。
+     */
+    public List<RemoteGLB> syncLibrary(Context context) throws Exception {
+        String username = currentUsername;
+        if (transport.supports(Commands.FEATURE_GLB_LIST)) {
+            long cursor = LibraryStore.cursor(context, username);
+            boolean more = true;
+            while (more) {
+                JSONObject page = sendJsonRequest(Requests.listGlb(cursor, GLB_LIST_PAGE_SIZE));
+
+                JSONArray items = page.getJSONArray("items");
+                List<RemoteGLB> glbs = new ArrayList<>();
+                for (int i = 0; i < items.length(); i++) {
+                    glbs.add(RemoteGLB.fromJson(items.getJSONObject(i)));
+                }
+                cursor = page.getLong("cursor");
+                // 每页收到后立即保存，同步中途断开时下次从这里继续
+                LibraryStore.append(context, username, glbs, cursor);
+                more = page.optBoolean("more") && !glbs.isEmpty();
+            }
+        }
+        return LibraryStore.notDownloaded(context, username);
+    }
+
+    /**
+     * 网络诊断：往返延迟分布和上下行带宽，见 NetworkProbe。
+     * 上传的测量与真实上传一样计入上行带宽估计，之后的图片预算随之调整
+     */
+    public NetworkProbe.Report probeNetwork(Context context, int pings, int pingBytes, int transferBytes)
+            throws IOException {
+        NetworkProbe.Report report = new NetworkProbe(transport).run(pings, pingBytes, transferBytes);
+        UplinkEstimator.get(context).record(report.upload.bytes, report.upload.elapsedMs());
+        return report;
+    }
+
+    private File downloadGLB(Context context, String hash, TransferMeter meter) throws Exception {
+        if (!transport.supports(Commands.FEATURE_GLB_RANGE)) return downloadWholeGLB(context, hash, meter);
+
+        File dir = getOutputDir(context);
+        // 以 hash 命名的断点文件，网络中断或 App 被杀后下次获取同一模型时从已有长度继续
+        File partFile = new File(dir, hash + ".glb" + PART_SUFFIX);
+
+        long total = -1;
+        int failures = 0;
+        meter.begin(TransferListener.Phase.DOWNLOAD, -1);
+        while (total < 0 || partFile.length() < total) {
+            long offset = partFile.length();
+            // 已有的断点部分直接计入进度
+            meter.set(offset);
+            // 边收边追加写入断点文件，内存只占用一块缓冲区
+            try (FileOutputStream fos = new FileOutputStream(partFile, true)) {
+                total = new Transfers(transport).downloadGlb(hash, offset, fos, meter);
+                fos.getFD().sync();
+                failures = 0;
+                if (partFile.length() > total) {
+                    // 断点文件与服务器文件不一致，从头开始
+                    partFile.delete();
+                    total = -1;
+                }
+            } catch (IOException e) {
+                // 中断前已收到的分段保留在断点文件中，有进展时不计入连续失败次数
+                if (partFile.length() > offset) failures = 0;
+                waitBeforeRetry(++failures, e);
+            }
+        }
+
+        if (total == 0) {
+            partFile.delete();
             throw new IOException("Server returned empty data");
         }
 
         // 手动构造文件名
-        String finalFileName = generateFileName(hash + ".glb");
-        return saveResponseToFile(context, response.data, finalFileName);
+        File destFile = new File(dir, generateFileName(hash + ".glb"));
+        Files.move(partFile.toPath(), destFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return destFile;
+    }
+
+    /**
+     * GET_GLB: 响应 [DataLen][Data]。旧服务器不支持分段下载，一次取回整个文件，
+     * 流式写入临时文件后重命名；中断后只能从头重新下载
+     */
+    private File downloadWholeGLB(Context context, String hash, TransferMeter meter) throws Exception {
+        return transport.exchange(Requests.getGlb(hash), (dis, encoding) -> {
+            int len = dis.readInt();
+            meter.begin(TransferListener.Phase.DOWNLOAD, len);
+            ContentEncoding.Body data = ContentEncoding.open(dis, encoding);
+            try {
+                return receiveToFile(context, data, len, generateFileName(hash + ".glb"), meter);
+            } finally {
+                data.close();
+            }
+        });
     }
 
     private String generateFileName(String serverProvidedName) {
@@ -145,100 +959,87 @@ public class CommunicationManager {
         return System.currentTimeMillis() + "_" + currentUsername + "_" + hashPart + ".glb";
     }
 
-    private static class ResponseData {
-        String filename;
-        byte[] data;
-
-        ResponseData(String filename, byte[] data) {
-            this.filename = filename;
-            this.data = data;
-        }
+    /**
+     * 生成类响应的解析方式。服务器同意附带阶段计时（见 Commands.FEATURE_TIMING）时一并读取尾部；
+     * 与 FEATURE_JOBS 一样在请求前确定，解析中不能再占用连接去查询
+     */
+    private ResponseReader<File> generationReader(Context context, TransferMeter meter) throws IOException {
+        boolean timing = transport.supports(Commands.FEATURE_TIMING);
+        return (dis, encoding) -> readGenerationResponse(context, dis, encoding, timing, meter);
     }
 
-    private ResponseData sendRequest(byte cmd, byte[] data) throws IOException {
-        Socket socket = null;
-        DataOutputStream dos = null;
-        DataInputStream dis = null;
+    /**
+     * CMD 2/3: [NameLen][Name][DataLen][Data]，启用压缩时只有 Data 按 encoding 编码；
+     * timing 为 true 时之后还有服务器阶段计时 [DataLen][JSON]
+     */
+    private File readGenerationResponse(Context context, DataInputStream dis, String encoding, boolean timing,
+                                        TransferMeter meter) throws IOException {
+        // 请求已发完，在收到第一个字节前都是服务器推理时间
+        meter.begin(TransferListener.Phase.SERVER_WAIT, -1);
+        Responses.Named header = Responses.readNamed(dis);
 
+        // 使用服务器返回的文件名
+        String finalFileName = generateFileName(header.name);
+        meter.begin(TransferListener.Phase.DOWNLOAD, header.dataLength);
+        ContentEncoding.Body data = ContentEncoding.open(dis, encoding);
+        File file;
         try {
-            socket = new Socket(serverIp, serverPort);
-            // 针对大文件下载，适当放宽超时时间，但在socket连接层面由系统控制
-            // socket.setSoTimeout(TIMEOUT);
-
-            dos = new DataOutputStream(socket.getOutputStream());
-            dis = new DataInputStream(socket.getInputStream());
-
-            // 1. 发送请求头
-            dos.writeByte(cmd);
-            dos.writeInt(data.length);
-
-            // 2. 发送请求体
-            dos.write(data);
-            dos.flush();
-
-            // 3. 读取响应
-            String filename = null;
-            byte[] responseData;
-
-            if (cmd == CMD_IMAGE || cmd == CMD_VIDEO) {
-                // CMD 2/3: [NameLen][Name][DataLen][Data]
-                int nameLen = dis.readInt();
-                if (nameLen < 0 || nameLen > 1024) {
-                    throw new IOException("Invalid filename length: " + nameLen);
-                }
-
-                if (nameLen > 0) {
-                    byte[] nameBytes = new byte[nameLen];
-                    dis.readFully(nameBytes);
-                    filename = new String(nameBytes, StandardCharsets.UTF_8);
-                }
+            file = receiveToFile(context, data, header.dataLength, finalFileName, meter);
+        } catch (ServerErrorException e) {
+            // 失败的任务同样附带计时，读完尾部后再报错
+            if (timing) readTimingTrailer(dis, meter);
+            throw e;
+        } finally {
+            data.close();
+        }
+        if (timing) readTimingTrailer(dis, meter);
+        return file;
+    }
 
-                int dataLen = dis.readInt();
-                if (dataLen < 0) {
-                    throw new IOException("Invalid data length: " + dataLen);
-                }
+    private void readTimingTrailer(DataInputStream dis, TransferMeter meter) throws IOException {
+        JSONObject trailer = Responses.readTimingTrailer(dis);
+        StageTrace trace = meter.trace();
+        if (trace != null) trace.addServerStages(trailer);
+    }
 
-                responseData = new byte[dataLen];
-                dis.readFully(responseData);
+    /**
+     * 将长度为 len 的响应体流式写入临时文件，完成后原子重命名为 fileName。
+     * 只在第一块数据中检查 ERROR_ 前缀，内存占用与模型大小无关。
+     */
+    private File receiveToFile(Context context, ContentEncoding.Body data, int len, String fileName,
+                               TransferMeter meter) throws IOException {
+        if (len < 0) {
+            throw new IOException("Invalid data length: " + len);
+        }
+        if (len == 0) {
+            throw new IOException("Server returned empty data");
+        }
 
-            } else {
-                // CMD 1/4: [DataLen][Data]
-                int len = dis.readInt();
-                if (len < 0) throw new IOException("Invalid response length");
+        File dir = getOutputDir(context);
+        File destFile = new File(dir, fileName);
+        File tempFile = new File(dir, fileName + PART_SUFFIX);
 
-                responseData = new byte[len];
-                dis.readFully(responseData);
+        boolean done = false;
+        try {
+            long saveStart;
+            try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+                // 错误信息都是很短的 ERROR_xxx 字符串，只检查第一块数据
+                Responses.copyBodyUnlessError(data, len, fos, meter);
+                saveStart = System.nanoTime();
+                fos.getFD().sync();
             }
-
-            return new ResponseData(filename, responseData);
-
+            Files.move(tempFile.toPath(), destFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            meter.mark(StageTrace.SAVE, saveStart);
+            done = true;
+            return destFile;
         } finally {
-            if (dos != null) dos.close();
-            if (dis != null) dis.close();
-            if (socket != null) socket.close();
-        }
-    }
-
-    private byte[] readFileToBytes(File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file);
-             ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            byte[] buf = new byte[8192];
-            int len;
-            while ((len = fis.read(buf)) != -1) {
-                bos.write(buf, 0, len);
-            }
-            return bos.toByteArray();
+            if (!done) tempFile.delete();
         }
     }
 
-    private File saveResponseToFile(Context context, byte[] data, String fileName) throws IOException {
+    private File getOutputDir(Context context) {
         File dir = context.getExternalFilesDir(null);
         if (dir == null) dir = context.getFilesDir();
-
-        File destFile = new File(dir, fileName);
-        try (FileOutputStream fos = new FileOutputStream(destFile)) {
-            fos.write(data);
-        }
-        return destFile;
+        return dir;
     }
-}
\ No newline at end of file
+}
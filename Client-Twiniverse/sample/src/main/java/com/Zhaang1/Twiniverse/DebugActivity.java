@@ -9,21 +9,34 @@ import android.widget.ScrollView;
 import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.Zhaang1.Twiniverse.protocol.MemoryProbe;
+import com.Zhaang1.Twiniverse.protocol.NetworkProbe;
+import com.Zhaang1.Twiniverse.protocol.StageTrace;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class DebugActivity extends AppCompatActivity {
 
+    // 瀑布图横条的字符宽度
+    private static final int WATERFALL_WIDTH = 30;
+
     private CommunicationManager commManager;
     private TextView tvConsole;
     private ScrollView scrollView;
     private EditText etIp, etPort;
+    private EditText etJavaBudget, etNativeBudget;
+    private EditText etPingCount, etPingBytes, etTransferKb;
     private ExecutorService executorService;
 
     @Override
@@ -31,10 +44,14 @@ public class DebugActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_debug);
 
+        // 调试界面可以指向其他服务器，单独持有实例；底层连接仍由 ConnectionManager 统一复用
         commManager = new CommunicationManager();
         executorService = Executors.newSingleThreadExecutor();
 
+        MemoryBudget.load(this);
+        boolean budgetFromIntent = MemoryBudget.applyExtras(this, getIntent());
         initView();
+        if (budgetFromIntent) appendLog("Memory", describeBudget());
     }
 
     private void initView() {
@@ -47,6 +64,17 @@ public class DebugActivity extends AppCompatActivity {
         Button btnLogin = findViewById(R.id.btn_test_login);
         Button btnImg = findViewById(R.id.btn_test_img);
         Button btnVideo = findViewById(R.id.btn_test_video);
+        Button btnTraces = findViewById(R.id.btn_show_traces);
+        Button btnExport = findViewById(R.id.btn_export_traces);
+        etJavaBudget = findViewById(R.id.et_java_budget);
+        etNativeBudget = findViewById(R.id.et_native_budget);
+        Button btnBudget = findViewById(R.id.btn_save_budget);
+        etJavaBudget.setText(String.valueOf(MemoryBudget.javaMb(this)));
+        etNativeBudget.setText(String.valueOf(MemoryBudget.nativeMb(this)));
+        etPingCount = findViewById(R.id.et_ping_count);
+        etPingBytes = findViewById(R.id.et_ping_bytes);
+        etTransferKb = findViewById(R.id.et_transfer_kb);
+        Button btnProbe = findViewById(R.id.btn_probe_network);
 
         btnSave.setOnClickListener(v -> {
             String ip = etIp.getText().toString().trim();
@@ -107,6 +135,130 @@ public class DebugActivity extends AppCompatActivity {
                 }
             });
         });
+
+        // 最近生成任务的各阶段耗时
+        btnTraces.setOnClickListener(v -> {
+            List<StageTrace> traces = JobTraces.all();
+            if (traces.isEmpty()) {
+                appendLog("Trace", "No generation jobs recorded yet");
+                return;
+            }
+            for (StageTrace trace : traces) {
+                appendLog("Trace", formatWaterfall(trace));
+            }
+        });
+
+        btnExport.setOnClickListener(v -> executorService.execute(() -> {
+            try {
+                File file = JobTraces.export(this);
+                runOnUiThread(() -> appendLog("Trace", "Exported to " + file.getAbsolutePath()));
+            } catch (Exception e) {
+                runOnUiThread(() -> appendLog("Error", e.toString()));
+            }
+        }));
+
+        // 测试模式的内存预算，0 表示不限制
+        btnBudget.setOnClickListener(v -> {
+            MemoryBudget.save(this, parseInt(etJavaBudget, 0), parseInt(etNativeBudget, 0));
+            appendLog("Memory", describeBudget());
+        });
+
+        // 网络诊断：网络正常而生成仍慢时，对照 Traces 中的服务器阶段
+        btnProbe.setOnClickListener(v -> {
+            int pings = parseInt(etPingCount, 20);
+            int pingBytes = parseInt(etPingBytes, 64);
+            int transferBytes = (int) Math.min(NetworkProbe.MAX_TRANSFER_BYTES, parseInt(etTransferKb, 4096) * 1024L);
+            appendLog("Net", "Probing: " + pings + " pings of " + pingBytes + " B, "
+                    + formatMb(transferBytes) + " up and down...");
+            executorService.execute(() -> {
+                try {
+                    NetworkProbe.Report report = commManager.probeNetwork(this, pings, pingBytes, transferBytes);
+                    double uplink = UplinkEstimator.get(this).bytesPerSecond();
+                    runOnUiThread(() -> {
+                        appendLog("Net", formatReport(report));
+                        appendLog("Net", "Uplink estimate now " + formatMb((long) uplink) + "/s");
+                    });
+                } catch (Exception e) {
+                    runOnUiThread(() -> appendLog("Error", e.toString()));
+                }
+            });
+        });
+    }
+
+    private static int parseInt(EditText editText, int fallback) {
+        try {
+            return Integer.parseInt(editText.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static String describeBudget() {
+        long javaBudget = MemoryProbe.javaBudget();
+        long nativeBudget = MemoryProbe.nativeBudget();
+        if (javaBudget == 0 && nativeBudget == 0) return "Budget off";
+        return "Budget on: java " + (javaBudget > 0 ? formatMb(javaBudget) : "unlimited")
+                + ", native " + (nativeBudget > 0 ? formatMb(nativeBudget) : "unlimited");
+    }
+
+    private static String formatMb(long bytes) {
+        return bytes < 0 ? "n/a" : String.format(Locale.US, "%.1f MB", bytes / 1048576.0);
+    }
+
+    /**
+     * 往返延迟分位数，以及上下行吞吐量。上传附上服务器收完请求体的用时，与客户端耗时之差约为一次往返；
+     * 下载附上首字节时间，吞吐量已扣除这段等待
+     */
+    private static String formatReport(NetworkProbe.Report report) {
+        NetworkProbe.Rtt rtt = report.rtt;
+        NetworkProbe.Transfer up = report.upload;
+        NetworkProbe.Transfer down = report.download;
+        return String.format(Locale.US, "RTT %d x %d B: min %.1f / p50 %.1f / p90 %.1f / p99 %.1f / max %.1f ms",
+                rtt.samplesUs.length, rtt.payloadBytes, rtt.minUs() / 1000.0, rtt.percentileUs(50) / 1000.0,
+                rtt.percentileUs(90) / 1000.0, rtt.percentileUs(99) / 1000.0, rtt.maxUs() / 1000.0)
+                + String.format(Locale.US, "\n  up   %s: %s/s (%d ms, server receiving %d ms)",
+                formatMb(up.bytes), formatMb((long) up.bytesPerSecond()), up.elapsedMs(), up.serverUs / 1000)
+                + String.format(Locale.US, "\n  down %s: %s/s (%d ms, first byte %d ms)",
+                formatMb(down.bytes), formatMb((long) down.bytesPerSecond()), down.elapsedMs(), down.firstByteUs / 1000);
+    }
+
+    /**
+     * 文字瀑布图：每个阶段一行，横条是它在整个任务中的起止位置，服务器阶段前标 S。
+     * 多次出现的阶段（例如逐张压缩）显示合并后的范围，并附上实际累计耗时和次数。
+     * 客户端阶段末尾是该阶段采样到的 Java 堆 / native 堆峰值（MB），最后一行是整个任务的峰值
+     */
+    private static String formatWaterfall(StageTrace trace) {
+        List<StageTrace.Span> spans = trace.spans();
+        long end = Math.max(1, trace.totalMs());
+        for (StageTrace.Span span : spans) {
+            end = Math.max(end, span.startMs + span.durationMs);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(trace.kind()).append(' ')
+                .append(new SimpleDateFormat("MM-dd HH:mm:ss", Locale.US).format(new Date(trace.startedAt())));
+        long total = trace.totalMs();
+        sb.append(total >= 0 ? "  total " + total + " ms" : "  running");
+        if (trace.result() != null) sb.append("  -> ").append(trace.result());
+        Map<String, long[]> memory = trace.memory().stagePeaks();
+        for (StageTrace.Span span : spans) {
+            int from = (int) (span.startMs * WATERFALL_WIDTH / end);
+            int to = (int) Math.max(from + 1, (span.startMs + span.durationMs) * WATERFALL_WIDTH / end);
+            char[] bar = new char[WATERFALL_WIDTH];
+            for (int i = 0; i < WATERFALL_WIDTH; i++) {
+                bar[i] = i >= from && i < to ? '#' : '.';
+            }
+            boolean server = StageTrace.SOURCE_SERVER.equals(span.source);
+            sb.append('\n').append(String.format(Locale.US, "  %s %-12s|%s| %6d ms",
+                    server ? "S" : " ", span.name, new String(bar), span.durationMs));
+            if (span.count > 1) sb.append(String.format(Locale.US, " (%d x, busy %d ms)", span.count, span.busyMs));
+            long[] peak = server ? null : memory.get(span.name);
+            if (peak != null) sb.append(String.format(Locale.US, " [%d/%d MB]", peak[0] >> 20, peak[1] >> 20));
+        }
+        MemoryProbe probe = trace.memory();
+        sb.append("\n  mem peak: java ").append(formatMb(probe.javaPeak())).append(" @").append(probe.javaPeakStage())
+                .append(", native ").append(formatMb(probe.nativePeak())).append(" @").append(probe.nativePeakStage());
+        return sb.toString();
     }
 
     private void appendLog(String tag, String msg) {
@@ -7,7 +7,9 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class GLBFileManager {
 
@@ -36,6 +38,18 @@ public class GLBFileManager {
         return result;
     }
 
+    /**
+     * 本地已有的该用户模型的哈希，用于和服务器模型库比对
+     */
+    public static Set<String> getHashesByUser(Context context, String username) {
+        Set<String> result = new HashSet<>();
+        for (String name : getFileListByUser(context, username)) {
+            String hash = getFileNameInHash(name);
+            if (!hash.isEmpty()) result.add(hash);
+        }
+        return result;
+    }
+
     /**
      * 获取指定用户最新的GLB文件
      * @param context 上下文
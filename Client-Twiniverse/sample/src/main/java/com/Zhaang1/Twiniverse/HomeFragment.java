@@ -1,6 +1,7 @@
 package com.Zhaang1.Twiniverse;
 
 import android.annotation.SuppressLint;
+import android.app.Activity;
 import android.app.Dialog;
 import android.content.Intent;
 import android.graphics.Color;
@@ -38,7 +39,12 @@ import androidx.constraintlayout.widget.ConstraintLayout;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
 
+import com.Zhaang1.Twiniverse.protocol.RequestFuture;
+import com.Zhaang1.Twiniverse.protocol.StageTrace;
+import com.Zhaang1.Twiniverse.protocol.TransferListener;
+
 import java.io.File;
+import java.util.concurrent.CancellationException;
 
 public class HomeFragment extends Fragment {
 
@@ -61,6 +67,10 @@ public class HomeFragment extends Fragment {
 
     private SharedViewModel sharedViewModel;
     private CommunicationManager communicationManager;
+    private RequestFuture<File> glbFuture;
+    // 刚生成的模型首次显示时，把 Babylon 加载耗时补记到生成任务的 StageTrace 中
+    private volatile StageTrace renderTrace;
+    private volatile long renderStart;
 
     private boolean isRenameMode = false;
     private File currentGlbFile = null;
@@ -90,7 +100,7 @@ public class HomeFragment extends Fragment {
         btnSourceCamera = view.findViewById(R.id.btn_source_camera);
         btnSourceFile = view.findViewById(R.id.btn_source_file);
 
-        communicationManager = new CommunicationManager();
+        communicationManager = CommunicationManager.getInstance();
 
         setupWebView();
         setupClickListeners(view);
@@ -256,39 +266,33 @@ public class HomeFragment extends Fragment {
 
         loadingDialog.show();
 
-        new Thread(() -> {
-            try {
-                File glbFile = communicationManager.getGLBByHash(getContext(), hash);
-
-                if (getActivity() != null) {
-                    getActivity().runOnUiThread(() -> {
-                        handler.removeCallbacks(dotRunnable);
-                        loadingDialog.dismiss();
-
-                        if (glbFile != null && glbFile.exists()) {
-                            String originalHash = GLBFileManager.getFileNameInHash(glbFile.getName());
-                            GLBFileManager.renameFile(getContext(), glbFile, "NewGLBFile", currentUsername, originalHash);
-
-                            showCustomToast("获取成功");
-                            loadLatestModel();
-                        } else {
-                            showCustomToast("获取失败：文件不存在");
-                        }
-                    });
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                if (getActivity() != null) {
-                    getActivity().runOnUiThread(() -> {
-                        handler.removeCallbacks(dotRunnable);
-                        loadingDialog.dismiss();
-                        String msg = e.getMessage();
-                        if (msg == null) msg = "网络错误";
-                        showCustomToast("获取失败: " + msg);
-                    });
-                }
+        // 实时显示下载进度
+        TransferListener progress = (phase, done, total, rate) -> {
+            String text = TransferListener.describe(phase, done, total, rate);
+            handler.post(() -> tvTitle.setText(text));
+        };
+        glbFuture = communicationManager.getGLBByHashAsync(requireContext().getApplicationContext(), hash, progress);
+        glbFuture.whenComplete((glbFile, error) -> handler.post(() -> {
+            handler.removeCallbacks(dotRunnable);
+            loadingDialog.dismiss();
+            // 页面已销毁时请求已被取消，不再更新界面
+            if (error instanceof CancellationException || getContext() == null) return;
+
+            if (error != null) {
+                error.printStackTrace();
+                String msg = error.getMessage();
+                if (msg == null) msg = "网络错误";
+                showCustomToast("获取失败: " + msg);
+            } else if (glbFile != null && glbFile.exists()) {
+                String originalHash = GLBFileManager.getFileNameInHash(glbFile.getName());
+                GLBFileManager.renameFile(getContext(), glbFile, "NewGLBFile", currentUsername, originalHash);
+
+                showCustomToast("获取成功");
+                loadLatestModel();
+            } else {
+                showCustomToast("获取失败：文件不存在");
             }
-        }).start();
+        }));
     }
 
     private void showVipDialog() {
@@ -409,15 +413,28 @@ public class HomeFragment extends Fragment {
             currentGlbFile = null;
             webView.loadUrl("about:blank");
             webView.setBackgroundColor(Color.parseColor("#0F1115"));
+            reportFullyDrawn();
         }
     }
 
+    /**
+     * 首页内容显示完整（模型加载完成，或没有模型），启动耗时统计据此给出 timeToFullDisplay。只有第一次调用有效
+     */
+    private void reportFullyDrawn() {
+        Activity activity = getActivity();
+        if (activity != null) activity.reportFullyDrawn();
+    }
+
     private void load3DModel(File file) {
         this.currentGlbFile = file;
 
         String userDefinedName = GLBFileManager.getFileNameInUser(file.getName());
         etGlbName.setText(userDefinedName);
 
+        StageTrace trace = JobTraces.forModel(GLBFileManager.getFileNameInHash(file.getName()));
+        renderTrace = trace != null && !trace.hasStage(StageTrace.RENDER) ? trace : null;
+        renderStart = System.nanoTime();
+
         String fileUri = "file://" + file.getAbsolutePath();
         String html = getHTMLContent(fileUri);
 
@@ -523,7 +540,12 @@ public class HomeFragment extends Fragment {
 
     private class AndroidJsBridge {
         @JavascriptInterface
-        public void onModelLoaded() {}
+        public void onModelLoaded() {
+            StageTrace trace = renderTrace;
+            renderTrace = null;
+            if (trace != null) trace.recordSince(StageTrace.RENDER, renderStart);
+            webView.post(HomeFragment.this::reportFullyDrawn);
+        }
         @JavascriptInterface
         public void log(String msg) { Log.i(TAG, "JS_LOG: " + msg); }
     }
@@ -551,6 +573,11 @@ public class HomeFragment extends Fragment {
 
     @Override
     public void onDestroyView() {
+        // 断开仍在进行的下载，释放连接和线程
+        if (glbFuture != null) {
+            glbFuture.cancel(true);
+            glbFuture = null;
+        }
         if (webView != null) {
             webView.destroy();
             webView = null;
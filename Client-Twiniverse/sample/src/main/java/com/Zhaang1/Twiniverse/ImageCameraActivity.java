@@ -8,11 +8,8 @@ import android.annotation.SuppressLint;
 import android.app.Dialog;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.drawable.ColorDrawable;
-import android.media.ExifInterface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -40,13 +37,16 @@ import androidx.camera.view.PreviewView;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.Zhaang1.Twiniverse.imaging.ImageCompressor;
+import com.Zhaang1.Twiniverse.imaging.Thumbnails;
+import com.Zhaang1.Twiniverse.protocol.RequestFuture;
+import com.Zhaang1.Twiniverse.protocol.TransferListener;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -75,6 +75,7 @@ public class ImageCameraActivity extends AppCompatActivity {
 
     // Managers
     private CommunicationManager communicationManager;
+    private RequestFuture<File> uploadFuture;
     private String currentUsername = "guest";
 
     @Override
@@ -95,7 +96,7 @@ public class ImageCameraActivity extends AppCompatActivity {
         thumbWidthB = thumbWidthA / 2;
         thumbHeightB = thumbHeightA / 2;
 
-        communicationManager = new CommunicationManager();
+        communicationManager = CommunicationManager.getInstance();
         String user = getIntent().getStringExtra("USERNAME");
         if(user != null) currentUsername = user;
 
@@ -182,7 +183,7 @@ public class ImageCameraActivity extends AppCompatActivity {
         imageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
 
         // 修复问题2：加载并自动旋转图片，同时进行采样以防止 OOM
-        Bitmap bitmap = loadRotatedThumbnail(file, thumbWidthA, thumbHeightA);
+        Bitmap bitmap = Thumbnails.loadRotatedThumbnail(file, thumbWidthA, thumbHeightA);
         imageView.setImageBitmap(bitmap);
 
         View overlay = new View(this);
@@ -200,67 +201,6 @@ public class ImageCameraActivity extends AppCompatActivity {
         containerThumbnails.addView(itemLayout);
     }
 
-    /**
-     * 读取图片并根据 EXIF 信息旋转，且优化内存占用
-     */
-    private Bitmap loadRotatedThumbnail(File file, int reqWidth, int reqHeight) {
-        try {
-            // 1. 获取图片尺寸，计算缩放比例 (inSampleSize)
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BitmapFactory.decodeFile(file.getAbsolutePath(), options);
-
-            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-            options.inJustDecodeBounds = false;
-
-            // 2. 解码图片 (低内存版)
-            Bitmap bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
-            if (bmp == null) return null;
-
-            // 3. 读取 EXIF 旋转信息
-            ExifInterface exif = new ExifInterface(file.getAbsolutePath());
-            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-
-            int rotationAngle = 0;
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_90: rotationAngle = 90; break;
-                case ExifInterface.ORIENTATION_ROTATE_180: rotationAngle = 180; break;
-                case ExifInterface.ORIENTATION_ROTATE_270: rotationAngle = 270; break;
-            }
-
-            // 4. 如果需要旋转，创建新的旋转后 Bitmap
-            if (rotationAngle != 0) {
-                Matrix matrix = new Matrix();
-                matrix.postRotate(rotationAngle);
-                Bitmap rotatedBmp = Bitmap.createBitmap(bmp, 0, 0, bmp.getWidth(), bmp.getHeight(), matrix, true);
-                if (rotatedBmp != bmp) {
-                    bmp.recycle(); // 回收旧图
-                }
-                return rotatedBmp;
-            }
-            return bmp;
-
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-
-        if (height > reqHeight || width > reqWidth) {
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
-            while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
-                inSampleSize *= 2;
-            }
-        }
-        return inSampleSize;
-    }
-
     /**
      * 处理长按删除逻辑 (修复版)
      */
@@ -457,72 +397,46 @@ public class ImageCameraActivity extends AppCompatActivity {
             };
             handler.post(dotRunnable);
 
-            new Thread(() -> {
-                try {
-                    List<File> compressedFiles = compressImages(capturedImages);
-
-                    communicationManager.setCurrentUsername(currentUsername);
-                    File glbFile = communicationManager.genByImage(ImageCameraActivity.this, compressedFiles);
-
-                    runOnUiThread(() -> {
-                        handler.removeCallbacks(dotRunnable);
-                        dialog.dismiss();
+            // 实时显示上传 / 等待服务器 / 下载进度
+            TransferListener progress = (phase, done, total, rate) -> {
+                String text = TransferListener.describe(phase, done, total, rate);
+                handler.post(() -> tvTitle.setText(text));
+            };
 
-                        if (glbFile != null && glbFile.exists()) {
-                            String oldName = glbFile.getName();
-                            String hash = GLBFileManager.getFileNameInHash(oldName);
-                            GLBFileManager.renameFile(ImageCameraActivity.this, glbFile, "NewGLBFile", currentUsername, hash);
-                            showCustomToast("生成成功");
-                        }
+            communicationManager.setCurrentUsername(currentUsername);
+            // 压缩与上传流水线进行：上传一张的同时压缩下一张；压缩目标按最近测得的上行带宽确定
+            List<File> sourceFiles = new ArrayList<>(capturedImages);
+            long budget = communicationManager.imageUploadBudget(ImageCameraActivity.this, sourceFiles.size());
+            uploadFuture = communicationManager.genByImageAsync(ImageCameraActivity.this, sourceFiles,
+                    new ImageCompressor(getExternalFilesDir(null), "compressed_", budget)::process, progress);
+            uploadFuture.whenComplete((glbFile, error) -> runOnUiThread(() -> {
+                handler.removeCallbacks(dotRunnable);
+                // 界面已销毁时请求已被取消，不再更新界面
+                if (error instanceof CancellationException || isDestroyed()) return;
+                dialog.dismiss();
+
+                if (error != null) {
+                    error.printStackTrace();
+                    String errorMsg = error.getMessage();
+                    if (errorMsg == null) errorMsg = "网络连接中断 (EOF)";
+                    showCustomToast("上传失败: " + errorMsg);
+                    return;
+                }
 
-                        finish();
-                    });
-
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    runOnUiThread(() -> {
-                        handler.removeCallbacks(dotRunnable);
-                        dialog.dismiss();
-                        String errorMsg = e.getMessage();
-                        if (errorMsg == null) {
-                            errorMsg = "网络连接中断 (EOF)";
-                        }
-                        showCustomToast("上传失败: " + errorMsg);
-                    });
+                if (glbFile != null && glbFile.exists()) {
+                    String oldName = glbFile.getName();
+                    String hash = GLBFileManager.getFileNameInHash(oldName);
+                    GLBFileManager.renameFile(ImageCameraActivity.this, glbFile, "NewGLBFile", currentUsername, hash);
+                    showCustomToast("生成成功");
                 }
-            }).start();
+
+                finish();
+            }));
         });
 
         dialog.show();
     }
 
-    private List<File> compressImages(List<File> originals) {
-        List<File> compressed = new ArrayList<>();
-        for (File file : originals) {
-            File compFile = file;
-            long size = file.length();
-            if (size > 1024 * 1024) {
-                try {
-                    Bitmap bmp = BitmapFactory.decodeFile(file.getAbsolutePath());
-                    File temp = new File(getExternalFilesDir(null), "compressed_" + file.getName());
-                    int quality = 90;
-                    do {
-                        FileOutputStream fos = new FileOutputStream(temp);
-                        bmp.compress(Bitmap.CompressFormat.JPEG, quality, fos);
-                        fos.close();
-                        quality -= 10;
-                    } while (temp.length() > 1024 * 1024 && quality > 10);
-                    compFile = temp;
-                    bmp.recycle();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-            compressed.add(compFile);
-        }
-        return compressed;
-    }
-
     private void showCustomToast(String message) {
         Toast toast = Toast.makeText(this, message, Toast.LENGTH_SHORT);
         TextView tv = new TextView(this);
@@ -538,6 +452,8 @@ public class ImageCameraActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // 关闭上传连接，不让后台任务在界面销毁后继续占用线程和带宽
+        if (uploadFuture != null) uploadFuture.cancel(true);
         if (cameraExecutor != null) {
             cameraExecutor.shutdown();
         }
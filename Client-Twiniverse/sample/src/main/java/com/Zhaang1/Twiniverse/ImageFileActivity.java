@@ -7,7 +7,6 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.net.Uri;
@@ -36,10 +35,15 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.viewpager2.widget.ViewPager2;
 
+import com.Zhaang1.Twiniverse.imaging.ImageCompressor;
+import com.Zhaang1.Twiniverse.imaging.Thumbnails;
+import com.Zhaang1.Twiniverse.protocol.RequestFuture;
+import com.Zhaang1.Twiniverse.protocol.TransferListener;
+
 import java.io.File;
-import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -65,6 +69,7 @@ public class ImageFileActivity extends AppCompatActivity {
 
     // Managers
     private CommunicationManager communicationManager;
+    private RequestFuture<File> uploadFuture;
     private String currentUsername = "guest";
     private ExecutorService executorService;
 
@@ -73,7 +78,7 @@ public class ImageFileActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_image_file);
 
-        communicationManager = new CommunicationManager();
+        communicationManager = CommunicationManager.getInstance();
         String user = getIntent().getStringExtra("USERNAME");
         if (user != null) currentUsername = user;
 
@@ -265,7 +270,7 @@ public class ImageFileActivity extends AppCompatActivity {
             void loadThumbnail(String path) {
                 ivThumb.post(() -> {
                     executorService.execute(() -> {
-                        Bitmap bmp = decodeSampledBitmap(path, itemSize, itemSize);
+                        Bitmap bmp = Thumbnails.decodeSampledBitmap(path, itemSize, itemSize);
                         ivThumb.post(() -> ivThumb.setImageBitmap(bmp));
                     });
                 });
@@ -300,7 +305,7 @@ public class ImageFileActivity extends AppCompatActivity {
                 int h = containerPreview.getHeight();
                 if(w==0) w=1080; if(h==0) h=1920;
 
-                Bitmap bmp = decodeSampledBitmap(item.path, w, h);
+                Bitmap bmp = Thumbnails.decodeSampledBitmap(item.path, w, h);
                 holder.zoomImageView.post(() -> {
                     holder.zoomImageView.setImageBitmap(bmp);
                     holder.zoomImageView.resetZoom();
@@ -332,29 +337,6 @@ public class ImageFileActivity extends AppCompatActivity {
         ImageItem(Uri uri, String path) { this.uri = uri; this.path = path; }
     }
 
-    private Bitmap decodeSampledBitmap(String path, int reqWidth, int reqHeight) {
-        final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(path, options);
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFile(path, options);
-    }
-
-    private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-        if (height > reqHeight || width > reqWidth) {
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
-            while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
-                inSampleSize *= 2;
-            }
-        }
-        return inSampleSize;
-    }
-
     // --- Dialogs & Upload Logic ---
 
     private void showExitDialog() {
@@ -429,72 +411,48 @@ public class ImageFileActivity extends AppCompatActivity {
             };
             handler.post(dotRunnable);
 
-            new Thread(() -> {
-                try {
-                    List<File> sourceFiles = new ArrayList<>();
-                    for(ImageItem item : selectedImages) sourceFiles.add(new File(item.path));
-
-                    List<File> compressedFiles = compressImages(sourceFiles);
-
-                    communicationManager.setCurrentUsername(currentUsername);
-                    File glbFile = communicationManager.genByImage(ImageFileActivity.this, compressedFiles);
-
-                    runOnUiThread(() -> {
-                        handler.removeCallbacks(dotRunnable);
-                        dialog.dismiss();
+            // 实时显示上传 / 等待服务器 / 下载进度
+            TransferListener progress = (phase, done, total, rate) -> {
+                String text = TransferListener.describe(phase, done, total, rate);
+                handler.post(() -> tvTitle.setText(text));
+            };
 
-                        if (glbFile != null && glbFile.exists()) {
-                            String oldName = glbFile.getName();
-                            String hash = GLBFileManager.getFileNameInHash(oldName);
-                            GLBFileManager.renameFile(ImageFileActivity.this, glbFile, "NewGLBFile", currentUsername, hash);
-                            showCustomToast("生成成功");
-                        }
-                        finish();
-                    });
+            communicationManager.setCurrentUsername(currentUsername);
+            List<File> sourceFiles = new ArrayList<>();
+            for(ImageItem item : selectedImages) sourceFiles.add(new File(item.path));
+
+            // 压缩与上传流水线进行：上传一张的同时压缩下一张；压缩目标按最近测得的上行带宽确定
+            long budget = communicationManager.imageUploadBudget(ImageFileActivity.this, sourceFiles.size());
+            uploadFuture = communicationManager.genByImageAsync(ImageFileActivity.this, sourceFiles,
+                    new ImageCompressor(getExternalCacheDir(), "upload_temp_", budget)::process, progress);
+            uploadFuture.whenComplete((glbFile, error) -> runOnUiThread(() -> {
+                handler.removeCallbacks(dotRunnable);
+                // 界面已销毁时请求已被取消，不再更新界面
+                if (error instanceof CancellationException || isDestroyed()) return;
+                dialog.dismiss();
+
+                if (error != null) {
+                    error.printStackTrace();
+                    String msg = error.getMessage();
+                    if (msg == null) msg = "网络连接中断";
+                    showCustomToast("上传失败: " + msg);
+                    return;
+                }
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    runOnUiThread(() -> {
-                        handler.removeCallbacks(dotRunnable);
-                        dialog.dismiss();
-                        String msg = e.getMessage();
-                        if(msg == null) msg = "网络连接中断";
-                        showCustomToast("上传失败: " + msg);
-                    });
+                if (glbFile != null && glbFile.exists()) {
+                    String oldName = glbFile.getName();
+                    String hash = GLBFileManager.getFileNameInHash(oldName);
+                    GLBFileManager.renameFile(ImageFileActivity.this, glbFile, "NewGLBFile", currentUsername, hash);
+                    showCustomToast("生成成功");
                 }
-            }).start();
+
+                finish();
+            }));
         });
 
         dialog.show();
     }
 
-    private List<File> compressImages(List<File> originals) {
-        List<File> compressed = new ArrayList<>();
-        for (File file : originals) {
-            File compFile = file;
-            long size = file.length();
-            if (size > 1024 * 1024) {
-                try {
-                    Bitmap bmp = BitmapFactory.decodeFile(file.getAbsolutePath());
-                    File temp = new File(getExternalCacheDir(), "upload_temp_" + file.getName());
-                    int quality = 90;
-                    do {
-                        FileOutputStream fos = new FileOutputStream(temp);
-                        bmp.compress(Bitmap.CompressFormat.JPEG, quality, fos);
-                        fos.close();
-                        quality -= 10;
-                    } while (temp.length() > 1024 * 1024 && quality > 10);
-                    compFile = temp;
-                    bmp.recycle();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-            compressed.add(compFile);
-        }
-        return compressed;
-    }
-
     private void showCustomToast(String message) {
         Toast toast = Toast.makeText(this, message, Toast.LENGTH_SHORT);
         TextView tv = new TextView(this);
@@ -510,6 +468,8 @@ public class ImageFileActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // 关闭上传连接，不让后台任务在界面销毁后继续占用线程和带宽
+        if (uploadFuture != null) uploadFuture.cancel(true);
         if (executorService != null) executorService.shutdown();
     }
 }
\ No newline at end of file
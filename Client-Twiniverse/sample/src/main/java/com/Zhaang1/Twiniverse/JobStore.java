@@ -0,0 +1,46 @@
+package com.Zhaang1.Twiniverse;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已提交、尚未取回结果的生成任务，以任务 ID -> 用户名保存在 SharedPreferences 中。
+ * 等待结果时 App 被杀或网络中断，下次启动后据此向服务器取回模型（见 CommunicationManager.resumeJobs）。
+ */
+final class JobStore {
+
+    private static final String PREFS_NAME = "twiniverse_jobs";
+
+    private JobStore() {
+    }
+
+    /**
+     * 同步写入：提交后进程随时可能被杀，不能等后台落盘
+     */
+    static void add(Context context, String jobId, String username) {
+        prefs(context).edit().putString(jobId, username).commit();
+    }
+
+    static void remove(Context context, String jobId) {
+        prefs(context).edit().remove(jobId).commit();
+    }
+
+    /**
+     * 该用户提交的、仍待取回的任务 ID
+     */
+    static List<String> pending(Context context, String username) {
+        List<String> jobs = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : prefs(context).getAll().entrySet()) {
+            if (username.equals(entry.getValue())) jobs.add(entry.getKey());
+        }
+        return jobs;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,85 @@
+package com.Zhaang1.Twiniverse;
+
+import android.content.Context;
+
+import com.Zhaang1.Twiniverse.protocol.StageTrace;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 最近若干次生成任务的阶段耗时（StageTrace）组成的环形缓冲区，超出 CAPACITY 时丢弃最旧的。
+ * 只保存在内存中，由 DebugActivity 显示为瀑布图，或导出为 JSON 文件后用 adb 取出分析。
+ */
+final class JobTraces {
+
+    private static final int CAPACITY = 32;
+    private static final String EXPORT_DIR = "traces";
+
+    private static final ArrayDeque<StageTrace> TRACES = new ArrayDeque<>(CAPACITY);
+
+    private JobTraces() {
+    }
+
+    static synchronized void add(StageTrace trace) {
+        if (TRACES.size() == CAPACITY) TRACES.removeFirst();
+        TRACES.addLast(trace);
+    }
+
+    /**
+     * 所有记录，最新的在前
+     */
+    static synchronized List<StageTrace> all() {
+        List<StageTrace> traces = new ArrayList<>(TRACES.size());
+        Iterator<StageTrace> it = TRACES.descendingIterator();
+        while (it.hasNext()) traces.add(it.next());
+        return traces;
+    }
+
+    /**
+     * 生成了该模型的最近一次任务，用于补记界面上的加载耗时；没有记录时返回 null
+     */
+    static synchronized StageTrace forModel(String hash) {
+        if (hash == null) return null;
+        Iterator<StageTrace> it = TRACES.descendingIterator();
+        while (it.hasNext()) {
+            StageTrace trace = it.next();
+            if (hash.equals(trace.result())) return trace;
+        }
+        return null;
+    }
+
+    static JSONArray toJson() throws JSONException {
+        JSONArray array = new JSONArray();
+        for (StageTrace trace : all()) {
+            array.put(trace.toJson());
+        }
+        return array;
+    }
+
+    /**
+     * 写入 <外部文件目录>/traces/job_traces_<时间戳>.json，返回写出的文件
+     */
+    static File export(Context context) throws IOException, JSONException {
+        File dir = context.getExternalFilesDir(EXPORT_DIR);
+        if (dir == null) dir = new File(context.getFilesDir(), EXPORT_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+
+        File file = new File(dir, "job_traces_" + System.currentTimeMillis() + ".json");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(toJson().toString(2));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,77 @@
+package com.Zhaang1.Twiniverse;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 服务器模型库的本地副本：每个用户一份清单（hash -> RemoteGLB）和 LIST_GLB 游标，保存在 SharedPreferences 中。
+ * 同步时只取游标之后新生成的模型（见 CommunicationManager.syncLibrary），
+ * 重装 App 后游标丢失，第一次同步会取回完整清单。
+ */
+final class LibraryStore {
+
+    private static final String PREFS_NAME = "twiniverse_library";
+    private static final String KEY_CURSOR = "cursor_";
+    private static final String KEY_MANIFEST = "manifest_";
+
+    private LibraryStore() {
+    }
+
+    static long cursor(Context context, String username) {
+        return prefs(context).getLong(KEY_CURSOR + username, 0);
+    }
+
+    /**
+     * 把一页清单并入本地副本，并把游标推进到这一页末尾。两者一起写入，
+     * 同步中途断开时下次从已保存的那一页之后继续
+     */
+    static synchronized void append(Context context, String username, List<RemoteGLB> page, long cursor)
+            throws JSONException {
+        JSONObject manifest = manifest(context, username);
+        for (RemoteGLB glb : page) {
+            manifest.put(glb.hash, glb.toJson());
+        }
+        prefs(context).edit()
+                .putString(KEY_MANIFEST + username, manifest.toString())
+                .putLong(KEY_CURSOR + username, cursor)
+                .commit();
+    }
+
+    /**
+     * 清单中本地还没有的模型，新生成的在前
+     */
+    static synchronized List<RemoteGLB> notDownloaded(Context context, String username) {
+        Set<String> local = GLBFileManager.getHashesByUser(context, username);
+        List<RemoteGLB> result = new ArrayList<>();
+        try {
+            JSONObject manifest = manifest(context, username);
+            for (Iterator<String> it = manifest.keys(); it.hasNext(); ) {
+                String hash = it.next();
+                if (!local.contains(hash)) result.add(RemoteGLB.fromJson(manifest.getJSONObject(hash)));
+            }
+        } catch (JSONException e) {
+            // 清单损坏时当作为空，清除游标，下次同步重新取回完整清单
+            prefs(context).edit().remove(KEY_MANIFEST + username).remove(KEY_CURSOR + username).commit();
+            return new ArrayList<>();
+        }
+        result.sort((a, b) -> Long.compare(b.createdAt, a.createdAt));
+        return result;
+    }
+
+    private static JSONObject manifest(Context context, String username) throws JSONException {
+        String stored = prefs(context).getString(KEY_MANIFEST + username, null);
+        return stored == null ? new JSONObject() : new JSONObject(stored);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
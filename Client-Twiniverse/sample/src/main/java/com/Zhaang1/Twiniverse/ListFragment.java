@@ -7,6 +7,8 @@ import android.content.Context;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.DisplayMetrics;
 import android.view.Gravity;
@@ -28,6 +30,8 @@ import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.Zhaang1.Twiniverse.protocol.RequestFuture;
+import com.Zhaang1.Twiniverse.protocol.TransferListener;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 
 import java.io.File;
@@ -35,8 +39,11 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 public class ListFragment extends Fragment {
 
@@ -44,11 +51,20 @@ public class ListFragment extends Fragment {
     private TextView tvEmpty;
     private FileAdapter adapter;
     private List<File> fileList = new ArrayList<>();
+    // 服务器模型库中本地还没有的模型，排在本地文件之后，点击时才下载
+    private List<RemoteGLB> remoteList = new ArrayList<>();
     private SharedViewModel sharedViewModel;
     private String currentUsername = "";
 
     private PopupWindow currentPopupWindow;
 
+    private final CommunicationManager communicationManager = CommunicationManager.getInstance();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private RequestFuture<List<RemoteGLB>> syncFuture;
+    // 正在下载的云端模型：hash -> 请求，以及显示在列表项上的进度
+    private final Map<String, RequestFuture<File>> downloads = new HashMap<>();
+    private final Map<String, String> downloadProgress = new HashMap<>();
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
@@ -88,6 +104,7 @@ public class ListFragment extends Fragment {
             if (account != null) {
                 this.currentUsername = account;
                 refreshFileList();
+                syncLibrary();
             }
         });
     }
@@ -97,7 +114,42 @@ public class ListFragment extends Fragment {
         super.onResume();
         if(!TextUtils.isEmpty(currentUsername)) {
             refreshFileList();
+            syncLibrary();
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        // 断开仍在进行的同步和下载，释放连接和线程
+        if (syncFuture != null) {
+            syncFuture.cancel(true);
+            syncFuture = null;
+        }
+        for (RequestFuture<File> download : downloads.values()) {
+            download.cancel(true);
         }
+        downloads.clear();
+        downloadProgress.clear();
+        handler.removeCallbacksAndMessages(null);
+        super.onDestroyView();
+    }
+
+    /**
+     * 从服务器增量同步模型清单，只取上次同步之后新生成的模型，完成后刷新列表
+     */
+    private void syncLibrary() {
+        if (getContext() == null || (syncFuture != null && !syncFuture.isDone())) return;
+        communicationManager.setCurrentUsername(currentUsername);
+        syncFuture = communicationManager.syncLibraryAsync(getContext().getApplicationContext());
+        syncFuture.whenComplete((glbs, error) -> handler.post(() -> {
+            if (error instanceof CancellationException || getContext() == null) return;
+            // 同步失败时仍显示上次同步的清单，不打扰用户
+            if (error != null) {
+                error.printStackTrace();
+                return;
+            }
+            refreshFileList();
+        }));
     }
 
     private void refreshFileList() {
@@ -114,7 +166,10 @@ public class ListFragment extends Fragment {
 
         Collections.sort(fileList, (f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified()));
 
-        if (fileList.isEmpty()) {
+        remoteList.clear();
+        remoteList.addAll(LibraryStore.notDownloaded(getContext(), currentUsername));
+
+        if (fileList.isEmpty() && remoteList.isEmpty()) {
             tvEmpty.setVisibility(View.VISIBLE);
             recyclerView.setVisibility(View.GONE);
         } else {
@@ -152,6 +207,10 @@ public class ListFragment extends Fragment {
 
         @Override
         public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            if (position >= fileList.size()) {
+                bindRemote(holder, remoteList.get(position - fileList.size()));
+                return;
+            }
             File file = fileList.get(position);
 
             String userDefinedName = GLBFileManager.getFileNameInUser(file.getName());
@@ -162,6 +221,7 @@ public class ListFragment extends Fragment {
 
             holder.tvName.setText(userDefinedName);
             holder.tvDate.setText(dateStr);
+            holder.btnMore.setVisibility(View.VISIBLE);
 
             holder.btnMore.setOnClickListener(v -> {
                 showPopupMenu(v, file, userDefinedName, hash);
@@ -172,9 +232,26 @@ public class ListFragment extends Fragment {
             });
         }
 
+        /**
+         * 云端模型：显示生成时间和大小，没有菜单，点击后下载并在主页显示
+         */
+        private void bindRemote(ViewHolder holder, RemoteGLB glb) {
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+            String status = downloadProgress.get(glb.hash);
+            if (status == null) {
+                status = String.format(Locale.getDefault(), "云端 %.1fMB，点击下载", glb.size / 1024.0 / 1024.0);
+            }
+
+            holder.tvName.setText("NewGLBFile");
+            holder.tvDate.setText(sdf.format(new Date(glb.createdAt)) + "  " + status);
+            holder.btnMore.setVisibility(View.GONE);
+            holder.btnMore.setOnClickListener(null);
+            holder.itemView.setOnClickListener(v -> downloadAndShow(glb));
+        }
+
         @Override
         public int getItemCount() {
-            return fileList.size();
+            return fileList.size() + remoteList.size();
         }
 
         public void closeAllMenus() {
@@ -259,6 +336,49 @@ public class ListFragment extends Fragment {
 
     // --- Actions ---
 
+    private void downloadAndShow(RemoteGLB glb) {
+        if (getContext() == null || downloads.containsKey(glb.hash)) return;
+
+        TransferListener progress = (phase, done, total, rate) -> {
+            String text = TransferListener.describe(phase, done, total, rate);
+            handler.post(() -> showDownloadProgress(glb, text));
+        };
+        showDownloadProgress(glb, "正在下载");
+        RequestFuture<File> future = communicationManager.getGLBByHashAsync(
+                getContext().getApplicationContext(), glb.hash, progress);
+        downloads.put(glb.hash, future);
+        future.whenComplete((glbFile, error) -> handler.post(() -> {
+            // 页面已销毁时请求已被取消，不再更新界面
+            if (error instanceof CancellationException || getContext() == null) return;
+            downloads.remove(glb.hash);
+            downloadProgress.remove(glb.hash);
+
+            if (error != null) {
+                error.printStackTrace();
+                String msg = error.getMessage();
+                if (msg == null) msg = "网络错误";
+                showCustomToast("下载失败: " + msg);
+                adapter.notifyDataSetChanged();
+                return;
+            }
+            String newName = "NewGLBFile_" + currentUsername + "_" + glb.hash + ".glb";
+            GLBFileManager.renameFile(getContext(), glbFile, "NewGLBFile", currentUsername, glb.hash);
+            refreshFileList();
+            jumpToHomeAndShow(GLBFileManager.getFileByName(getContext(), newName));
+        }));
+    }
+
+    private void showDownloadProgress(RemoteGLB glb, String text) {
+        downloadProgress.put(glb.hash, text);
+        // 同步完成后列表会重建，按哈希查找当前位置
+        for (int i = 0; i < remoteList.size(); i++) {
+            if (remoteList.get(i).hash.equals(glb.hash)) {
+                adapter.notifyItemChanged(fileList.size() + i);
+                return;
+            }
+        }
+    }
+
     private void copyToClipboard(String text) {
         if (getContext() == null) return;
         ClipboardManager clipboard = (ClipboardManager) getContext().getSystemService(Context.CLIPBOARD_SERVICE);
@@ -22,6 +22,9 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import android.view.Gravity;
 
+import com.Zhaang1.Twiniverse.protocol.RequestFuture;
+import com.Zhaang1.Twiniverse.protocol.TransferListener;
+
 public class LoginActivity extends AppCompatActivity {
 
     private EditText etAccount, etPassword;
@@ -30,14 +33,14 @@ public class LoginActivity extends AppCompatActivity {
     private Button btnLogin;
     private ProgressBar progressBar; // 新增进度条
 
-    private CommunicationManager communicationManager = new CommunicationManager();
+    private CommunicationManager communicationManager = CommunicationManager.getInstance();
 
     private static final long ANIM_DURATION = 160L;
 
-    // 用于更新进度的 Handler
+    // 把 I/O 线程上的进度回调切回主线程
     private final Handler progressHandler = new Handler(Looper.getMainLooper());
-    private Runnable progressRunnable;
-    private long startTime;
+
+    private RequestFuture<boolean[]> loginFuture;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,88 +72,55 @@ public class LoginActivity extends AppCompatActivity {
                 btnLogin.setEnabled(false);
                 btnLogin.getBackground().setColorFilter(Color.GRAY, PorterDuff.Mode.MULTIPLY);
 
-                // 2. 开始进度条动画
-                startProgressAnimation();
-
-                // 3. 在后台线程执行耗时网络请求，防止阻塞 UI (导致进度条不走)
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // 执行登录
-                        // skip login
-//                        boolean[] results = {true, true};
-                        // normal login
-
-                        boolean[] results = {false, false};
-                        try {
-                            results = communicationManager.login(account, password);
-                        } catch (Exception e) {
-                            results[0] = false;
-                            results[1] = true;
-                        }
-
-                        // 回到主线程处理结果
-                        boolean[] finalResults = results;
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                handleLoginResult(finalResults);
-                            }
-                        });
-                    }
-                }).start();
+                // 2. 显示进度条
+                startProgress();
+
+                // 3. 在共享 I/O 线程池中执行耗时网络请求，防止阻塞 UI (导致进度条不走)
+                // skip login
+//                handleLoginResult(new boolean[]{true, true});
+                // normal login
+                loginFuture = communicationManager.loginAsync(account, password,
+                        (phase, done, total, rate) -> progressHandler.post(() -> updateProgress(phase, done, total)));
+                loginFuture.whenComplete((results, error) -> runOnUiThread(() -> {
+                    // 界面已销毁（请求随之被取消）时不再处理结果
+                    if (isDestroyed()) return;
+                    // 网络或服务器异常: [false, true]
+                    handleLoginResult(error == null ? results : new boolean[]{false, true});
+                }));
             }
         });
     }
 
     /**
-     * 启动模拟进度条逻辑
-     * 0.5s -> 60%
-     * 1.0s -> 80%
-     * 2.0s -> 95%
+     * 显示进度条，之后由登录请求的实际传输阶段推进
      */
-    private void startProgressAnimation() {
+    private void startProgress() {
         progressBar.setVisibility(View.VISIBLE);
         progressBar.setProgress(0);
-        startTime = System.currentTimeMillis();
-
-        progressRunnable = new Runnable() {
-            @Override
-            public void run() {
-                long elapsed = System.currentTimeMillis() - startTime;
-                int targetProgress;
-
-                if (elapsed <= 500) {
-                    // 0~0.5s: 0% -> 60%
-                    targetProgress = (int) (60 * (elapsed / 500.0f));
-                } else if (elapsed <= 1000) {
-                    // 0.5s~1s: 60% -> 80%
-                    targetProgress = 60 + (int) (20 * ((elapsed - 500) / 500.0f));
-                } else if (elapsed <= 2000) {
-                    // 1s~2s: 80% -> 95%
-                    targetProgress = 80 + (int) (15 * ((elapsed - 1000) / 1000.0f));
-                } else {
-                    // >2s: 保持 95%
-                    targetProgress = 95;
-                }
-
-                progressBar.setProgress(targetProgress);
+    }
 
-                // 如果还没满，继续刷新 (约 60fps)
-                if (progressBar.getProgress() < 100) {
-                    progressHandler.postDelayed(this, 16);
-                }
-            }
-        };
-        progressHandler.post(progressRunnable);
+    /**
+     * 按实际阶段更新进度：上传 0~40%，等待服务器 50%，接收响应 60~100%
+     */
+    private void updateProgress(TransferListener.Phase phase, long done, long total) {
+        int target;
+        if (phase == TransferListener.Phase.UPLOAD) {
+            target = total > 0 ? (int) (40 * done / total) : 0;
+        } else if (phase == TransferListener.Phase.SERVER_WAIT) {
+            target = 50;
+        } else {
+            target = 60 + (total > 0 ? (int) (40 * done / total) : 0);
+        }
+        // 进度只前进不后退（重连重试时字节数会回退）
+        progressBar.setProgress(Math.max(progressBar.getProgress(), target));
     }
 
     /**
      * 处理登录结果
      */
     private void handleLoginResult(boolean[] results) {
-        // 停止模拟进度的 Runnable
-        progressHandler.removeCallbacks(progressRunnable);
+        // 丢弃尚未执行的进度更新
+        progressHandler.removeCallbacksAndMessages(null);
         // 立即设置进度为 100%
         progressBar.setProgress(100);
 
@@ -283,5 +253,9 @@ public class LoginActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         progressHandler.removeCallbacksAndMessages(null);
+        // 关闭连接，不让后台请求在界面销毁后继续占用线程
+        if (loginFuture != null) {
+            loginFuture.cancel(true);
+        }
     }
 }
\ No newline at end of file
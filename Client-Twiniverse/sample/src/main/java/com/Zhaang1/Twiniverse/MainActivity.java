@@ -2,6 +2,7 @@ package com.Zhaang1.Twiniverse;
 
 import android.os.Bundle;
 import android.view.MenuItem;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
@@ -9,19 +10,23 @@ import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentTransaction;
 import androidx.lifecycle.ViewModelProvider;
 
+import com.Zhaang1.Twiniverse.protocol.RequestFuture;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.google.android.material.navigation.NavigationBarView;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
     List<Fragment> list = new ArrayList<>();
     BottomNavigationView bottomNavigationView;
+    private RequestFuture<List<File>> resumeFuture;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        MemoryBudget.load(this);
 
         boolean isVIP = getIntent().getBooleanExtra("ISVIP", false);
         String account = getIntent().getStringExtra("ACCOUNT");
@@ -59,8 +64,30 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        resumePendingJobs(account);
+    }
 
+    /**
+     * 取回上次未等到结果的生成任务（App 被杀或生成界面提前关闭），模型保存到列表中
+     */
+    private void resumePendingJobs(String account) {
+        CommunicationManager communicationManager = CommunicationManager.getInstance();
+        communicationManager.setCurrentUsername(account);
+        resumeFuture = communicationManager.resumeJobsAsync(getApplicationContext());
+        resumeFuture.whenComplete((files, error) -> runOnUiThread(() -> {
+            if (error != null || isDestroyed() || files.isEmpty()) return;
+            for (File glbFile : files) {
+                String hash = GLBFileManager.getFileNameInHash(glbFile.getName());
+                GLBFileManager.renameFile(this, glbFile, "NewGLBFile", account, hash);
+            }
+            Toast.makeText(this, "已取回 " + files.size() + " 个后台生成的模型", Toast.LENGTH_SHORT).show();
+        }));
+    }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (resumeFuture != null) resumeFuture.cancel(true);
     }
 
     private void showFragment(Fragment fragment){
@@ -0,0 +1,66 @@
+package com.Zhaang1.Twiniverse;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Debug;
+
+import com.Zhaang1.Twiniverse.protocol.MemoryProbe;
+
+/**
+ * 内存采样的 App 端配置：为 MemoryProbe 提供 native 堆的读数，并从 SharedPreferences 加载测试模式的预算。
+ * 预算在 DebugActivity 中设置，自动化测试也可以在启动 DebugActivity 时带上 EXTRA_JAVA_MB / EXTRA_NATIVE_MB：
+ * adb shell am start -n com.Zhaang1.Twiniverse/.DebugActivity --ei java_budget_mb 96 --ei native_budget_mb 256
+ * 之后超出预算的生成任务都以 MemoryBudgetExceededException 失败。两项都为 0 时关闭测试模式。
+ */
+final class MemoryBudget {
+
+    static final String EXTRA_JAVA_MB = "java_budget_mb";
+    static final String EXTRA_NATIVE_MB = "native_budget_mb";
+
+    private static final String PREFS_NAME = "twiniverse_memory";
+    private static final String KEY_JAVA_MB = "java_budget_mb";
+    private static final String KEY_NATIVE_MB = "native_budget_mb";
+    private static final long MB = 1024 * 1024;
+
+    private MemoryBudget() {
+    }
+
+    /**
+     * App 启动时调用一次（MainActivity / DebugActivity），重复调用无害
+     */
+    static void load(Context context) {
+        MemoryProbe.setNativeHeapSampler(Debug::getNativeHeapAllocatedSize);
+        SharedPreferences prefs = prefs(context);
+        MemoryProbe.setBudget(prefs.getInt(KEY_JAVA_MB, 0) * MB, prefs.getInt(KEY_NATIVE_MB, 0) * MB);
+    }
+
+    /**
+     * 保存并立即生效
+     */
+    static void save(Context context, int javaMb, int nativeMb) {
+        prefs(context).edit().putInt(KEY_JAVA_MB, Math.max(0, javaMb)).putInt(KEY_NATIVE_MB, Math.max(0, nativeMb)).apply();
+        load(context);
+    }
+
+    /**
+     * Intent 中带有预算时保存，返回是否带有
+     */
+    static boolean applyExtras(Context context, Intent intent) {
+        if (intent == null || !(intent.hasExtra(EXTRA_JAVA_MB) || intent.hasExtra(EXTRA_NATIVE_MB))) return false;
+        save(context, intent.getIntExtra(EXTRA_JAVA_MB, javaMb(context)), intent.getIntExtra(EXTRA_NATIVE_MB, nativeMb(context)));
+        return true;
+    }
+
+    static int javaMb(Context context) {
+        return prefs(context).getInt(KEY_JAVA_MB, 0);
+    }
+
+    static int nativeMb(Context context) {
+        return prefs(context).getInt(KEY_NATIVE_MB, 0);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,38 @@
+package com.Zhaang1.Twiniverse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 服务器模型库中的一个模型（LIST_GLB 返回的一项），本地不一定已下载
+ */
+public class RemoteGLB {
+
+    public final String hash;
+    // 服务器生成时记录的文件名，例如 images_1700000000.glb
+    public final String name;
+    public final long size;
+    // 生成时间，毫秒时间戳
+    public final long createdAt;
+
+    RemoteGLB(String hash, String name, long size, long createdAt) {
+        this.hash = hash;
+        this.name = name;
+        this.size = size;
+        this.createdAt = createdAt;
+    }
+
+    static RemoteGLB fromJson(JSONObject json) throws JSONException {
+        return new RemoteGLB(json.getString("hash"), json.optString("name", ""),
+                json.optLong("size", 0), json.optLong("created_at", 0));
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("hash", hash);
+        json.put("name", name);
+        json.put("size", size);
+        json.put("created_at", createdAt);
+        return json;
+    }
+}
@@ -0,0 +1,79 @@
+package com.Zhaang1.Twiniverse;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * 上行带宽估计：对过去各次上传测得的吞吐量做指数加权移动平均（EWMA），保存在 SharedPreferences 中，
+ * App 重启后仍可用。用户可能已从 Wi-Fi 切到移动网络，超过 STALE_MS 没有新样本的估计不再使用。
+ * 图片上传前据此为每张图片分配字节预算（见 imageBudget），慢速网络上压得更小，快速网络上保持原图。
+ */
+class UplinkEstimator {
+
+    private static final String PREFS_NAME = "twiniverse_network";
+    private static final String KEY_RATE = "uplink_rate";
+    private static final String KEY_UPDATED_AT = "uplink_updated_at";
+
+    private static final double EWMA_ALPHA = 0.3;
+    // 太小的上传主要耗在握手和往返延迟上，测不出带宽
+    private static final long MIN_SAMPLE_BYTES = 256 * 1024;
+    private static final long STALE_MS = 60 * 60 * 1000;
+
+    // 一次图片任务的目标上传时间
+    private static final long TARGET_UPLOAD_MS = 8000;
+    // 每张图片的预算上下限：下限约为 VGGT 输入分辨率下的一张高质量 JPEG，上限足以容纳手机原图
+    static final long MIN_IMAGE_BYTES = 200 * 1024;
+    static final long MAX_IMAGE_BYTES = 8 * 1024 * 1024;
+    // 还没有测量数据时沿用以前固定的 1MB
+    static final long DEFAULT_IMAGE_BYTES = 1024 * 1024;
+
+    private static UplinkEstimator instance;
+
+    private final SharedPreferences prefs;
+    private double rate;
+    private long updatedAt;
+
+    private UplinkEstimator(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        rate = prefs.getFloat(KEY_RATE, 0);
+        updatedAt = prefs.getLong(KEY_UPDATED_AT, 0);
+    }
+
+    static synchronized UplinkEstimator get(Context context) {
+        if (instance == null) instance = new UplinkEstimator(context.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * 记录一次上传：bytes 字节用时 millis 毫秒，只应传入上传本身是瓶颈的测量
+     */
+    synchronized void record(long bytes, long millis) {
+        if (bytes < MIN_SAMPLE_BYTES || millis <= 0) return;
+        double sample = bytes * 1000.0 / millis;
+        long now = System.currentTimeMillis();
+        rate = isFresh(now) ? EWMA_ALPHA * sample + (1 - EWMA_ALPHA) * rate : sample;
+        updatedAt = now;
+        prefs.edit().putFloat(KEY_RATE, (float) rate).putLong(KEY_UPDATED_AT, updatedAt).apply();
+    }
+
+    /**
+     * 当前估计的上行吞吐量（字节/秒），没有可用估计时为 0
+     */
+    synchronized double bytesPerSecond() {
+        return isFresh(System.currentTimeMillis()) ? rate : 0;
+    }
+
+    /**
+     * count 张图片时每张的字节预算：按估计带宽在 TARGET_UPLOAD_MS 内传完，限制在上下限之间
+     */
+    long imageBudget(int count) {
+        double current = bytesPerSecond();
+        if (current <= 0 || count <= 0) return DEFAULT_IMAGE_BYTES;
+        long budget = (long) (current * TARGET_UPLOAD_MS / 1000 / count);
+        return Math.max(MIN_IMAGE_BYTES, Math.min(MAX_IMAGE_BYTES, budget));
+    }
+
+    private boolean isFresh(long now) {
+        return rate > 0 && now - updatedAt < STALE_MS;
+    }
+}
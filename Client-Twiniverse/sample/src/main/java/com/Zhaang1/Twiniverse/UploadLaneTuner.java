@@ -0,0 +1,52 @@
+package com.Zhaang1.Twiniverse;
+
+/**
+ * 并行上传路数的自适应选择。按路数分别记录最近几次上传的总吞吐量（EWMA），
+ * 选吞吐量最高的路数，比它多一路的情况还没测过时试探一次。
+ * 单条 TCP 在高延迟链路上受拥塞窗口限制时多开几路会明显更快；
+ * 上行已经跑满时多开无益，测得的吞吐量不再提高，就停在较少的路数上。
+ */
+class UploadLaneTuner {
+
+    private static final int INITIAL_LANES = 2;
+    private static final double EWMA_ALPHA = 0.5;
+    // 多开一路至少要快 10% 才采用，避免在测量噪声上来回切换
+    private static final double MIN_GAIN = 1.1;
+
+    private final int maxLanes;
+    // 下标为路数，0 表示尚未测过
+    private final double[] rates;
+
+    UploadLaneTuner(int maxLanes) {
+        this.maxLanes = maxLanes;
+        this.rates = new double[maxLanes + 1];
+    }
+
+    /**
+     * 本次上传使用的路数，不超过待上传文件数
+     */
+    synchronized int choose(int files) {
+        int best = 0;
+        for (int lanes = 1; lanes <= maxLanes; lanes++) {
+            if (rates[lanes] == 0) continue;
+            if (best == 0 || rates[lanes] > rates[best] * (lanes > best ? MIN_GAIN : 1)) {
+                best = lanes;
+            }
+        }
+        int chosen;
+        if (best == 0) {
+            chosen = INITIAL_LANES;
+        } else if (best < maxLanes && rates[best + 1] == 0) {
+            chosen = best + 1;
+        } else {
+            chosen = best;
+        }
+        return Math.max(1, Math.min(chosen, Math.min(files, maxLanes)));
+    }
+
+    synchronized void record(int lanes, long bytes, long millis) {
+        if (lanes < 1 || lanes > maxLanes || millis <= 0) return;
+        double sample = bytes * 1000.0 / millis;
+        rates[lanes] = rates[lanes] == 0 ? sample : EWMA_ALPHA * sample + (1 - EWMA_ALPHA) * rates[lanes];
+    }
+}
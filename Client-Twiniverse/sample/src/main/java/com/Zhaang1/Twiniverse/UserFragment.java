@@ -104,6 +104,9 @@ public class UserFragment extends Fragment {
     private void performLogout() {
         if (getActivity() == null) return;
 
+        // 断开共享的长连接并丢弃登录凭据
+        CommunicationManager.getInstance().logout();
+
         // 跳转回 LoginActivity
         Intent intent = new Intent(getActivity(), LoginActivity.class);
         // 清空任务栈，防止用户按返回键回到主界面
@@ -35,9 +35,12 @@ import androidx.camera.view.PreviewView;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.Zhaang1.Twiniverse.protocol.RequestFuture;
+import com.Zhaang1.Twiniverse.protocol.TransferListener;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.File;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -67,6 +70,7 @@ public class VideoCameraActivity extends AppCompatActivity {
 
     // Managers
     private CommunicationManager communicationManager;
+    private RequestFuture<File> uploadFuture;
     private String currentUsername = "guest";
 
     @Override
@@ -74,7 +78,7 @@ public class VideoCameraActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_video_camera);
 
-        communicationManager = new CommunicationManager();
+        communicationManager = CommunicationManager.getInstance();
         String user = getIntent().getStringExtra("USERNAME");
         if (user != null) currentUsername = user;
 
@@ -302,42 +306,43 @@ public class VideoCameraActivity extends AppCompatActivity {
             };
             handler.post(dotRunnable);
 
-            new Thread(() -> {
-                try {
-                    communicationManager.setCurrentUsername(currentUsername);
-                    // 直接上传 videoFile
-                    File glbFile = communicationManager.genByVideo(VideoCameraActivity.this, videoFile);
-
-                    runOnUiThread(() -> {
-                        handler.removeCallbacks(dotRunnable);
-                        dialog.dismiss();
-
-                        if (glbFile != null && glbFile.exists()) {
-                            String oldName = glbFile.getName();
-                            String hash = GLBFileManager.getFileNameInHash(oldName);
-                            GLBFileManager.renameFile(VideoCameraActivity.this, glbFile, "NewGLBFile", currentUsername, hash);
-                            showCustomToast("生成成功");
-                        }
+            // 实时显示上传 / 等待服务器 / 下载进度
+            TransferListener progress = (phase, done, total, rate) -> {
+                String text = TransferListener.describe(phase, done, total, rate);
+                handler.post(() -> tvTitle.setText(text));
+            };
 
-                        // 删除源视频以释放空间
-                        if (videoFile != null && videoFile.exists()) {
-                            videoFile.delete();
-                        }
+            communicationManager.setCurrentUsername(currentUsername);
+            // 直接上传 videoFile
+            uploadFuture = communicationManager.genByVideoAsync(VideoCameraActivity.this, videoFile, progress);
+            uploadFuture.whenComplete((glbFile, error) -> runOnUiThread(() -> {
+                handler.removeCallbacks(dotRunnable);
+                // 界面已销毁时请求已被取消，不再更新界面
+                if (error instanceof CancellationException || isDestroyed()) return;
+                dialog.dismiss();
+
+                if (error != null) {
+                    error.printStackTrace();
+                    String errorMsg = error.getMessage();
+                    if (errorMsg == null) errorMsg = "网络连接中断 (EOF)";
+                    showCustomToast("上传失败: " + errorMsg);
+                    return;
+                }
+
+                if (glbFile != null && glbFile.exists()) {
+                    String oldName = glbFile.getName();
+                    String hash = GLBFileManager.getFileNameInHash(oldName);
+                    GLBFileManager.renameFile(VideoCameraActivity.this, glbFile, "NewGLBFile", currentUsername, hash);
+                    showCustomToast("生成成功");
+                }
 
-                        finish();
-                    });
-
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    runOnUiThread(() -> {
-                        handler.removeCallbacks(dotRunnable);
-                        dialog.dismiss();
-                        String errorMsg = e.getMessage();
-                        if (errorMsg == null) errorMsg = "网络连接中断 (EOF)";
-                        showCustomToast("上传失败: " + errorMsg);
-                    });
+                // 删除源视频以释放空间
+                if (videoFile != null && videoFile.exists()) {
+                    videoFile.delete();
                 }
-            }).start();
+
+                finish();
+            }));
         });
 
         dialog.show();
@@ -380,6 +385,8 @@ public class VideoCameraActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // 关闭上传连接，不让后台任务在界面销毁后继续占用线程和带宽
+        if (uploadFuture != null) uploadFuture.cancel(true);
         if (cameraExecutor != null) {
             cameraExecutor.shutdown();
         }
@@ -36,9 +36,13 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.viewpager2.widget.ViewPager2;
 
+import com.Zhaang1.Twiniverse.protocol.RequestFuture;
+import com.Zhaang1.Twiniverse.protocol.TransferListener;
+
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -58,6 +62,7 @@ public class VideoFileActivity extends AppCompatActivity {
     private VideoPreviewAdapter previewAdapter;
 
     private CommunicationManager communicationManager;
+    private RequestFuture<File> uploadFuture;
     private String currentUsername = "guest";
     private ExecutorService executorService;
 
@@ -66,7 +71,7 @@ public class VideoFileActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_video_file);
 
-        communicationManager = new CommunicationManager();
+        communicationManager = CommunicationManager.getInstance();
         String user = getIntent().getStringExtra("USERNAME");
         if (user != null) currentUsername = user;
 
@@ -458,35 +463,37 @@ public class VideoFileActivity extends AppCompatActivity {
             };
             handler.post(dotRunnable);
 
-            new Thread(() -> {
-                try {
-                    communicationManager.setCurrentUsername(currentUsername);
-                    File glbFile = communicationManager.genByVideo(VideoFileActivity.this, new File(selectedVideo.path));
-
-                    runOnUiThread(() -> {
-                        handler.removeCallbacks(dotRunnable);
-                        dialog.dismiss();
+            // 实时显示上传 / 等待服务器 / 下载进度
+            TransferListener progress = (phase, done, total, rate) -> {
+                String text = TransferListener.describe(phase, done, total, rate);
+                handler.post(() -> tvTitle.setText(text));
+            };
 
-                        if (glbFile != null && glbFile.exists()) {
-                            String oldName = glbFile.getName();
-                            String hash = GLBFileManager.getFileNameInHash(oldName);
-                            GLBFileManager.renameFile(VideoFileActivity.this, glbFile, "NewGLBFile", currentUsername, hash);
-                            Toast.makeText(VideoFileActivity.this, "生成成功", Toast.LENGTH_SHORT).show();
-                        }
-                        finish();
-                    });
+            communicationManager.setCurrentUsername(currentUsername);
+            uploadFuture = communicationManager.genByVideoAsync(VideoFileActivity.this, new File(selectedVideo.path), progress);
+            uploadFuture.whenComplete((glbFile, error) -> runOnUiThread(() -> {
+                handler.removeCallbacks(dotRunnable);
+                // 界面已销毁时请求已被取消，不再更新界面
+                if (error instanceof CancellationException || isDestroyed()) return;
+                dialog.dismiss();
+
+                if (error != null) {
+                    error.printStackTrace();
+                    String msg = error.getMessage();
+                    if (msg == null) msg = "网络连接中断";
+                    Toast.makeText(VideoFileActivity.this, "上传失败: " + msg, Toast.LENGTH_SHORT).show();
+                    return;
+                }
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    runOnUiThread(() -> {
-                        handler.removeCallbacks(dotRunnable);
-                        dialog.dismiss();
-                        String msg = e.getMessage();
-                        if(msg == null) msg = "网络连接中断";
-                        Toast.makeText(VideoFileActivity.this, "上传失败: " + msg, Toast.LENGTH_SHORT).show();
-                    });
+                if (glbFile != null && glbFile.exists()) {
+                    String oldName = glbFile.getName();
+                    String hash = GLBFileManager.getFileNameInHash(oldName);
+                    GLBFileManager.renameFile(VideoFileActivity.this, glbFile, "NewGLBFile", currentUsername, hash);
+                    Toast.makeText(VideoFileActivity.this, "生成成功", Toast.LENGTH_SHORT).show();
                 }
-            }).start();
+
+                finish();
+            }));
         });
 
         dialog.show();
@@ -495,6 +502,8 @@ public class VideoFileActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // 关闭上传连接，不让后台任务在界面销毁后继续占用线程和带宽
+        if (uploadFuture != null) uploadFuture.cancel(true);
         if (executorService != null) executorService.shutdown();
     }
 }
\ No newline at end of file
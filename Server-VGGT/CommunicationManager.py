@@ -3,7 +3,12 @@ import threading
 import struct
 import json
 import time
+import uuid
 import os
+import re
+import hashlib
+import tempfile
+import zlib
 
 # Configuration
 HOST = '0.0.0.0'
@@ -13,6 +18,57 @@ PORT = 4567
 BASE_DIR = os.path.dirname(os.path.abspath(__file__))
 DEMO_GLB_IMG = os.path.join(BASE_DIR, 'demo1.glb')
 DEMO_GLB_VID = os.path.join(BASE_DIR, 'demo2.glb')
+UPLOAD_DIR = os.path.join(BASE_DIR, 'uploads')
+BLOB_DIR = os.path.join(BASE_DIR, 'blobs')
+
+# Commands
+CMD_LOGIN = 1
+CMD_IMAGE = 2
+CMD_VIDEO = 3
+CMD_GET_GLB = 4
+CMD_UPLOAD_OPEN = 5
+CMD_UPLOAD_CHUNK = 6
+CMD_UPLOAD_QUERY = 7
+CMD_UPLOAD_COMMIT = 8
+CMD_GET_GLB_RANGE = 9
+CMD_BLOB_QUERY = 10
+CMD_BLOB_PUT = 11
+CMD_IMAGE_BY_HASH = 12
+CMD_HELLO = 13
+CMD_GET_GLB_BATCH = 14
+CMD_JOB_SUBMIT = 15
+CMD_JOB_STATUS = 16
+CMD_JOB_RESULT = 17
+CMD_LIST_GLB = 18
+CMD_ECHO = 19
+CMD_SINK = 20
+CMD_SOURCE = 21
+
+# Protocol v2 framing (see Manager.py): [type:1][streamId:4][len:4][payload]
+PROTOCOL_VERSION = 2
+FRAME_HEADERS = 1
+FRAME_DATA = 2
+FRAME_END = 3
+FRAME_RESET = 4
+FRAME_WINDOW = 5
+MUX_FRAME_MAX = 64 * 1024
+
+# Response compression (see Manager.py); the stand-in only speaks deflate
+ENCODE_BLOCK = 256 * 1024
+
+# Simulated inference time for generation commands, e.g. GEN_DELAY=5
+GEN_DELAY = float(os.environ.get('GEN_DELAY', '0'))
+
+GLB_RANGE_MAX = 8 * 1024 * 1024
+GLB_BATCH_MAX = 256
+GLB_LIST_MAX = 200
+DIAG_ECHO_MAX = 64 * 1024
+DIAG_SOURCE_MAX = 64 * 1024 * 1024
+JOB_WAIT_MAX_MS = 30 * 1000
+HASH_RE = re.compile(r'^[A-Za-z0-9_-]{1,128}$')
+
+UPLOAD_ID_RE = re.compile(r'^[0-9a-f]{64}$')
+upload_lock = threading.Lock()
 
 
 def get_timestamp_str():
@@ -98,9 +154,574 @@ def genByVideoRequest(data_bytes):
         return b''
 
 
+# --- GLB download: any <hash>.glb next to this script (demo1 / demo2) ---
+
+def find_glb(hashed):
+    if not HASH_RE.match(hashed):
+        return None
+    path = os.path.join(BASE_DIR, hashed + '.glb')
+    return path if os.path.exists(path) else None
+
+
+def getGLBRequest(data_bytes):
+    path = find_glb(data_bytes.decode('utf-8', errors='replace').strip())
+    if path is None:
+        return b'ERROR_HASH_NOT_FOUND'
+    with open(path, 'rb') as f:
+        return f.read()
+
+
+def getGLBRangeRequest(data_bytes):
+    if len(data_bytes) < 12:
+        return struct.pack('>q', -1) + b'ERROR_INVALID_RANGE'
+    offset, length = struct.unpack('>qI', data_bytes[:12])
+    path = find_glb(data_bytes[12:].decode('utf-8', errors='replace').strip())
+    if path is None:
+        return struct.pack('>q', -1) + b'ERROR_HASH_NOT_FOUND'
+    total = os.path.getsize(path)
+    with open(path, 'rb') as f:
+        f.seek(min(max(offset, 0), total))
+        data = f.read(min(length, GLB_RANGE_MAX))
+    return struct.pack('>q', total) + data
+
+
+def getGLBBatchResponse(data_bytes, encoding):
+    """["hash", ...] -> [count] + per entry [hashLen][hash][status][len][data]; status 0 = ok, 1 = error"""
+    try:
+        hashes = json.loads(data_bytes.decode('utf-8'))
+        if not isinstance(hashes, list) or len(hashes) > GLB_BATCH_MAX:
+            raise ValueError
+    except Exception:
+        msg = b'ERROR_INVALID_PAYLOAD'
+        return struct.pack('>iI', -1, len(msg)) + msg
+    out = [struct.pack('>i', len(hashes))]
+    for hashed in hashes:
+        hash_bytes = str(hashed).encode('utf-8')
+        path = find_glb(str(hashed).strip())
+        if path is None:
+            status, data = 1, b'ERROR_HASH_NOT_FOUND'
+        else:
+            with open(path, 'rb') as f:
+                status, data = 0, f.read()
+        out.append(struct.pack('>I', len(hash_bytes)) + hash_bytes + struct.pack('>BI', status, len(data))
+                   + encode_data(data, encoding))
+    return b''.join(out)
+
+
+def listGLBRequest(data_bytes):
+    """{"cursor": n, "limit": n} -> {"items": [...], "cursor": n, "more": bool}; every .glb here counts as the user's"""
+    try:
+        req = json.loads(data_bytes.decode('utf-8')) if data_bytes else {}
+        cursor = int(req.get('cursor') or 0)
+        limit = max(1, min(int(req.get('limit') or GLB_LIST_MAX), GLB_LIST_MAX))
+    except Exception:
+        return b'ERROR_INVALID_PAYLOAD'
+    # ids are positions in creation order, standing in for glb_files.id
+    names = [n for n in os.listdir(BASE_DIR) if n.endswith('.glb') and HASH_RE.match(n[:-4])]
+    paths = sorted((os.path.join(BASE_DIR, n) for n in names), key=lambda p: (os.path.getmtime(p), p))
+    page = list(enumerate(paths, start=1))[cursor:cursor + limit]
+    items = [{'hash': os.path.basename(p)[:-4], 'name': os.path.basename(p), 'size': os.path.getsize(p),
+              'created_at': int(os.path.getmtime(p) * 1000)} for _, p in page]
+    next_cursor = page[-1][0] if page else cursor
+    return json.dumps({'items': items, 'cursor': next_cursor, 'more': next_cursor < len(paths)}).encode('utf-8')
+
+
+# --- Network diagnostics (same protocol as Manager.py); SOURCE data is never compressed ---
+
+DIAG_BLOCK = os.urandom(MUX_FRAME_MAX)
+
+
+def echoRequest(data_bytes):
+    return b'ERROR_INVALID_PAYLOAD' if len(data_bytes) > DIAG_ECHO_MAX else data_bytes
+
+
+def sinkRequest(data_bytes, recv_ms):
+    return json.dumps({'bytes': len(data_bytes), 'recv_ms': round(recv_ms, 1)}).encode('utf-8')
+
+
+def sourceRequest(data_bytes):
+    """{"size": n} -> n random bytes"""
+    try:
+        size = int(json.loads(data_bytes.decode('utf-8'))['size'])
+    except Exception:
+        return b'ERROR_INVALID_PAYLOAD'
+    if not 0 <= size <= DIAG_SOURCE_MAX:
+        return b'ERROR_INVALID_PAYLOAD'
+    return (DIAG_BLOCK * (size // len(DIAG_BLOCK) + 1))[:size]
+
+
+# --- Resumable upload (same protocol as Manager.py, without user isolation) ---
+
+def upload_paths(upload_id):
+    return (os.path.join(UPLOAD_DIR, upload_id + '.part'),
+            os.path.join(UPLOAD_DIR, upload_id + '.json'))
+
+
+def committed_offset(part_path):
+    return os.path.getsize(part_path) if os.path.exists(part_path) else 0
+
+
+def uploadOpenRequest(data_bytes):
+    try:
+        req = json.loads(data_bytes.decode('utf-8'))
+        total = int(req['size'])
+        upload_id = str(req['sha256']).lower()
+    except Exception:
+        return b'ERROR_INVALID_UPLOAD'
+    if total <= 0 or not UPLOAD_ID_RE.match(upload_id):
+        return b'ERROR_INVALID_UPLOAD'
+
+    part_path, meta_path = upload_paths(upload_id)
+    with upload_lock:
+        os.makedirs(UPLOAD_DIR, exist_ok=True)
+        meta = None
+        if os.path.exists(meta_path):
+            with open(meta_path, 'r') as f:
+                meta = json.load(f)
+        if meta is None or meta.get('size') != total or committed_offset(part_path) > total:
+            with open(meta_path, 'w') as f:
+                json.dump({'size': total, 'sha256': upload_id}, f)
+            open(part_path, 'wb').close()
+        offset = committed_offset(part_path)
+    print(f"[*] Upload session {upload_id[:12]}: {offset}/{total} bytes committed")
+    return json.dumps({'id': upload_id, 'offset': offset}).encode('utf-8')
+
+
+def uploadChunkRequest(data_bytes):
+    if len(data_bytes) < 12:
+        return b'ERROR_INVALID_CHUNK'
+    offset, id_len = struct.unpack('>QI', data_bytes[:12])
+    upload_id = data_bytes[12:12 + id_len].decode('utf-8', errors='replace')
+    chunk = data_bytes[12 + id_len:]
+    if not UPLOAD_ID_RE.match(upload_id):
+        return b'ERROR_INVALID_CHUNK'
+
+    part_path, meta_path = upload_paths(upload_id)
+    with upload_lock:
+        if not os.path.exists(meta_path):
+            return b'ERROR_UPLOAD_NOT_FOUND'
+        with open(meta_path, 'r') as f:
+            total = json.load(f)['size']
+        committed = committed_offset(part_path)
+        if offset <= committed < offset + len(chunk):
+            start = committed - offset
+            end = min(len(chunk), start + total - committed)
+            with open(part_path, 'ab') as f:
+                f.write(chunk[start:end])
+            committed = committed_offset(part_path)
+    return json.dumps({'offset': committed}).encode('utf-8')
+
+
+def uploadQueryRequest(data_bytes):
+    upload_id = data_bytes.decode('utf-8', errors='replace').strip()
+    part_path, meta_path = upload_paths(upload_id)
+    if not UPLOAD_ID_RE.match(upload_id) or not os.path.exists(meta_path):
+        return b'ERROR_UPLOAD_NOT_FOUND'
+    return json.dumps({'offset': committed_offset(part_path)}).encode('utf-8')
+
+
+def uploadCommitRequest(data_bytes):
+    """Returns (response_data, target_filename) like the CMD 2/3 handlers."""
+    try:
+        req = json.loads(data_bytes.decode('utf-8'))
+        upload_id = str(req['id']).lower()
+        kind = req['kind']
+    except Exception:
+        return b'ERROR_INVALID_UPLOAD', "NullName"
+    part_path, meta_path = upload_paths(upload_id)
+    if not UPLOAD_ID_RE.match(upload_id) or not os.path.exists(meta_path):
+        return b'ERROR_UPLOAD_NOT_FOUND', "NullName"
+
+    with upload_lock:
+        with open(meta_path, 'r') as f:
+            total = json.load(f)['size']
+        if committed_offset(part_path) != total:
+            return b'ERROR_UPLOAD_INCOMPLETE', "NullName"
+        sha = hashlib.sha256()
+        with open(part_path, 'rb') as f:
+            for block in iter(lambda: f.read(1024 * 1024), b''):
+                sha.update(block)
+        if sha.hexdigest() != upload_id:
+            os.remove(part_path)
+            os.remove(meta_path)
+            return b'ERROR_UPLOAD_CORRUPT', "NullName"
+        with open(part_path, 'rb') as f:
+            body = f.read()
+        os.remove(part_path)
+        os.remove(meta_path)
+
+    if kind == 'video':
+        return genByVideoRequest(body), "demo2.glb"
+    return genByImageRequest(body), "demo1.glb"
+
+
+# --- Image blobs by SHA-256 (same protocol as Manager.py) ---
+
+def blob_path(blob_hash):
+    return os.path.join(BLOB_DIR, blob_hash)
+
+
+def blobQueryRequest(data_bytes):
+    try:
+        hashes = [str(h).lower() for h in json.loads(data_bytes.decode('utf-8'))]
+    except Exception:
+        return b'ERROR_INVALID_BLOB'
+    if not all(UPLOAD_ID_RE.match(h) for h in hashes):
+        return b'ERROR_INVALID_BLOB'
+    missing = [h for h in dict.fromkeys(hashes) if not os.path.exists(blob_path(h))]
+    print(f"[*] Blob query: {len(hashes)} images, {len(missing)} missing")
+    return json.dumps({'missing': missing}).encode('utf-8')
+
+
+def blobPutRequest(data_bytes):
+    blob_hash = data_bytes[:64].decode('utf-8', errors='replace').lower()
+    data = data_bytes[64:]
+    if not UPLOAD_ID_RE.match(blob_hash) or not data:
+        return b'ERROR_INVALID_BLOB'
+    if hashlib.sha256(data).hexdigest() != blob_hash:
+        return b'ERROR_BLOB_CORRUPT'
+    os.makedirs(BLOB_DIR, exist_ok=True)
+    # Parallel upload lanes may put blobs concurrently; each write gets its own temp file
+    fd, tmp_path = tempfile.mkstemp(prefix='.put_', dir=BLOB_DIR)
+    with os.fdopen(fd, 'wb') as f:
+        f.write(data)
+    os.replace(tmp_path, blob_path(blob_hash))
+    return json.dumps({'hash': blob_hash}).encode('utf-8')
+
+
+def genByImageHashesRequest(data_bytes):
+    """Rebuilds the CMD_IMAGE payload from stored blobs."""
+    try:
+        hashes = [str(h).lower() for h in json.loads(data_bytes.decode('utf-8'))['images']]
+    except Exception:
+        return b'ERROR_INVALID_BLOB'
+    body = struct.pack('>I', len(hashes))
+    for h in hashes:
+        if not UPLOAD_ID_RE.match(h) or not os.path.exists(blob_path(h)):
+            return b'ERROR_BLOB_MISSING'
+        with open(blob_path(h), 'rb') as f:
+            img = f.read()
+        body += struct.pack('>I', len(img)) + img
+    return genByImageRequest(body)
+
+
+# --- Reconstruction jobs (same protocol as Manager.py), one worker thread ---
+
+jobs = {}
+job_queue = []
+job_cond = threading.Condition()
+
+
+def job_status(job):
+    status = {'id': job['id'], 'state': job['state']}
+    if job['state'] == 'queued':
+        status['position'] = job_queue.index(job)
+    elif job['state'] == 'failed':
+        status['error'] = job['data'].decode('utf-8', errors='replace')
+    return status
+
+
+def jobSubmitRequest(data_bytes):
+    try:
+        req = json.loads(data_bytes.decode('utf-8'))
+        if 'images' in req:
+            run = lambda: (genByImageHashesRequest(data_bytes), "demo1.glb")
+        else:
+            commit = json.dumps({'id': req['upload'], 'kind': req['kind']}).encode('utf-8')
+            run = lambda: uploadCommitRequest(commit)
+    except Exception:
+        return b'ERROR_INVALID_JOB'
+    job = {'id': uuid.uuid4().hex, 'state': 'queued', 'run': run, 'data': b'', 'name': "NullName",
+           'origin': time.monotonic(), 'stages': []}
+    with job_cond:
+        jobs[job['id']] = job
+        job_queue.append(job)
+        job_cond.notify_all()
+        status = job_status(job)
+    print(f"[*] Job {job['id']} queued, position {status['position']}")
+    return json.dumps(status).encode('utf-8')
+
+
+def jobStatusRequest(data_bytes):
+    try:
+        req = json.loads(data_bytes.decode('utf-8'))
+        job_id = str(req['id'])
+        wait_ms = min(max(int(req.get('wait', 0)), 0), JOB_WAIT_MAX_MS)
+        known = (req.get('state'), req.get('position'))
+    except Exception:
+        return b'ERROR_INVALID_JOB'
+    deadline = time.monotonic() + wait_ms / 1000
+    with job_cond:
+        job = jobs.get(job_id)
+        if job is None:
+            return b'ERROR_JOB_NOT_FOUND'
+        status = job_status(job)
+        # Long poll: return once the status differs from what the client last saw
+        while (status['state'], status.get('position')) == known and time.monotonic() < deadline:
+            job_cond.wait(deadline - time.monotonic())
+            status = job_status(job)
+        return json.dumps(status).encode('utf-8')
+
+
+def jobResultRequest(data_bytes):
+    """Returns (response_data, target_filename, stages, origin) of a finished job."""
+    with job_cond:
+        job = jobs.get(data_bytes.decode('utf-8', errors='replace').strip())
+        if job is None:
+            return b'ERROR_JOB_NOT_FOUND', "NullName", [], time.monotonic()
+        if job['state'] in ('queued', 'running'):
+            return b'ERROR_JOB_NOT_READY', "NullName", [], time.monotonic()
+        return job['data'], job['name'], list(job['stages']), job['origin']
+
+
+def job_worker():
+    while True:
+        with job_cond:
+            while not job_queue:
+                job_cond.wait()
+            job = job_queue.pop(0)
+            job['state'] = 'running'
+            job_cond.notify_all()
+        print(f"[*] Job {job['id']} running")
+        add_stage(job['stages'], job['origin'], 'queue', job['origin'])
+        start = time.monotonic()
+        if GEN_DELAY > 0:
+            time.sleep(GEN_DELAY)
+        try:
+            data, name = job['run']()
+        except Exception as e:
+            print(f"[!] Job {job['id']} failed: {e}")
+            data, name = b'ERROR_JOB_FAILED', "NullName"
+        add_stage(job['stages'], job['origin'], 'inference', start)
+        with job_cond:
+            job['data'], job['name'] = data, name
+            job['state'] = 'failed' if not data or data.startswith(b'ERROR_') else 'done'
+            job_cond.notify_all()
+        print(f"[*] Job {job['id']} {job['state']}")
+
+
+# --- Stage timing trailer (same format as Manager.py), for clients that ask in HELLO ---
+
+def add_stage(stages, origin, name, start):
+    """Appends a stage that started at ``start`` and ends now; times are time.monotonic()."""
+    stages.append({'name': name, 'start_ms': round((start - origin) * 1000),
+                   'ms': round((time.monotonic() - start) * 1000)})
+
+
+def timing_trailer(stages):
+    trailer = json.dumps({'stages': stages}).encode('utf-8')
+    return struct.pack('>I', len(trailer)) + trailer
+
+
+def command_name(cmd_type):
+    if cmd_type == 1:
+        return "LOGIN"
+    if cmd_type in (CMD_IMAGE, CMD_IMAGE_BY_HASH):
+        return "IMAGE_GEN"
+    if cmd_type == CMD_VIDEO:
+        return "VIDEO_GEN"
+    if cmd_type in (CMD_GET_GLB, CMD_GET_GLB_RANGE, CMD_GET_GLB_BATCH, CMD_LIST_GLB):
+        return "GET_GLB"
+    if CMD_UPLOAD_OPEN <= cmd_type <= CMD_UPLOAD_COMMIT:
+        return "UPLOAD"
+    if cmd_type in (CMD_BLOB_QUERY, CMD_BLOB_PUT):
+        return "BLOB"
+    if cmd_type == CMD_HELLO:
+        return "HELLO"
+    if CMD_JOB_SUBMIT <= cmd_type <= CMD_JOB_RESULT:
+        return "JOB"
+    if CMD_ECHO <= cmd_type <= CMD_SOURCE:
+        return "DIAG"
+    return "UNKNOWN"
+
+
+def encode_data(data, encoding):
+    """Data section of a GLB response: plain, or deflate as [chunkLen][chunk]... [0]."""
+    if encoding != 'deflate':
+        return data
+    compressor = zlib.compressobj(6)
+    out = []
+    for start in range(0, len(data), ENCODE_BLOCK):
+        out.append(compressor.compress(data[start:start + ENCODE_BLOCK]))
+    out.append(compressor.flush())
+    return b''.join(struct.pack('>I', len(c)) + c for c in out if c) + struct.pack('>I', 0)
+
+
+def process(cmd_type, received_data, encoding=None, timing=False, recv_ms=0):
+    """Runs one command and returns the complete legacy-format response bytes."""
+    response_data = b''
+    target_filename = "NullName"
+    origin = time.monotonic()
+    stages = []
+
+    if cmd_type == CMD_GET_GLB_BATCH:
+        return getGLBBatchResponse(received_data, encoding)
+    if cmd_type == 1:
+        response_data = loginRequest(received_data)
+    elif cmd_type == 2:
+        response_data = genByImageRequest(received_data)
+        target_filename = "demo1.glb"
+    elif cmd_type == 3:
+        response_data = genByVideoRequest(received_data)
+        target_filename = "demo2.glb"
+    elif cmd_type == CMD_GET_GLB:
+        response_data = getGLBRequest(received_data)
+    elif cmd_type == CMD_GET_GLB_RANGE:
+        response_data = getGLBRangeRequest(received_data)
+    elif cmd_type == CMD_UPLOAD_OPEN:
+        response_data = uploadOpenRequest(received_data)
+    elif cmd_type == CMD_UPLOAD_CHUNK:
+        response_data = uploadChunkRequest(received_data)
+    elif cmd_type == CMD_UPLOAD_QUERY:
+        response_data = uploadQueryRequest(received_data)
+    elif cmd_type == CMD_UPLOAD_COMMIT:
+        response_data, target_filename = uploadCommitRequest(received_data)
+    elif cmd_type == CMD_BLOB_QUERY:
+        response_data = blobQueryRequest(received_data)
+    elif cmd_type == CMD_BLOB_PUT:
+        response_data = blobPutRequest(received_data)
+    elif cmd_type == CMD_IMAGE_BY_HASH:
+        response_data = genByImageHashesRequest(received_data)
+        target_filename = "demo1.glb"
+    elif cmd_type == CMD_JOB_SUBMIT:
+        response_data = jobSubmitRequest(received_data)
+    elif cmd_type == CMD_JOB_STATUS:
+        response_data = jobStatusRequest(received_data)
+    elif cmd_type == CMD_JOB_RESULT:
+        response_data, target_filename, stages, origin = jobResultRequest(received_data)
+    elif cmd_type == CMD_LIST_GLB:
+        response_data = listGLBRequest(received_data)
+    elif cmd_type == CMD_ECHO:
+        response_data = echoRequest(received_data)
+    elif cmd_type == CMD_SINK:
+        response_data = sinkRequest(received_data, recv_ms)
+    elif cmd_type == CMD_SOURCE:
+        response_data = sourceRequest(received_data)
+
+    if cmd_type in (CMD_IMAGE, CMD_VIDEO, CMD_UPLOAD_COMMIT, CMD_IMAGE_BY_HASH, CMD_JOB_RESULT):
+        if cmd_type != CMD_JOB_RESULT:
+            start = time.monotonic()
+            if GEN_DELAY > 0:
+                time.sleep(GEN_DELAY)
+            add_stage(stages, origin, 'inference', start)
+        name_bytes = setFilename(target_filename).encode('utf-8')
+        start = time.monotonic()
+        response = (struct.pack('>I', len(name_bytes)) + name_bytes
+                    + struct.pack('>I', len(response_data)) + encode_data(response_data, encoding))
+        if timing:
+            # The stand-in builds the whole response up front, so 'send' is the encode time
+            add_stage(stages, origin, 'send', start)
+            response += timing_trailer(stages)
+        return response
+    if cmd_type == CMD_GET_GLB:
+        return struct.pack('>I', len(response_data)) + encode_data(response_data, encoding)
+    if cmd_type == CMD_GET_GLB_RANGE:
+        return (struct.pack('>I', len(response_data)) + response_data[:8]
+                + encode_data(response_data[8:], encoding))
+    return struct.pack('>I', len(response_data)) + response_data
+
+
+# --- Multiplexed streams: each stream is one legacy request/response ---
+
+def send_frame(conn, write_lock, frame_type, stream_id, payload=b''):
+    with write_lock:
+        conn.sendall(struct.pack('>BII', frame_type, stream_id, len(payload)) + payload)
+
+
+class StreamCredit:
+    """Response bytes the client still accepts on one stream; window None means no flow control."""
+
+    def __init__(self, window):
+        self.credit = window
+        self.cancelled = False
+        self.changed = threading.Condition()
+
+    def grant(self, increment):
+        with self.changed:
+            if self.credit is not None:
+                self.credit += increment
+            self.changed.notify_all()
+
+    def cancel(self):
+        with self.changed:
+            self.cancelled = True
+            self.changed.notify_all()
+
+    def take(self, wanted):
+        # waits for a WINDOW frame when the client's buffer is full; 0 once the stream is reset
+        with self.changed:
+            while self.credit is not None and self.credit <= 0 and not self.cancelled:
+                self.changed.wait()
+            if self.cancelled:
+                return 0
+            count = wanted if self.credit is None else min(wanted, self.credit)
+            if self.credit is not None:
+                self.credit -= count
+            return count
+
+
+def run_stream(conn, write_lock, stream_id, cmd_type, body, credit, running, encoding, timing, recv_ms):
+    try:
+        response = process(cmd_type, body, encoding, timing, recv_ms)
+        start = 0
+        while start < len(response):
+            count = credit.take(min(MUX_FRAME_MAX, len(response) - start))
+            if not count:
+                print(f"[*] Stream {stream_id} reset by client")
+                return
+            send_frame(conn, write_lock, FRAME_DATA, stream_id, response[start:start + count])
+            start += count
+        send_frame(conn, write_lock, FRAME_END, stream_id)
+    except Exception as e:
+        print(f"[!] Stream {stream_id} failed: {e}")
+        try:
+            send_frame(conn, write_lock, FRAME_RESET, stream_id)
+        except OSError:
+            pass
+    finally:
+        running.pop(stream_id, None)
+
+
+def serve_multiplexed(conn, encoding, timing, window):
+    write_lock = threading.Lock()
+    pending = {}
+    running = {}
+    try:
+        while True:
+            header = recv_exact(conn, 9)
+            if not header: break
+            frame_type, stream_id, length = struct.unpack('>BII', header)
+            payload = recv_exact(conn, length) if length else b''
+            if payload is None: break
+
+            if frame_type == FRAME_HEADERS:
+                pending[stream_id] = (payload[0], bytearray(), time.monotonic())
+            elif frame_type == FRAME_DATA and stream_id in pending:
+                pending[stream_id][1].extend(payload)
+            elif frame_type == FRAME_END and stream_id in pending:
+                cmd_type, body, started = pending.pop(stream_id)
+                recv_ms = (time.monotonic() - started) * 1000
+                print(f"[*] Stream {stream_id}: [{command_name(cmd_type)}] (Type: {cmd_type}), Payload Size: {len(body)} bytes")
+                running[stream_id] = credit = StreamCredit(window)
+                threading.Thread(target=run_stream,
+                                 args=(conn, write_lock, stream_id, cmd_type, bytes(body), credit, running, encoding, timing, recv_ms),
+                                 daemon=True).start()
+            elif frame_type == FRAME_RESET:
+                pending.pop(stream_id, None)
+                if stream_id in running:
+                    running[stream_id].cancel()
+            elif frame_type == FRAME_WINDOW and stream_id in running and length == 4:
+                running[stream_id].grant(struct.unpack('>I', payload)[0])
+    finally:
+        for credit in list(running.values()):
+            credit.cancel()
+
+
 def handle_client(conn, addr):
     client_id = f"{addr[0]}:{addr[1]}"
     print(f"[+] Connected: {client_id}")
+    encoding = None
+    timing = False
 
     try:
         while True:
@@ -110,48 +731,41 @@ def handle_client(conn, addr):
 
             cmd_type = header_data[0]
             data_length = struct.unpack('>I', header_data[1:5])[0]
-
-            cmd_name = "UNKNOWN"
-            if cmd_type == 1:
-                cmd_name = "LOGIN"
-            elif cmd_type == 2:
-                cmd_name = "IMAGE_GEN"
-            elif cmd_type == 3:
-                cmd_name = "VIDEO_GEN"
-
-            print(f"[*] Request Received: [{cmd_name}] (Type: {cmd_type}), Payload Size: {data_length} bytes")
+            print(f"[*] Request Received: [{command_name(cmd_type)}] (Type: {cmd_type}), Payload Size: {data_length} bytes")
 
             # 2. Read Body using recv_exact
+            recv_start = time.monotonic()
             received_data = recv_exact(conn, data_length)
             if received_data is None or len(received_data) != data_length:
                 print("[!] Incomplete data received.")
                 break
 
-            # 3. Process
-            response_data = b''
-            target_filename = "NullName"
-
-            if cmd_type == 1:
-                response_data = loginRequest(received_data)
-            elif cmd_type == 2:
-                response_data = genByImageRequest(received_data)
-                target_filename = "demo1.glb"
-            elif cmd_type == 3:
-                response_data = genByVideoRequest(received_data)
-                target_filename = "demo2.glb"
-
-            # 4. Response
-            if cmd_type == 2 or cmd_type == 3:
-                safe_name = setFilename(target_filename)
-                name_bytes = safe_name.encode('utf-8')
-
-                conn.sendall(struct.pack('>I', len(name_bytes)))
-                conn.sendall(name_bytes)
-                conn.sendall(struct.pack('>I', len(response_data)))
-                conn.sendall(response_data)
-            else:
-                conn.sendall(struct.pack('>I', len(response_data)))
-                conn.sendall(response_data)
+            # 3. HELLO switches the rest of the connection to multiplexed frames
+            if cmd_type == CMD_HELLO:
+                try:
+                    hello = json.loads(received_data.decode('utf-8'))
+                    version = min(int(hello.get('v', 1)), PROTOCOL_VERSION)
+                    offered = hello.get('enc', [])
+                    timing = hello.get('timing') is True
+                    window = int(hello.get('window', 0)) or None
+                except Exception:
+                    version, offered, window = 1, [], None
+                agreed = {'v': version, 'features': ['glb_batch', 'jobs', 'glb_list', 'diag', 'uploads', 'glb_range', 'blobs']
+                          + (['timing'] if timing else []) + (['flow'] if window else [])}
+                if window:
+                    agreed['window'] = window
+                if 'deflate' in offered:
+                    agreed['enc'] = encoding = 'deflate'
+                reply = json.dumps(agreed).encode('utf-8')
+                conn.sendall(struct.pack('>I', len(reply)) + reply)
+                if version >= 2:
+                    print(f"[*] {client_id} switched to multiplexed streams, encoding={encoding}")
+                    serve_multiplexed(conn, encoding, timing, window)
+                    break
+                continue
+
+            # 4. Process and respond
+            conn.sendall(process(cmd_type, received_data, encoding, timing, (time.monotonic() - recv_start) * 1000))
 
     except Exception as e:
         print(f"[!] Exception: {e}")
@@ -165,6 +779,7 @@ def main():
     try:
         server.bind((HOST, PORT))
         server.listen(5)
+        threading.Thread(target=job_worker, daemon=True).start()
         print(f"==========================================")
         print(f" Python TCP Server Running on Port {PORT}")
         print(f" Waiting for connections...")
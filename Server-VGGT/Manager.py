@@ -2,16 +2,28 @@
 
 from __future__ import annotations
 
+import hashlib
+import io
 import json
 import os
+import re
 import shutil
 import socket
 import struct
 import tempfile
 import threading
 import time
+import uuid
+import zlib
+from contextlib import contextmanager
+from datetime import datetime, timezone
 from pathlib import Path
-from typing import Optional
+from typing import Optional, Union
+
+try:
+    import zstandard
+except ImportError:  # optional: deflate is always available
+    zstandard = None
 
 from core.infer import (
     load_model,
@@ -55,6 +67,74 @@ CMD_LOGIN = 1
 CMD_IMAGE = 2
 CMD_VIDEO = 3
 CMD_GET_GLB = 4
+CMD_UPLOAD_OPEN = 5
+CMD_UPLOAD_CHUNK = 6
+CMD_UPLOAD_QUERY = 7
+CMD_UPLOAD_COMMIT = 8
+CMD_GET_GLB_RANGE = 9
+CMD_BLOB_QUERY = 10
+CMD_BLOB_PUT = 11
+CMD_IMAGE_BY_HASH = 12
+CMD_HELLO = 13
+CMD_GET_GLB_BATCH = 14
+CMD_JOB_SUBMIT = 15
+CMD_JOB_STATUS = 16
+CMD_JOB_RESULT = 17
+CMD_LIST_GLB = 18
+CMD_ECHO = 19
+CMD_SINK = 20
+CMD_SOURCE = 21
+
+# Protocol v2 (negotiated via CMD_HELLO): [type:1][streamId:4][len:4][payload]
+PROTOCOL_VERSION = 2
+FRAME_HEADERS = 1  # payload: [cmd:1]
+FRAME_DATA = 2
+FRAME_END = 3
+FRAME_RESET = 4
+FRAME_WINDOW = 5  # client -> server, payload: [increment:4]
+MUX_FRAME_MAX = 64 * 1024
+
+# Response compression (negotiated via CMD_HELLO "enc"). GLB point clouds are
+# float32 positions + uint8 colors and shrink well; the data section of GLB
+# responses becomes [chunkLen:4][chunk]...[0:4] while length fields keep the
+# uncompressed size.
+ENCODING_PREFERENCE = ("zstd", "deflate") if zstandard is not None else ("deflate",)
+DEFLATE_LEVEL = 6
+ZSTD_LEVEL = 3
+ENCODE_BLOCK = 256 * 1024
+
+# Ranged GLB download: at most 8MB per request
+GLB_RANGE_MAX = 8 * 1024 * 1024
+
+# Batch GLB download: entry status byte, and at most 256 hashes per request
+GLB_BATCH_MAX = 256
+BATCH_OK = 0
+BATCH_ERROR = 1
+
+# Optional commands announced in the HELLO reply, so clients can fall back
+# to the older commands against older servers
+SERVER_FEATURES = [
+    "glb_batch", "jobs", "glb_list", "diag", "uploads", "glb_range", "blobs",
+]
+# Announced only to clients that ask for it, since it changes the response
+# format: generation responses are followed by a stage timing trailer
+FEATURE_TIMING = "timing"
+# Announced only to clients that send a receive "window" in HELLO: each stream
+# may have at most that many response bytes in flight until the client returns
+# credit with WINDOW frames, so one slow reader never stalls the connection
+FEATURE_FLOW = "flow"
+
+# Model listing: page size cap for LIST_GLB
+GLB_LIST_MAX = 200
+
+# Network diagnostics: ECHO payload cap and SOURCE size cap
+DIAG_ECHO_MAX = 64 * 1024
+DIAG_SOURCE_MAX = 64 * 1024 * 1024
+
+# Reconstruction jobs: long-poll cap for STATUS, and how long finished jobs
+# stay queryable
+JOB_WAIT_MAX_MS = 30 * 1000
+JOB_RETENTION_S = 24 * 3600
 
 # Reconstruction defaults ----------------------------------------------------
 CHECKPOINT_PATH = os.environ.get("VGGT_CHECKPOINT", "model.pt")
@@ -71,6 +151,17 @@ BASE_DIR = Path(__file__).resolve().parent
 _LAST_USER_BY_IP: dict[str, int] = {}
 _SESSION_LOCK = threading.Lock()
 
+# Resumable uploads: uploads/<user_id>/<sha256>.part + .json
+UPLOAD_ROOT = BASE_DIR / "uploads"
+UPLOAD_CHUNK_MAX = 8 * 1024 * 1024
+_UPLOAD_ID_RE = re.compile(r"^[0-9a-f]{64}$")
+_UPLOAD_LOCK = threading.Lock()
+
+# Content-addressed image blobs: blobs/<sha256[:2]>/<sha256>, next to out/
+BLOB_ROOT = BASE_DIR / "blobs"
+BLOB_MAX = 32 * 1024 * 1024
+BLOB_QUERY_MAX = 512
+
 # Ensure required tables exist (users + glb_files)
 Base.metadata.create_all(bind=engine)
 
@@ -87,13 +178,65 @@ class ModelHolder:
             if self._model is None:
                 if not os.path.isfile(CHECKPOINT_PATH):
                     raise FileNotFoundError(f"Checkpoint not found: {CHECKPOINT_PATH}")
-                self._model = load_model(CHECKPOINT_PATH)
+                with _stage("model_load"):
+                    self._model = load_model(CHECKPOINT_PATH)
             return self._model
 
 
 MODEL_HOLDER = ModelHolder()
 
 
+# Stage timing ---------------------------------------------------------------
+#
+# Clients that negotiate FEATURE_TIMING get a trailer after every generation
+# response: [len:4]{"stages": [{"name", "start_ms", "ms"}, ...]}, start_ms
+# counted from when the server accepted the request (for jobs, the submit).
+# Stages are recorded into the timings bound to the thread doing the work.
+
+_STAGE_LOCAL = threading.local()
+
+
+class _StageTimes:
+    """Monotonic stage timings of one generation request or job."""
+
+    def __init__(self) -> None:
+        self.origin = time.monotonic()
+        self.stages: list[dict] = []
+
+    def add(self, name: str, start: float, end: float) -> None:
+        self.stages.append({
+            "name": name,
+            "start_ms": round((start - self.origin) * 1000),
+            "ms": round((end - start) * 1000),
+        })
+
+    def trailer(self) -> bytes:
+        return json.dumps({"stages": self.stages}).encode("utf-8")
+
+
+@contextmanager
+def _stage(name: str):
+    """Time the enclosed block as stage ``name``; a no-op when nothing is collecting."""
+    start = time.monotonic()
+    try:
+        yield
+    finally:
+        times = getattr(_STAGE_LOCAL, "times", None)
+        if times is not None:
+            times.add(name, start, time.monotonic())
+
+
+@contextmanager
+def _collect_stages(times: _StageTimes):
+    """Bind ``times`` to the current thread for the enclosed block."""
+    previous = getattr(_STAGE_LOCAL, "times", None)
+    _STAGE_LOCAL.times = times
+    try:
+        yield times
+    finally:
+        _STAGE_LOCAL.times = previous
+
+
 # Login ----------------------------------------------------------------------
 
 def loginRequest(payload: bytes) -> tuple[bytes, Optional[int]]:
@@ -122,32 +265,41 @@ def loginRequest(payload: bytes) -> tuple[bytes, Optional[int]]:
 
 # Payload staging ------------------------------------------------------------
 
-def _save_images_payload(payload: bytes) -> Path:
-    offset = 0
-    if len(payload) < 4:
-        raise ValueError("Invalid payload: missing count")
-    count = struct.unpack(">I", payload[offset : offset + 4])[0]
-    offset += 4
+def _read_exact(stream, size: int) -> bytes:
+    data = stream.read(size)
+    if len(data) != size:
+        raise ValueError("Payload truncated")
+    return data
+
+
+def _save_images_stream(stream) -> Path:
+    """Parse ``[count][size][data]...`` from a binary stream into a temp dir."""
+
+    count = struct.unpack(">I", _read_exact(stream, 4))[0]
     if count <= 0:
         raise ValueError("Image count must be positive")
 
     tmp_dir = Path(tempfile.mkdtemp(prefix="mgr_images_", dir=str(BASE_DIR)))
-    for idx in range(count):
-        if offset + 4 > len(payload):
-            raise ValueError("Payload truncated (size)")
-        img_size = struct.unpack(">I", payload[offset : offset + 4])[0]
-        offset += 4
-        if offset + img_size > len(payload):
-            raise ValueError("Payload truncated (data)")
-        img_bytes = payload[offset : offset + img_size]
-        offset += img_size
-
-        out_path = tmp_dir / f"img_{idx:03}.jpg"
-        with open(out_path, "wb") as fp:
-            fp.write(img_bytes)
+    try:
+        for idx in range(count):
+            img_size = struct.unpack(">I", _read_exact(stream, 4))[0]
+            out_path = tmp_dir / f"img_{idx:03}.jpg"
+            with open(out_path, "wb") as fp:
+                remaining = img_size
+                while remaining > 0:
+                    chunk = _read_exact(stream, min(remaining, 1024 * 1024))
+                    fp.write(chunk)
+                    remaining -= len(chunk)
+    except Exception:
+        shutil.rmtree(tmp_dir, ignore_errors=True)
+        raise
     return tmp_dir
 
 
+def _save_images_payload(payload: bytes) -> Path:
+    return _save_images_stream(io.BytesIO(payload))
+
+
 def _save_video_payload(payload: bytes) -> Path:
     fd, tmp_path = tempfile.mkstemp(prefix="mgr_video_", suffix=".mp4", dir=str(BASE_DIR))
     with os.fdopen(fd, "wb") as fp:
@@ -157,45 +309,67 @@ def _save_video_payload(payload: bytes) -> Path:
 
 def _build_scene(target_dir: str):
     model = MODEL_HOLDER.get()
-    predictions = run_model_on_target_dir(target_dir, model)
-    return predictions_to_glb(
-        predictions,
-        conf_thres=CONF_THRES,
-        filter_by_frames=FRAME_FILTER,
-        mask_black_bg=MASK_BLACK_BG,
-        mask_white_bg=MASK_WHITE_BG,
-        show_cam=SHOW_CAM,
-        mask_sky=MASK_SKY,
-        target_dir=target_dir,
-        prediction_mode=PREDICTION_MODE,
-    )
-
-
-def _store_and_read(glb_scene, *, user_id: int, prefix: str) -> tuple[bytes, bytes]:
+    with _stage("inference"):
+        predictions = run_model_on_target_dir(target_dir, model)
+    with _stage("export"):
+        return predictions_to_glb(
+            predictions,
+            conf_thres=CONF_THRES,
+            filter_by_frames=FRAME_FILTER,
+            mask_black_bg=MASK_BLACK_BG,
+            mask_white_bg=MASK_WHITE_BG,
+            show_cam=SHOW_CAM,
+            mask_sky=MASK_SKY,
+            target_dir=target_dir,
+            prediction_mode=PREDICTION_MODE,
+        )
+
+
+def _store_glb(glb_scene, *, user_id: int, prefix: str) -> tuple[bytes, Path]:
+    """Save the scene with its DB record; returns the response name and the file
+    path, which the caller streams from disk instead of reading into memory."""
     original_name = setFilename(f"{prefix}_{int(time.time())}.glb")
-    record = save_glb_with_record(glb_scene, user_id=user_id, original_name=original_name)
+    with _stage("store"):
+        record = save_glb_with_record(glb_scene, user_id=user_id, original_name=original_name)
     abs_path = (BASE_DIR / record.file_path).resolve()
     name_bytes = setFilename(f"{record.hashed_name}.glb").encode("utf-8")
-    return name_bytes, abs_path.read_bytes()
+    return name_bytes, abs_path
 
 
 # Reconstruction handlers ----------------------------------------------------
+#
+# Each returns (name, GLB path) on success or (b"", ERROR_* message).
+
+GenResult = tuple[bytes, Union[Path, bytes]]
 
-def genByImageRequest(payload: bytes, user_id: Optional[int]) -> tuple[bytes, bytes]:
+
+def genByImageRequest(payload: bytes, user_id: Optional[int]) -> GenResult:
     if not user_id:
         return b"", b"ERROR_NOT_LOGGED_IN"
+    return _gen_from_image_stream(io.BytesIO(payload), user_id)
 
-    staging_dir: Optional[Path] = None
-    # target_dir: Optional[str] = None
-    target_dir = stage_images_from_video(str(video_path), fps=VIDEO_FPS)
 
+def _gen_from_image_stream(stream, user_id: int) -> GenResult:
     try:
-        staging_dir = _save_images_payload(payload)
-        target_dir = stage_images_from_dir(str(staging_dir))
+        with _stage("unpack"):
+            staging_dir = _save_images_stream(stream)
+    except Exception as exc:  # pragma: no cover - runtime logging
+        print(f"[!] genByImageRequest error: {exc}")
+        return b"", b"ERROR_IMAGE_REQUEST"
+    return _gen_from_image_dir(staging_dir, user_id)
+
+
+def _gen_from_image_dir(staging_dir: Path, user_id: int) -> GenResult:
+    """Run reconstruction on staged images; the staging dir is removed afterwards."""
+
+    target_dir: Optional[str] = None
+    try:
+        with _stage("stage"):
+            target_dir = stage_images_from_dir(str(staging_dir))
         print("[*] Starting VGGT inference for images")
         glb_scene = _build_scene(target_dir)
         print("[*] VGGT inference finished for images")
-        return _store_and_read(glb_scene, user_id=user_id, prefix="images")
+        return _store_glb(glb_scene, user_id=user_id, prefix="images")
     except Exception as exc:  # pragma: no cover - runtime logging
         import traceback
         traceback.print_exc()
@@ -204,24 +378,32 @@ def genByImageRequest(payload: bytes, user_id: Optional[int]) -> tuple[bytes, by
     finally:
         if target_dir:
             shutil.rmtree(target_dir, ignore_errors=True)
-        if staging_dir:
-            shutil.rmtree(staging_dir, ignore_errors=True)
+        shutil.rmtree(staging_dir, ignore_errors=True)
 
 
-def genByVideoRequest(payload: bytes, user_id: Optional[int]) -> tuple[bytes, bytes]:
+def genByVideoRequest(payload: bytes, user_id: Optional[int]) -> GenResult:
     if not user_id:
         return b"", b"ERROR_NOT_LOGGED_IN"
 
-    video_path: Optional[Path] = None
-    # target_dir: Optional[str] = None
-    target_dir = stage_images_from_video(str(video_path), fps=VIDEO_FPS)
     try:
         video_path = _save_video_payload(payload)
-        target_dir = stage_images_from_video(str(video_path))
+    except OSError as exc:  # pragma: no cover
+        print(f"[!] genByVideoRequest error: {exc}")
+        return b"", b"ERROR_VIDEO_REQUEST"
+    return _gen_from_video_file(video_path, user_id)
+
+
+def _gen_from_video_file(video_path: Path, user_id: int) -> GenResult:
+    """Run reconstruction on a video file on disk; the file is removed afterwards."""
+
+    target_dir: Optional[str] = None
+    try:
+        with _stage("stage"):
+            target_dir = stage_images_from_video(str(video_path), fps=VIDEO_FPS)
         print("[*] Starting VGGT inference for video")
         glb_scene = _build_scene(target_dir)
         print("[*] VGGT inference finished for video")
-        return _store_and_read(glb_scene, user_id=user_id, prefix="video")
+        return _store_glb(glb_scene, user_id=user_id, prefix="video")
     except Exception as exc:  # pragma: no cover
         import traceback
         traceback.print_exc()
@@ -234,8 +416,431 @@ def genByVideoRequest(payload: bytes, user_id: Optional[int]) -> tuple[bytes, by
             video_path.unlink(missing_ok=True)
 
 
-def getGLBRequest(payload: bytes) -> bytes:
-    hashed = payload.decode("utf-8").strip()
+# Resumable uploads ----------------------------------------------------------
+#
+# OPEN   {"size": n, "sha256": hex}        -> {"id": hex, "offset": committed}
+# CHUNK  [offset:8][idLen:4][id][data]     -> {"offset": committed}
+# QUERY  id                                -> {"offset": committed}
+# COMMIT {"id": hex, "kind": "image"|"video"} -> same response as CMD_IMAGE/CMD_VIDEO
+#
+# The upload id is the content hash, so reopening the same file after a
+# dropped connection or an app restart resumes from the committed offset.
+
+
+def _upload_paths(user_id: int, upload_id: str) -> tuple[Path, Path]:
+    user_dir = UPLOAD_ROOT / str(user_id)
+    return user_dir / f"{upload_id}.part", user_dir / f"{upload_id}.json"
+
+
+def _read_upload_meta(meta_path: Path) -> Optional[dict]:
+    try:
+        return json.loads(meta_path.read_text(encoding="utf-8"))
+    except (OSError, ValueError):
+        return None
+
+
+def _committed_offset(part_path: Path) -> int:
+    return part_path.stat().st_size if part_path.exists() else 0
+
+
+def uploadOpenRequest(payload: bytes, user_id: Optional[int]) -> bytes:
+    if not user_id:
+        return b"ERROR_NOT_LOGGED_IN"
+    try:
+        data = json.loads(payload.decode("utf-8"))
+        total = int(data["size"])
+        upload_id = str(data["sha256"]).lower()
+    except (ValueError, KeyError, TypeError):
+        return b"ERROR_INVALID_UPLOAD"
+    if total <= 0 or not _UPLOAD_ID_RE.match(upload_id):
+        return b"ERROR_INVALID_UPLOAD"
+
+    part_path, meta_path = _upload_paths(user_id, upload_id)
+    with _UPLOAD_LOCK:
+        part_path.parent.mkdir(parents=True, exist_ok=True)
+        meta = _read_upload_meta(meta_path)
+        if meta is None or meta.get("size") != total or _committed_offset(part_path) > total:
+            meta_path.write_text(json.dumps({"size": total, "sha256": upload_id}), encoding="utf-8")
+            part_path.write_bytes(b"")
+        offset = _committed_offset(part_path)
+    return json.dumps({"id": upload_id, "offset": offset}).encode("utf-8")
+
+
+def uploadChunkRequest(payload: bytes, user_id: Optional[int]) -> bytes:
+    if not user_id:
+        return b"ERROR_NOT_LOGGED_IN"
+    if len(payload) < 12:
+        return b"ERROR_INVALID_CHUNK"
+    offset, id_len = struct.unpack(">QI", payload[:12])
+    upload_id = payload[12 : 12 + id_len].decode("utf-8", errors="replace")
+    data = memoryview(payload)[12 + id_len :]
+    if not _UPLOAD_ID_RE.match(upload_id) or len(data) > UPLOAD_CHUNK_MAX:
+        return b"ERROR_INVALID_CHUNK"
+
+    part_path, meta_path = _upload_paths(user_id, upload_id)
+    with _UPLOAD_LOCK:
+        meta = _read_upload_meta(meta_path)
+        if meta is None or not part_path.exists():
+            return b"ERROR_UPLOAD_NOT_FOUND"
+        committed = _committed_offset(part_path)
+        # Only bytes that continue the committed prefix are appended; chunks
+        # ahead of it are dropped and the client resends from the returned offset.
+        if offset <= committed < offset + len(data):
+            start = committed - offset
+            end = min(len(data), start + int(meta["size"]) - committed)
+            with open(part_path, "ab") as fp:
+                fp.write(data[start:end])
+            committed = _committed_offset(part_path)
+    return json.dumps({"offset": committed}).encode("utf-8")
+
+
+def uploadQueryRequest(payload: bytes, user_id: Optional[int]) -> bytes:
+    if not user_id:
+        return b"ERROR_NOT_LOGGED_IN"
+    upload_id = payload.decode("utf-8", errors="replace").strip()
+    if not _UPLOAD_ID_RE.match(upload_id):
+        return b"ERROR_INVALID_UPLOAD"
+    part_path, meta_path = _upload_paths(user_id, upload_id)
+    with _UPLOAD_LOCK:
+        if _read_upload_meta(meta_path) is None:
+            return b"ERROR_UPLOAD_NOT_FOUND"
+        offset = _committed_offset(part_path)
+    return json.dumps({"offset": offset}).encode("utf-8")
+
+
+def _file_sha256(path: Path) -> str:
+    digest = hashlib.sha256()
+    with open(path, "rb") as fp:
+        for block in iter(lambda: fp.read(1024 * 1024), b""):
+            digest.update(block)
+    return digest.hexdigest()
+
+
+def uploadCommitRequest(payload: bytes, user_id: Optional[int]) -> GenResult:
+    if not user_id:
+        return b"", b"ERROR_NOT_LOGGED_IN"
+    try:
+        data = json.loads(payload.decode("utf-8"))
+        upload_id = str(data["id"]).lower()
+        kind = str(data["kind"])
+    except (ValueError, KeyError, TypeError):
+        return b"", b"ERROR_INVALID_UPLOAD"
+    if not _UPLOAD_ID_RE.match(upload_id) or kind not in ("image", "video"):
+        return b"", b"ERROR_INVALID_UPLOAD"
+
+    job_path = _claim_upload(user_id, upload_id, kind)
+    if isinstance(job_path, bytes):
+        return b"", job_path
+    return _gen_from_upload(job_path, kind, user_id)
+
+
+def _claim_upload(user_id: int, upload_id: str, kind: str) -> Union[Path, bytes]:
+    """Move a completed upload out of the upload area and verify its hash.
+
+    Returns the claimed file (owned by the caller from now on) or an
+    ``ERROR_*`` message.
+    """
+    part_path, meta_path = _upload_paths(user_id, upload_id)
+    with _UPLOAD_LOCK:
+        meta = _read_upload_meta(meta_path)
+        if meta is None or not part_path.exists():
+            return b"ERROR_UPLOAD_NOT_FOUND"
+        if _committed_offset(part_path) != int(meta["size"]):
+            return b"ERROR_UPLOAD_INCOMPLETE"
+        # Take the session out of the upload area before the long inference.
+        fd, tmp_path = tempfile.mkstemp(prefix=f"mgr_{kind}_", suffix=".bin", dir=str(BASE_DIR))
+        os.close(fd)
+        job_path = Path(tmp_path)
+        os.replace(part_path, job_path)
+        meta_path.unlink(missing_ok=True)
+
+    with _stage("verify"):
+        digest = _file_sha256(job_path)
+    if digest != upload_id:
+        job_path.unlink(missing_ok=True)
+        return b"ERROR_UPLOAD_CORRUPT"
+    return job_path
+
+
+def _gen_from_upload(job_path: Path, kind: str, user_id: int) -> GenResult:
+    """Run reconstruction on a claimed upload; the file is removed afterwards."""
+    if kind == "video":
+        return _gen_from_video_file(job_path, user_id)
+    try:
+        with open(job_path, "rb") as fp:
+            return _gen_from_image_stream(fp, user_id)
+    finally:
+        job_path.unlink(missing_ok=True)
+
+
+# Image blob store -----------------------------------------------------------
+#
+# QUERY  ["sha256", ...]              -> {"missing": ["sha256", ...]}
+# PUT    [sha256 hex:64][data]        -> {"hash": sha256}
+# SUBMIT {"images": ["sha256", ...]}  -> same response as CMD_IMAGE
+#
+# Blobs are keyed by content, so a retried job or a second shot of the same
+# object only uploads images the server has not seen yet.
+
+
+def _blob_path(blob_hash: str) -> Path:
+    return BLOB_ROOT / blob_hash[:2] / blob_hash
+
+
+def blobQueryRequest(payload: bytes, user_id: Optional[int]) -> bytes:
+    if not user_id:
+        return b"ERROR_NOT_LOGGED_IN"
+    try:
+        hashes = [str(h).lower() for h in json.loads(payload.decode("utf-8"))]
+    except (ValueError, TypeError):
+        return b"ERROR_INVALID_BLOB"
+    if len(hashes) > BLOB_QUERY_MAX or not all(_UPLOAD_ID_RE.match(h) for h in hashes):
+        return b"ERROR_INVALID_BLOB"
+
+    missing = []
+    for blob_hash in dict.fromkeys(hashes):
+        path = _blob_path(blob_hash)
+        if path.exists():
+            # Refresh mtime so age-based cleanup keeps blobs that are still in use.
+            path.touch()
+        else:
+            missing.append(blob_hash)
+    return json.dumps({"missing": missing}).encode("utf-8")
+
+
+def blobPutRequest(payload: bytes, user_id: Optional[int]) -> bytes:
+    if not user_id:
+        return b"ERROR_NOT_LOGGED_IN"
+    blob_hash = payload[:64].decode("utf-8", errors="replace").lower()
+    data = memoryview(payload)[64:]
+    if not _UPLOAD_ID_RE.match(blob_hash) or not data or len(data) > BLOB_MAX:
+        return b"ERROR_INVALID_BLOB"
+    if hashlib.sha256(data).hexdigest() != blob_hash:
+        return b"ERROR_BLOB_CORRUPT"
+
+    path = _blob_path(blob_hash)
+    if not path.exists():
+        path.parent.mkdir(parents=True, exist_ok=True)
+        fd, tmp_path = tempfile.mkstemp(prefix=".put_", dir=str(path.parent))
+        with os.fdopen(fd, "wb") as fp:
+            fp.write(data)
+        os.replace(tmp_path, path)
+    return json.dumps({"hash": blob_hash}).encode("utf-8")
+
+
+def genByImageHashesRequest(payload: bytes, user_id: Optional[int]) -> GenResult:
+    if not user_id:
+        return b"", b"ERROR_NOT_LOGGED_IN"
+    try:
+        hashes = [str(h).lower() for h in json.loads(payload.decode("utf-8"))["images"]]
+    except (ValueError, KeyError, TypeError):
+        return b"", b"ERROR_INVALID_BLOB"
+    staging_dir = _stage_blobs(hashes)
+    if isinstance(staging_dir, bytes):
+        return b"", staging_dir
+    return _gen_from_image_dir(staging_dir, user_id)
+
+
+def _stage_blobs(hashes: list[str]) -> Union[Path, bytes]:
+    """Link the blobs into a fresh staging dir in order, or return ``ERROR_*``."""
+    if not hashes or len(hashes) > BLOB_QUERY_MAX or not all(_UPLOAD_ID_RE.match(h) for h in hashes):
+        return b"ERROR_INVALID_BLOB"
+
+    staging_dir = Path(tempfile.mkdtemp(prefix="mgr_images_", dir=str(BASE_DIR)))
+    try:
+        for idx, blob_hash in enumerate(hashes):
+            # Link instead of copy; the blob itself is never modified.
+            src = _blob_path(blob_hash)
+            dst = staging_dir / f"img_{idx:03}.jpg"
+            try:
+                os.link(src, dst)
+            except FileNotFoundError:
+                shutil.rmtree(staging_dir, ignore_errors=True)
+                return b"ERROR_BLOB_MISSING"
+            except OSError:
+                shutil.copyfile(src, dst)
+    except Exception as exc:  # pragma: no cover
+        shutil.rmtree(staging_dir, ignore_errors=True)
+        print(f"[!] genByImageHashesRequest error: {exc}")
+        return b"ERROR_IMAGE_REQUEST"
+    return staging_dir
+
+
+# Reconstruction jobs --------------------------------------------------------
+#
+# SUBMIT {"images": ["sha256", ...]} | {"upload": id, "kind": "image"|"video"}
+#        -> {"id": job_id, "state": "queued", "position": n}
+# STATUS {"id": job_id, "wait": ms, "state"?, "position"?}
+#                                    -> {"id", "state", "position"?, "error"?}
+# RESULT job_id                      -> same response as CMD_IMAGE
+#
+# Inputs are claimed at submit time and a single worker runs jobs in order, so
+# SUBMIT returns immediately and no connection is held open during inference.
+# "wait" turns STATUS into a long poll that returns as soon as the job's state
+# or queue position differs from the one the client last saw. Jobs live in memory; finished ones are dropped
+# after JOB_RETENTION_S while their GLB stays in the database.
+
+JOB_QUEUED = "queued"
+JOB_RUNNING = "running"
+JOB_DONE = "done"
+JOB_FAILED = "failed"
+
+
+class _Job:
+    def __init__(self, user_id: int, kind: str, source: Path, times: _StageTimes) -> None:
+        self.id = uuid.uuid4().hex
+        self.user_id = user_id
+        self.kind = kind
+        # Staged image dir (from blobs) or a claimed upload file
+        self.source = source
+        self.state = JOB_QUEUED
+        # Stage timings from submit on, returned in the JOB_RESULT trailer
+        self.times = times
+        self.queued_at = time.monotonic()
+        self.name = b""
+        self.result: Union[Path, bytes, None] = None
+        self.finished_at = 0.0
+
+
+_JOBS: dict[str, _Job] = {}
+_JOB_QUEUE: list[_Job] = []
+_JOB_COND = threading.Condition()
+
+
+def _job_status(job: _Job) -> dict:
+    """Status dict for ``job``; call with ``_JOB_COND`` held."""
+    status = {"id": job.id, "state": job.state}
+    if job.state == JOB_QUEUED:
+        status["position"] = _JOB_QUEUE.index(job)
+    elif job.state == JOB_FAILED:
+        status["error"] = job.result.decode("utf-8", errors="replace")
+    return status
+
+
+def _find_job(job_id: str, user_id: int) -> Optional[_Job]:
+    job = _JOBS.get(job_id)
+    return job if job is not None and job.user_id == user_id else None
+
+
+def _purge_jobs() -> None:
+    cutoff = time.time() - JOB_RETENTION_S
+    for job_id in [j.id for j in _JOBS.values() if j.finished_at and j.finished_at < cutoff]:
+        del _JOBS[job_id]
+
+
+def jobSubmitRequest(payload: bytes, user_id: Optional[int]) -> bytes:
+    if not user_id:
+        return b"ERROR_NOT_LOGGED_IN"
+    times = _StageTimes()
+    try:
+        data = json.loads(payload.decode("utf-8"))
+        with _collect_stages(times):
+            if "images" in data:
+                kind = "image"
+                source = _stage_blobs([str(h).lower() for h in data["images"]])
+            else:
+                kind = str(data["kind"])
+                upload_id = str(data["upload"]).lower()
+                if not _UPLOAD_ID_RE.match(upload_id) or kind not in ("image", "video"):
+                    return b"ERROR_INVALID_JOB"
+                source = _claim_upload(user_id, upload_id, kind)
+    except (ValueError, KeyError, TypeError):
+        return b"ERROR_INVALID_JOB"
+    if isinstance(source, bytes):
+        return source
+
+    job = _Job(user_id, kind, source, times)
+    with _JOB_COND:
+        _purge_jobs()
+        _JOBS[job.id] = job
+        _JOB_QUEUE.append(job)
+        _JOB_COND.notify_all()
+        status = _job_status(job)
+    print(f"[*] Job {job.id} queued ({kind}), position {status['position']}")
+    return json.dumps(status).encode("utf-8")
+
+
+def jobStatusRequest(payload: bytes, user_id: Optional[int]) -> bytes:
+    if not user_id:
+        return b"ERROR_NOT_LOGGED_IN"
+    try:
+        data = json.loads(payload.decode("utf-8"))
+        job_id = str(data["id"])
+        wait_ms = min(max(int(data.get("wait", 0)), 0), JOB_WAIT_MAX_MS)
+        known = (data.get("state"), data.get("position"))
+    except (ValueError, KeyError, TypeError, AttributeError):
+        return b"ERROR_INVALID_JOB"
+
+    deadline = time.monotonic() + wait_ms / 1000
+    with _JOB_COND:
+        job = _find_job(job_id, user_id)
+        if job is None:
+            return b"ERROR_JOB_NOT_FOUND"
+        status = _job_status(job)
+        while (status["state"], status.get("position")) == known and job.state in (JOB_QUEUED, JOB_RUNNING):
+            remaining = deadline - time.monotonic()
+            if remaining <= 0:
+                break
+            _JOB_COND.wait(remaining)
+            status = _job_status(job)
+        return json.dumps(status).encode("utf-8")
+
+
+def jobResultRequest(payload: bytes, user_id: Optional[int]) -> GenResult:
+    if not user_id:
+        return b"", b"ERROR_NOT_LOGGED_IN"
+    with _JOB_COND:
+        job = _find_job(payload.decode("utf-8", errors="replace").strip(), user_id)
+        if job is None:
+            return b"", b"ERROR_JOB_NOT_FOUND"
+        if job.state not in (JOB_DONE, JOB_FAILED):
+            return b"", b"ERROR_JOB_NOT_READY"
+        name, result = job.name, job.result
+    times = getattr(_STAGE_LOCAL, "times", None)
+    if times is not None:
+        # The job ran on the worker thread; report its stages, not this lookup
+        times.origin, times.stages = job.times.origin, list(job.times.stages)
+    if isinstance(result, Path) and not result.exists():
+        return b"", b"ERROR_FILE_MISSING"
+    return name, result
+
+
+def _run_job(job: _Job) -> GenResult:
+    if job.source.is_dir():
+        return _gen_from_image_dir(job.source, job.user_id)
+    return _gen_from_upload(job.source, job.kind, job.user_id)
+
+
+def _job_worker() -> None:
+    """Run queued jobs one at a time; the model holds a single GPU."""
+    while True:
+        with _JOB_COND:
+            while not _JOB_QUEUE:
+                _JOB_COND.wait()
+            job = _JOB_QUEUE.pop(0)
+            job.state = JOB_RUNNING
+            _JOB_COND.notify_all()
+
+        print(f"[*] Job {job.id} running")
+        job.times.add("queue", job.queued_at, time.monotonic())
+        try:
+            with _collect_stages(job.times):
+                name, result = _run_job(job)
+        except Exception as exc:  # pragma: no cover
+            print(f"[!] Job {job.id} error: {exc}")
+            name, result = b"", b"ERROR_JOB_FAILED"
+
+        with _JOB_COND:
+            job.name, job.result = name, result
+            job.state = JOB_DONE if isinstance(result, Path) else JOB_FAILED
+            job.finished_at = time.time()
+            _JOB_COND.notify_all()
+        print(f"[*] Job {job.id} {job.state}")
+
+
+def _lookup_glb_path(hashed: str) -> Union[Path, bytes]:
+    """Resolve a GLB hash to its file on disk, or an ``ERROR_*`` message."""
+
     if not hashed:
         return b"ERROR_INVALID_HASH"
 
@@ -247,18 +852,556 @@ def getGLBRequest(payload: bytes) -> bytes:
         abs_path = (BASE_DIR / record.file_path).resolve()
         if not abs_path.exists():
             return b"ERROR_FILE_MISSING"
-        return abs_path.read_bytes()
+        return abs_path
+    finally:
+        db.close()
+
+
+def getGLBRequest(payload: bytes) -> Union[Path, bytes]:
+    """Returns the GLB path (streamed by the caller) or an error message."""
+
+    return _lookup_glb_path(payload.decode("utf-8").strip())
+
+
+def getGLBBatchRequest(payload: bytes) -> Union[list[tuple[str, Union[Path, bytes]]], bytes]:
+    """Request ``["hash", ...]`` -> ``[(hash, path or ERROR_*), ...]`` in request order.
+
+    All records are resolved with a single query instead of one per hash.
+    Returns an ``ERROR_*`` message if the request itself is malformed.
+    """
+
+    try:
+        hashes = json.loads(payload.decode("utf-8"))
+    except (UnicodeDecodeError, ValueError):
+        return b"ERROR_INVALID_PAYLOAD"
+    if not isinstance(hashes, list) or not all(isinstance(h, str) for h in hashes):
+        return b"ERROR_INVALID_PAYLOAD"
+    if len(hashes) > GLB_BATCH_MAX:
+        return b"ERROR_BATCH_TOO_LARGE"
+
+    wanted = {h.strip() for h in hashes if h.strip()}
+    db = SessionLocal()
+    try:
+        records = db.query(GlbFile).filter(GlbFile.hashed_name.in_(wanted)).all() if wanted else []
+        paths = {record.hashed_name: record.file_path for record in records}
     finally:
         db.close()
 
+    entries: list[tuple[str, Union[Path, bytes]]] = []
+    for hashed in hashes:
+        key = hashed.strip()
+        if not key:
+            entries.append((hashed, b"ERROR_INVALID_HASH"))
+        elif key not in paths:
+            entries.append((hashed, b"ERROR_HASH_NOT_FOUND"))
+        else:
+            abs_path = (BASE_DIR / paths[key]).resolve()
+            entries.append((hashed, abs_path if abs_path.exists() else b"ERROR_FILE_MISSING"))
+    return entries
+
+
+def getGLBRangeRequest(payload: bytes) -> bytes:
+    """Request ``[offset:8][length:4][hash]`` -> ``[total:8][data]``.
+
+    ``total`` is -1 on failure and the data is the ``ERROR_*`` message. Only
+    the requested slice is read from disk.
+    """
+
+    if len(payload) < 12:
+        return struct.pack(">q", -1) + b"ERROR_INVALID_RANGE"
+    offset, length = struct.unpack(">qI", payload[:12])
+    found = _lookup_glb_path(payload[12:].decode("utf-8", errors="replace").strip())
+    if isinstance(found, bytes):
+        return struct.pack(">q", -1) + found
+    if offset < 0:
+        return struct.pack(">q", -1) + b"ERROR_INVALID_RANGE"
+
+    total = found.stat().st_size
+    with open(found, "rb") as fp:
+        fp.seek(min(offset, total))
+        data = fp.read(min(length, GLB_RANGE_MAX))
+    return struct.pack(">q", total) + data
+
+
+def listGLBRequest(payload: bytes, user_id: Optional[int]) -> bytes:
+    """Request ``{"cursor": n, "limit": n}`` -> one page of the user's GLBs.
+
+    Records are returned in ``glb_files.id`` order after ``cursor`` (0 for the
+    first page), as ``{"items": [{"hash", "name", "size", "created_at"}, ...],
+    "cursor": n, "more": bool}``. The returned cursor is the last id in the
+    page, so a client that keeps it only ever fetches models created since.
+    ``created_at`` is in epoch milliseconds.
+    """
+
+    if not user_id:
+        return b"ERROR_NOT_LOGGED_IN"
+    try:
+        request = json.loads(payload.decode("utf-8")) if payload else {}
+        cursor = int(request.get("cursor") or 0)
+        limit = int(request.get("limit") or GLB_LIST_MAX)
+    except (UnicodeDecodeError, ValueError, TypeError, AttributeError):
+        return b"ERROR_INVALID_PAYLOAD"
+    limit = max(1, min(limit, GLB_LIST_MAX))
+
+    db = SessionLocal()
+    try:
+        # One extra row tells whether another page follows
+        records = (
+            db.query(GlbFile)
+            .filter(GlbFile.user_id == user_id, GlbFile.id > cursor)
+            .order_by(GlbFile.id)
+            .limit(limit + 1)
+            .all()
+        )
+    finally:
+        db.close()
+
+    page = records[:limit]
+    items = [
+        {
+            "hash": record.hashed_name,
+            "name": record.original_name,
+            "size": record.file_size,
+            "created_at": _epoch_millis(record.created_at),
+        }
+        for record in page
+    ]
+    next_cursor = page[-1].id if page else cursor
+    return json.dumps({"items": items, "cursor": next_cursor, "more": len(records) > limit}).encode("utf-8")
+
+
+def _epoch_millis(timestamp: datetime) -> int:
+    # SQLite drops the timezone; records are always written in UTC
+    if timestamp.tzinfo is None:
+        timestamp = timestamp.replace(tzinfo=timezone.utc)
+    return int(timestamp.timestamp() * 1000)
+
+
+# Network diagnostics --------------------------------------------------------
+#
+# ECHO   [data]       -> [data]
+# SINK   [data]       -> {"bytes": n, "recv_ms": ms}
+# SOURCE {"size": n}  -> [n bytes]
+#
+# None of these touch the database or the model, so their timings measure the
+# network and the socket loop only: fast diagnostics next to slow jobs point at
+# the server. recv_ms is how long the SINK body took to arrive from its first
+# byte. SOURCE data is random and never compressed, whatever "enc" says.
+
+_DIAG_BLOCK = os.urandom(MUX_FRAME_MAX)
+
+
+def echoRequest(payload: bytes) -> bytes:
+    if len(payload) > DIAG_ECHO_MAX:
+        return b"ERROR_INVALID_PAYLOAD"
+    return payload
+
+
+def sinkRequest(payload: bytes, recv_ms: float) -> bytes:
+    return json.dumps({"bytes": len(payload), "recv_ms": round(recv_ms, 1)}).encode("utf-8")
+
+
+def sourceRequest(payload: bytes) -> Union[int, bytes]:
+    """Request ``{"size": n}`` -> n, or an ``ERROR_*`` message."""
+    try:
+        size = int(json.loads(payload.decode("utf-8"))["size"])
+    except (UnicodeDecodeError, ValueError, TypeError, KeyError):
+        return b"ERROR_INVALID_PAYLOAD"
+    if not 0 <= size <= DIAG_SOURCE_MAX:
+        return b"ERROR_INVALID_PAYLOAD"
+    return size
+
+
+def _send_source(conn, size: int) -> None:
+    """[len][size random bytes], streamed from one pre-generated block."""
+    conn.sendall(struct.pack(">I", size))
+    block = memoryview(_DIAG_BLOCK)
+    remaining = size
+    while remaining > 0:
+        count = min(remaining, len(block))
+        conn.sendall(block[:count])
+        remaining -= count
+
 
 # Socket server loop ---------------------------------------------------------
 
+def _compressor(encoding: str):
+    if encoding == "zstd":
+        return zstandard.ZstdCompressor(level=ZSTD_LEVEL).compressobj()
+    return zlib.compressobj(DEFLATE_LEVEL)
+
+
+def _send_encoded(conn, encoding: str, blocks) -> None:
+    """Stream ``blocks`` through the compressor as [chunkLen][chunk]... [0]."""
+    compressor = _compressor(encoding)
+
+    def emit(chunk: bytes) -> None:
+        if chunk:
+            conn.sendall(struct.pack(">I", len(chunk)))
+            conn.sendall(chunk)
+
+    for block in blocks:
+        emit(compressor.compress(block))
+    emit(compressor.flush())
+    conn.sendall(struct.pack(">I", 0))
+
+
+def _send_data(conn, data: bytes, encoding: Optional[str]) -> None:
+    if encoding:
+        view = memoryview(data)
+        _send_encoded(conn, encoding, (view[i:i + ENCODE_BLOCK] for i in range(0, len(view), ENCODE_BLOCK)))
+    else:
+        conn.sendall(data)
+
+
+def _send_file_response(conn, path: Path, encoding: Optional[str] = None) -> None:
+    """[len][data] response streamed from disk without loading the file."""
+    with open(path, "rb") as fp:
+        size = os.fstat(fp.fileno()).st_size
+        conn.sendall(struct.pack(">I", size))
+        if encoding:
+            _send_encoded(conn, encoding, iter(lambda: fp.read(ENCODE_BLOCK), b""))
+        else:
+            conn.sendfile(fp, 0, size)
+
+
+def _send_glb_batch(conn, entries, encoding: Optional[str] = None) -> None:
+    """[count:4] then per entry [hashLen][hash][status:1][len][data].
+
+    Each file is streamed from disk as soon as the previous one is sent, so
+    the client can write entries to disk as they arrive. A failed entry
+    carries its ``ERROR_*`` message as data; a malformed request is answered
+    with count -1 followed by [len][ERROR_*].
+    """
+    if isinstance(entries, bytes):
+        conn.sendall(struct.pack(">iI", -1, len(entries)))
+        conn.sendall(entries)
+        return
+    conn.sendall(struct.pack(">i", len(entries)))
+    for hashed, found in entries:
+        hash_bytes = hashed.encode("utf-8")
+        conn.sendall(struct.pack(">I", len(hash_bytes)))
+        conn.sendall(hash_bytes)
+        if isinstance(found, Path):
+            conn.sendall(struct.pack(">B", BATCH_OK))
+            _send_file_response(conn, found, encoding)
+        else:
+            conn.sendall(struct.pack(">BI", BATCH_ERROR, len(found)))
+            _send_data(conn, found, encoding)
+
+
+def _send_named_response(conn, name_bytes: bytes, payload: Union[Path, bytes],
+                         encoding: Optional[str] = None, times: Optional[_StageTimes] = None) -> None:
+    """CMD_IMAGE / CMD_VIDEO style response: [nameLen][name][dataLen][data].
+
+    ``payload`` is the GLB file (streamed from disk) or an ``ERROR_*`` message.
+    With ``times`` the stage timing trailer follows, including the send itself.
+    """
+    start = time.monotonic()
+    conn.sendall(struct.pack(">I", len(name_bytes)))
+    if name_bytes:
+        conn.sendall(name_bytes)
+    if isinstance(payload, Path):
+        _send_file_response(conn, payload, encoding)
+    else:
+        conn.sendall(struct.pack(">I", len(payload)))
+        _send_data(conn, payload, encoding)
+    if times is not None:
+        times.add("send", start, time.monotonic())
+        trailer = times.trailer()
+        conn.sendall(struct.pack(">I", len(trailer)))
+        conn.sendall(trailer)
+
+
+def _send_generation(out, handler, payload: bytes, session: _ClientSession) -> None:
+    """Run a generation handler and send its named response, with the stage
+    timing trailer when the client negotiated it."""
+    times = _StageTimes()
+    with _collect_stages(times):
+        name, result = handler(payload, session.user_id)
+    _send_named_response(out, name, result, session.encoding, times if session.timing else None)
+
+
+class _ClientSession:
+    """Per-connection state shared by every request on the connection."""
+
+    def __init__(self, addr) -> None:
+        self.ip = addr[0]
+        with _SESSION_LOCK:
+            self.user_id: Optional[int] = _LAST_USER_BY_IP.get(self.ip)
+        self.encoding: Optional[str] = None
+        self.timing = False
+        # Per-stream receive window agreed in HELLO; None without flow control
+        self.window: Optional[int] = None
+
+
+def _handle_command(out, cmd_type: int, payload: bytes, session: _ClientSession,
+                    recv_ms: float = 0.0) -> None:
+    """Run one command and write its legacy-format response to ``out``.
+
+    ``out`` is either the client socket or a _StreamWriter; both offer
+    ``sendall`` and ``sendfile``. ``recv_ms`` is how long the request body
+    took to arrive.
+    """
+    if cmd_type == CMD_LOGIN:
+        resp_bytes, user_id = loginRequest(payload)
+        if user_id is not None:
+            session.user_id = user_id
+            with _SESSION_LOCK:
+                _LAST_USER_BY_IP[session.ip] = user_id
+        response = resp_bytes
+    elif cmd_type == CMD_IMAGE:
+        _send_generation(out, genByImageRequest, payload, session)
+        return
+    elif cmd_type == CMD_VIDEO:
+        _send_generation(out, genByVideoRequest, payload, session)
+        return
+    elif cmd_type == CMD_GET_GLB:
+        found = getGLBRequest(payload)
+        if isinstance(found, Path):
+            _send_file_response(out, found, session.encoding)
+            return
+        out.sendall(struct.pack(">I", len(found)))
+        _send_data(out, found, session.encoding)
+        return
+    elif cmd_type == CMD_GET_GLB_RANGE:
+        # [len][total:8][data]: total stays plain so the client can size the file
+        response = getGLBRangeRequest(payload)
+        out.sendall(struct.pack(">I", len(response)))
+        out.sendall(response[:8])
+        _send_data(out, response[8:], session.encoding)
+        return
+    elif cmd_type == CMD_JOB_SUBMIT:
+        response = jobSubmitRequest(payload, session.user_id)
+    elif cmd_type == CMD_JOB_STATUS:
+        response = jobStatusRequest(payload, session.user_id)
+    elif cmd_type == CMD_JOB_RESULT:
+        _send_generation(out, jobResultRequest, payload, session)
+        return
+    elif cmd_type == CMD_GET_GLB_BATCH:
+        _send_glb_batch(out, getGLBBatchRequest(payload), session.encoding)
+        return
+    elif cmd_type == CMD_LIST_GLB:
+        response = listGLBRequest(payload, session.user_id)
+    elif cmd_type == CMD_UPLOAD_OPEN:
+        response = uploadOpenRequest(payload, session.user_id)
+    elif cmd_type == CMD_UPLOAD_CHUNK:
+        response = uploadChunkRequest(payload, session.user_id)
+    elif cmd_type == CMD_UPLOAD_QUERY:
+        response = uploadQueryRequest(payload, session.user_id)
+    elif cmd_type == CMD_UPLOAD_COMMIT:
+        _send_generation(out, uploadCommitRequest, payload, session)
+        return
+    elif cmd_type == CMD_BLOB_QUERY:
+        response = blobQueryRequest(payload, session.user_id)
+    elif cmd_type == CMD_BLOB_PUT:
+        response = blobPutRequest(payload, session.user_id)
+    elif cmd_type == CMD_IMAGE_BY_HASH:
+        _send_generation(out, genByImageHashesRequest, payload, session)
+        return
+    elif cmd_type == CMD_ECHO:
+        response = echoRequest(payload)
+    elif cmd_type == CMD_SINK:
+        response = sinkRequest(payload, recv_ms)
+    elif cmd_type == CMD_SOURCE:
+        size = sourceRequest(payload)
+        if isinstance(size, int):
+            _send_source(out, size)
+            return
+        response = size
+    else:
+        response = b"UNKNOWN_COMMAND"
+
+    out.sendall(struct.pack(">I", len(response)))
+    out.sendall(response)
+
+
+# Multiplexed streams (protocol v2) ------------------------------------------
+#
+# After HELLO the connection carries interleaved frames. Each stream is one
+# legacy request/response pair: HEADERS [cmd], DATA* (request body), END.
+# The response comes back as DATA* + END, or RESET if the handler failed.
+# Requests run on their own threads, so a download is not stuck behind a
+# reconstruction that is still running on the same connection.
+
+class _StreamReset(Exception):
+    """The client reset the stream; stop writing its response."""
+
+
+class _StreamWriter:
+    """Socket-like sink that wraps one stream's response bytes into DATA frames.
+
+    With flow control, DATA is only sent while the stream has credit left; the
+    writer waits (outside the connection's write lock) for the client's WINDOW
+    frames, so other streams keep flowing meanwhile.
+    """
+
+    def __init__(self, conn: socket.socket, write_lock: threading.Lock, stream_id: int,
+                 window: Optional[int] = None) -> None:
+        self._conn = conn
+        self._lock = write_lock
+        self.stream_id = stream_id
+        self.cancelled = False
+        self._credit = window
+        self._credit_changed = threading.Condition()
+
+    def grant(self, increment: int) -> None:
+        with self._credit_changed:
+            if self._credit is not None:
+                self._credit += increment
+            self._credit_changed.notify_all()
+
+    def cancel(self) -> None:
+        with self._credit_changed:
+            self.cancelled = True
+            self._credit_changed.notify_all()
+
+    def _take_credit(self, wanted: int) -> int:
+        if self._credit is None:
+            return wanted
+        with self._credit_changed:
+            while self._credit <= 0 and not self.cancelled:
+                self._credit_changed.wait()
+            if self.cancelled:
+                raise _StreamReset()
+            count = min(wanted, self._credit)
+            self._credit -= count
+            return count
+
+    def _frame(self, frame_type: int, payload=b"") -> None:
+        with self._lock:
+            self._conn.sendall(struct.pack(">BII", frame_type, self.stream_id, len(payload)))
+            if payload:
+                self._conn.sendall(payload)
+
+    def sendall(self, data) -> None:
+        view = memoryview(data)
+        start = 0
+        while start < len(view):
+            if self.cancelled:
+                raise _StreamReset()
+            count = self._take_credit(min(MUX_FRAME_MAX, len(view) - start))
+            self._frame(FRAME_DATA, view[start:start + count])
+            start += count
+
+    def sendfile(self, fp, offset: int = 0, count: Optional[int] = None) -> None:
+        fp.seek(offset)
+        remaining = count
+        while remaining is None or remaining > 0:
+            chunk = fp.read(MUX_FRAME_MAX if remaining is None else min(MUX_FRAME_MAX, remaining))
+            if not chunk:
+                break
+            self.sendall(chunk)
+            if remaining is not None:
+                remaining -= len(chunk)
+
+    def end(self) -> None:
+        self._frame(FRAME_END)
+
+    def reset(self) -> None:
+        self._frame(FRAME_RESET)
+
+
+def _run_stream(writer: _StreamWriter, cmd_type: int, payload: bytes,
+                session: _ClientSession, running: dict, recv_ms: float) -> None:
+    try:
+        _handle_command(writer, cmd_type, payload, session, recv_ms)
+        writer.end()
+    except _StreamReset:
+        print(f"[*] Stream {writer.stream_id} reset by client")
+    except Exception as exc:
+        print(f"[!] Stream {writer.stream_id} failed: {exc}")
+        try:
+            writer.reset()
+        except OSError:
+            pass
+    finally:
+        running.pop(writer.stream_id, None)
+
+
+def _serve_multiplexed(conn: socket.socket, session: _ClientSession) -> None:
+    write_lock = threading.Lock()
+    # stream id -> (cmd, request body so far, when HEADERS arrived)
+    pending: dict[int, tuple[int, bytearray, float]] = {}
+    running: dict[int, _StreamWriter] = {}
+    try:
+        while True:
+            header = recv_exact(conn, 9)
+            if not header:
+                break
+            frame_type, stream_id, length = struct.unpack(">BII", header)
+            if length > MUX_FRAME_MAX:
+                print(f"[!] Frame too large: {length}")
+                break
+            payload = recv_exact(conn, length) if length else b""
+            if payload is None:
+                break
+
+            if frame_type == FRAME_HEADERS:
+                pending[stream_id] = (payload[0], bytearray(), time.monotonic())
+            elif frame_type == FRAME_DATA:
+                if stream_id in pending:
+                    pending[stream_id][1].extend(payload)
+            elif frame_type == FRAME_END:
+                if stream_id not in pending:
+                    continue
+                cmd_type, body, started = pending.pop(stream_id)
+                recv_ms = (time.monotonic() - started) * 1000
+                print(f"[*] Stream {stream_id}: type={cmd_type}, len={len(body)}, current_user={session.user_id}")
+                writer = _StreamWriter(conn, write_lock, stream_id, session.window)
+                running[stream_id] = writer
+                threading.Thread(
+                    target=_run_stream,
+                    args=(writer, cmd_type, bytes(body), session, running, recv_ms),
+                    daemon=True,
+                ).start()
+            elif frame_type == FRAME_RESET:
+                pending.pop(stream_id, None)
+                writer = running.get(stream_id)
+                if writer is not None:
+                    writer.cancel()
+            elif frame_type == FRAME_WINDOW:
+                writer = running.get(stream_id)
+                if writer is not None and length == 4:
+                    writer.grant(struct.unpack(">I", payload)[0])
+            else:
+                print(f"[!] Unknown frame type: {frame_type}")
+                break
+    finally:
+        for writer in list(running.values()):
+            writer.cancel()
+
+
+def _negotiate(payload: bytes) -> dict:
+    """Pick the protocol version and the best encoding both sides support,
+    and announce the optional commands this server implements."""
+    try:
+        hello = json.loads(payload.decode("utf-8"))
+        requested = int(hello.get("v", 1))
+        offered = [str(e) for e in hello.get("enc", [])]
+        timing = hello.get("timing") is True
+        window = int(hello.get("window", 0))
+    except (ValueError, AttributeError, TypeError):
+        requested, offered, timing, window = 1, [], False, 0
+    features = SERVER_FEATURES + [FEATURE_TIMING] if timing else list(SERVER_FEATURES)
+    agreed = {"v": max(1, min(requested, PROTOCOL_VERSION)), "features": features}
+    if window > 0:
+        features.append(FEATURE_FLOW)
+        agreed["window"] = window
+    encoding = next((e for e in ENCODING_PREFERENCE if e in offered), None)
+    if encoding:
+        agreed["enc"] = encoding
+    return agreed
+
+
 def handle_client(conn: socket.socket, addr) -> None:
     client_id = f"{addr[0]}:{addr[1]}"
     print(f"[+] Connected: {client_id}")
-    with _SESSION_LOCK:
-        current_user_id: Optional[int] = _LAST_USER_BY_IP.get(addr[0])
+    session = _ClientSession(addr)
+    # Responses go out as length + body (or frame header + payload) in separate
+    # sends; with Nagle on, the body of a small reply waits for the client's
+    # delayed ACK, adding ~40 ms to every round trip
+    conn.setsockopt(socket.IPPROTO_TCP, socket.TCP_NODELAY, 1)
 
     try:
         while True:
@@ -267,42 +1410,28 @@ def handle_client(conn: socket.socket, addr) -> None:
                 break
             cmd_type = header[0]
             data_length = struct.unpack(">I", header[1:5])[0]
+            recv_start = time.monotonic()
             payload = recv_exact(conn, data_length)
             if payload is None or len(payload) != data_length:
                 print("[!] Incomplete payload received.")
                 break
 
-            print(f"[*] Command received: type={cmd_type}, len={data_length}, current_user={current_user_id}")
-            if cmd_type == CMD_LOGIN:
-                resp_bytes, user_id = loginRequest(payload)
-                if user_id is not None:
-                    current_user_id = user_id
-                    with _SESSION_LOCK:
-                        _LAST_USER_BY_IP[addr[0]] = user_id
-                response = resp_bytes
-            elif cmd_type == CMD_IMAGE:
-                name_bytes, payload_bytes = genByImageRequest(payload, current_user_id)
-                conn.sendall(struct.pack(">I", len(name_bytes)))
-                if name_bytes:
-                    conn.sendall(name_bytes)
-                conn.sendall(struct.pack(">I", len(payload_bytes)))
-                conn.sendall(payload_bytes)
+            print(f"[*] Command received: type={cmd_type}, len={data_length}, current_user={session.user_id}")
+            if cmd_type == CMD_HELLO:
+                agreed = _negotiate(payload)
+                session.encoding = agreed.get("enc")
+                session.timing = FEATURE_TIMING in agreed["features"]
+                session.window = agreed.get("window")
+                response = json.dumps(agreed).encode("utf-8")
+                conn.sendall(struct.pack(">I", len(response)))
+                conn.sendall(response)
+                if agreed["v"] >= 2:
+                    print(f"[*] {client_id} switched to multiplexed streams")
+                    _serve_multiplexed(conn, session)
+                    break
                 continue
-            elif cmd_type == CMD_VIDEO:
-                name_bytes, payload_bytes = genByVideoRequest(payload, current_user_id)
-                conn.sendall(struct.pack(">I", len(name_bytes)))
-                if name_bytes:
-                    conn.sendall(name_bytes)
-                conn.sendall(struct.pack(">I", len(payload_bytes)))
-                conn.sendall(payload_bytes)
-                continue
-            elif cmd_type == CMD_GET_GLB:
-                response = getGLBRequest(payload)
-            else:
-                response = b"UNKNOWN_COMMAND"
 
-            conn.sendall(struct.pack(">I", len(response)))
-            conn.sendall(response)
+            _handle_command(conn, cmd_type, payload, session, (time.monotonic() - recv_start) * 1000)
     except Exception as exc:  # pragma: no cover
         print(f"[!] Client handler error: {exc}")
     finally:
@@ -315,6 +1444,7 @@ def main() -> None:
     try:
         server.bind((HOST, PORT))
         server.listen(5)
+        threading.Thread(target=_job_worker, name="job-worker", daemon=True).start()
         print("==========================================")
         print(f" Manager TCP Server running on port {PORT}")
         print(" Waiting for connections...")